@@ -0,0 +1,46 @@
+package lib.jebt.async;
+
+import lib.jebt.JebtReader;
+import lib.jebt.JebtWriter;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking variants of {@link JebtReader#readData()} and {@link JebtWriter#writeData(Map)}, running them on an executor.
+ * <p>
+ * To process records one at a time instead of all-or-nothing, see {@link JebtRecordPublisher} and {@link JebtRecordSubscriber}.
+ * </p>
+ * This package needs Java 9+ (CompletableFuture and Flow), so it ships in its own jebt-async module: the jebt core still builds and runs on Java 7.
+ */
+public final class JebtAsync {
+
+    private JebtAsync() {
+    }
+
+    /**
+     * @param executor runs the reader. It should allow blocking, as readers do IO.
+     * @return the data read, or the error of the reader.
+     */
+    public static CompletableFuture<Map> readData(final JebtReader reader, Executor executor) {
+        return CompletableFuture.supplyAsync(new Supplier<Map>() {
+            @Override public Map get() {
+                return reader.readData();
+            }
+        }, executor);
+    }
+
+    /**
+     * @param executor runs the writer. It should allow blocking, as writers do IO.
+     * @return completed once the document is written, or with the error of the writer.
+     */
+    public static CompletableFuture<Void> writeData(final JebtWriter writer, final Map data, Executor executor) {
+        return CompletableFuture.runAsync(new Runnable() {
+            @Override public void run() {
+                writer.writeData(data);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,185 @@
+package lib.jebt.async;
+
+import lib.jebt.JebtReader;
+import lib.jebt.JebtRecordSink;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the records of the main loops of a document as they're read, to a single subscriber.
+ * <p>
+ * The reader runs on the executor once subscribed, and records are passed to onNext on the reader thread, in the document order.
+ * While the subscriber has no demand, the reader waits: a slow subscriber slows down reading instead of having records buffered.
+ * Cancelling the subscription stops the reader. The data read out of the main loops isn't published.
+ * </p>
+ * When the reader reuses records, the same Map is passed again for the next record, so it must not be kept after onNext.
+ */
+public class JebtRecordPublisher implements Flow.Publisher<JebtRecordPublisher.LoopRecord> {
+
+    /**
+     * Creates the reader passing its records to the sink, e.g. with the JebtRecordSink constructors of {@link lib.jebt.xlsx.JebtXlsxReader}.
+     */
+    public interface ReaderFactory {
+        JebtReader createReader(JebtRecordSink recordSink);
+    }
+
+    private final ReaderFactory readerFactory;
+
+    private final Executor executor;
+
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param executor runs the reader. It should allow blocking, as the reader waits for demand.
+     */
+    public JebtRecordPublisher(ReaderFactory readerFactory, Executor executor) {
+        this.readerFactory = readerFactory;
+        this.executor = executor;
+    }
+
+    @Override public void subscribe(Flow.Subscriber<? super LoopRecord> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can't be null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) {
+                }
+
+                @Override public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("A document can only be published to one subscriber"));
+            return;
+        }
+
+        RecordSubscription subscription = new RecordSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription);
+    }
+
+    /**
+     * A record of a main loop, see {@link JebtRecordSink#accept(String, int, Map)}.
+     */
+    public static class LoopRecord {
+
+        private final String collectionJsonPath;
+
+        private final int index;
+
+        private final Map data;
+
+        LoopRecord(String collectionJsonPath, int index, Map data) {
+            this.collectionJsonPath = collectionJsonPath;
+            this.index = index;
+            this.data = data;
+        }
+
+        public String getCollectionJsonPath() {
+            return collectionJsonPath;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Map getData() {
+            return data;
+        }
+    }
+
+    /**
+     * Thrown from the record sink to stop the reader once the subscription is cancelled.
+     */
+    private static class CancelledException extends RuntimeException {
+        CancelledException() {
+            super("Subscription cancelled", null, false, false);
+        }
+    }
+
+    private class RecordSubscription implements Flow.Subscription, JebtRecordSink, Runnable {
+
+        private final Flow.Subscriber<? super LoopRecord> subscriber;
+
+        // Records may be read concurrently from several sheets, but are passed to the subscriber one at a time.
+        private final Object emitLock = new Object();
+
+        // Guarded by this.
+        private long demand = 0;
+
+        private boolean cancelled = false;
+
+        private RuntimeException requestError;
+
+        RecordSubscription(Flow.Subscriber<? super LoopRecord> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override public synchronized void request(long n) {
+            if (n <= 0) {
+                requestError = new IllegalArgumentException("Requested records must be positive: " + n);
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override public synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+
+        @Override public void run() {
+            try {
+                if (!isCancelled()) {
+                    readerFactory.createReader(this).readData();
+                }
+            } catch (RuntimeException e) {
+                if (!isCancelled()) {
+                    subscriber.onError(e);
+                }
+                return;
+            }
+            if (!isCancelled()) {
+                subscriber.onComplete();
+            }
+        }
+
+        @Override public void accept(String collectionJsonPath, int index, Map record) {
+            synchronized (emitLock) {
+                awaitDemand();
+                subscriber.onNext(new LoopRecord(collectionJsonPath, index, record));
+            }
+        }
+
+        private synchronized void awaitDemand() {
+            try {
+                while (demand == 0 && !cancelled && requestError == null) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for demand", e);
+            }
+            if (cancelled) {
+                throw new CancelledException();
+            }
+            if (requestError != null) {
+                // Rule 3.9 of Reactive Streams: the subscriber gets the error, and no more records.
+                cancelled = true;
+                subscriber.onError(requestError);
+                throw new CancelledException();
+            }
+            if (demand != Long.MAX_VALUE) {
+                demand--;
+            }
+        }
+
+        private synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
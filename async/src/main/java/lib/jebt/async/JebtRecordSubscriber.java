@@ -0,0 +1,191 @@
+package lib.jebt.async;
+
+import lib.jebt.JebtWriter;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes the items it's subscribed to as the collection of a top-level loop of the template (e.g. {[items|item]} with collection key "items").
+ * <p>
+ * The writer runs on the executor once subscribed, and writes items as they're received.
+ * At most bufferSize items are requested ahead of the writer: a slow writer slows down the publisher instead of having items buffered.
+ * If the writer fails or stops iterating before the end, the subscription is cancelled.
+ * </p>
+ * The collection can only be iterated once, so it must only be looped on once in the template.
+ */
+public class JebtRecordSubscriber implements Flow.Subscriber<Object> {
+
+    private static final Object END = new Object();
+
+    private final JebtWriter writer;
+
+    private final Map data;
+
+    private final String collectionKey;
+
+    private final int bufferSize;
+
+    private final Executor executor;
+
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    // Received items, then END or the error of the publisher. Never holds more than bufferSize items.
+    private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+
+    private Flow.Subscription subscription;
+
+    /**
+     * @param data the data of the document, out of the collection. It's not modified.
+     * @param collectionKey the key of the collection in data.
+     * @param bufferSize the number of items requested ahead of the writer.
+     * @param executor runs the writer. It should allow blocking, as the writer waits for items.
+     */
+    public JebtRecordSubscriber(JebtWriter writer, Map data, String collectionKey, int bufferSize, Executor executor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1: " + bufferSize);
+        }
+        this.writer = writer;
+        this.data = data;
+        this.collectionKey = collectionKey;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+    }
+
+    /**
+     * @return completed once the document is written, or with the error of the writer or of the publisher.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override public void onSubscribe(final Flow.Subscription subscription) {
+        synchronized (this) {
+            if (this.subscription != null) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        }
+
+        final Map writerData = new LinkedHashMap(data);
+        writerData.put(collectionKey, new SubscribedList());
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    writer.writeData(writerData);
+                    completion.complete(null);
+                } catch (RuntimeException e) {
+                    completion.completeExceptionally(e);
+                } finally {
+                    // Nothing more is read once the writer is done.
+                    subscription.cancel();
+                }
+            }
+        });
+        subscription.request(bufferSize);
+    }
+
+    @Override public void onNext(Object item) {
+        items.add(item);
+    }
+
+    @Override public void onError(Throwable throwable) {
+        items.add(new PublisherError(throwable));
+    }
+
+    @Override public void onComplete() {
+        items.add(END);
+    }
+
+    private static class PublisherError {
+
+        private final Throwable error;
+
+        PublisherError(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * The collection passed to the writer, whose iterator takes the received items, and requests one more item for each one taken.
+     */
+    private class SubscribedList extends AbstractList<Object> {
+
+        private boolean iterated = false;
+
+        @Override public synchronized Iterator<Object> iterator() {
+            if (iterated) {
+                throw new IllegalStateException("Items of " + collectionKey + " can only be iterated once");
+            }
+            iterated = true;
+
+            return new Iterator<Object>() {
+
+                private Object next;
+
+                private boolean nextTaken = false;
+
+                @Override public boolean hasNext() {
+                    if (!nextTaken) {
+                        next = take();
+                        nextTaken = true;
+                    }
+                    return next != END;
+                }
+
+                @Override public Object next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    nextTaken = false;
+                    subscription.request(1);
+                    return next;
+                }
+
+                @Override public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override public Object get(int index) {
+            throw new UnsupportedOperationException("Items of " + collectionKey + " can only be iterated");
+        }
+
+        @Override public int size() {
+            throw new UnsupportedOperationException("Items of " + collectionKey + " can only be iterated");
+        }
+
+        private Object take() {
+            Object item;
+            try {
+                item = items.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for items of " + collectionKey, e);
+            }
+            if (item instanceof PublisherError) {
+                // Taken again if the writer asks for more.
+                items.add(item);
+                Throwable error = ((PublisherError)item).error;
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException)error;
+                }
+                throw new RuntimeException("Error publishing items of " + collectionKey, error);
+            }
+            if (item == END) {
+                items.add(END);
+            }
+            return item;
+        }
+    }
+}
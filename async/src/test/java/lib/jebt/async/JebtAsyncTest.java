@@ -0,0 +1,265 @@
+package lib.jebt.async;
+
+import lib.jebt.JebtReader;
+import lib.jebt.JebtRecordSink;
+import lib.jebt.txt.JebtTextReader;
+import lib.jebt.txt.JebtTextWriter;
+import lib.jebt.xlsx.CorpusGenerator;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JebtAsyncTest {
+
+    private static final String TEMPLATE = "Names:{[names|name]} {{name}};{[]} End";
+
+    @Test
+    /**
+     * Async reads and writes complete with the result of the blocking calls, or with their error
+     */
+    public void testReadAndWrite() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Map data = new LinkedHashMap();
+            data.put("names", Arrays.asList("a", "b"));
+            StringWriter document = new StringWriter();
+            JebtAsync.writeData(new JebtTextWriter(new StringReader(TEMPLATE), document), data, executor).get(10, TimeUnit.SECONDS);
+            assertEquals("Names: a; b; End", document.toString());
+
+            Map readData = JebtAsync.readData(new JebtTextReader(new StringReader(TEMPLATE), new StringReader(document.toString())), executor)
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(data, readData);
+
+            CompletableFuture<Map> failed = JebtAsync.readData(new JebtTextReader(new StringReader(TEMPLATE), new StringReader("Nothing")), executor);
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue(e.getCause() instanceof RuntimeException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    /**
+     * Records are published in order, and the reader never reads more records than requested
+     */
+    public void testPublisherDemand() throws Exception {
+        final CorpusGenerator generator = new CorpusGenerator(5, 200, 2, 10, 2);
+        final byte[] template = write(generator.createTemplate());
+        final byte[] document = writeDocument(template, generator.createData());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicInteger readCount = new AtomicInteger();
+        JebtRecordPublisher publisher = new JebtRecordPublisher(new JebtRecordPublisher.ReaderFactory() {
+            @Override public JebtReader createReader(final JebtRecordSink recordSink) {
+                try {
+                    return JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(new ByteArrayInputStream(document))
+                            .recordSink(new JebtRecordSink() {
+                                @Override public void accept(String collectionJsonPath, int index, Map record) {
+                                    readCount.incrementAndGet();
+                                    recordSink.accept(collectionJsonPath, index, record);
+                                }
+                            }).build();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, executor);
+
+        final List<Integer> indexes = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<JebtRecordPublisher.LoopRecord>() {
+            private Flow.Subscription subscription;
+
+            @Override public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override public void onNext(JebtRecordPublisher.LoopRecord record) {
+                // The record being read is the only one read but not received yet.
+                if (readCount.get() != indexes.size() + 1) {
+                    errors.add("Read " + readCount.get() + " records when " + indexes.size() + " were received");
+                }
+                if (!record.getData().equals(generator.createItem(record.getIndex()))) {
+                    errors.add("Record " + record.getIndex() + " differs");
+                }
+                indexes.add(record.getIndex());
+                subscription.request(1);
+            }
+
+            @Override public void onError(Throwable throwable) {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(new ArrayList<String>(), errors);
+        assertEquals(200, indexes.size());
+        for (int i = 0; i < indexes.size(); i++) {
+            assertEquals(Integer.valueOf(i), indexes.get(i));
+        }
+    }
+
+    @Test
+    /**
+     * Cancelling the subscription stops the reader
+     */
+    public void testPublisherCancel() throws Exception {
+        final CorpusGenerator generator = new CorpusGenerator(6, 200, 2, 10, 2);
+        final byte[] template = write(generator.createTemplate());
+        final byte[] document = writeDocument(template, generator.createData());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicInteger readCount = new AtomicInteger();
+        final CompletableFuture<Void> readerDone = new CompletableFuture<>();
+        JebtRecordPublisher publisher = new JebtRecordPublisher(new JebtRecordPublisher.ReaderFactory() {
+            @Override public JebtReader createReader(final JebtRecordSink recordSink) {
+                try {
+                    final JebtXlsxReader reader = JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template)))
+                            .document(new ByteArrayInputStream(document)).recordSink(new JebtRecordSink() {
+                        @Override public void accept(String collectionJsonPath, int index, Map record) {
+                            readCount.incrementAndGet();
+                            recordSink.accept(collectionJsonPath, index, record);
+                        }
+                    }).reuseRecords(true).build();
+                    return new JebtReader() {
+                        @Override public Map readData() {
+                            try {
+                                return reader.readData();
+                            } finally {
+                                readerDone.complete(null);
+                            }
+                        }
+                    };
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, executor);
+
+        final List<Object> signals = new ArrayList<>();
+        publisher.subscribe(new Flow.Subscriber<JebtRecordPublisher.LoopRecord>() {
+            private Flow.Subscription subscription;
+
+            private int received = 0;
+
+            @Override public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(3);
+            }
+
+            @Override public void onNext(JebtRecordPublisher.LoopRecord record) {
+                if (++received == 3) {
+                    subscription.cancel();
+                }
+            }
+
+            @Override public void onError(Throwable throwable) {
+                signals.add(throwable);
+            }
+
+            @Override public void onComplete() {
+                signals.add("complete");
+            }
+        });
+        readerDone.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(4, readCount.get());
+        assertTrue(signals.isEmpty());
+    }
+
+    @Test
+    /**
+     * A subscriber writes the published items as the collection of a loop, as if it had been passed in the data
+     */
+    public void testSubscriber() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            names.add("n" + i);
+        }
+        Map data = new LinkedHashMap();
+        data.put("names", names);
+        StringWriter expected = new StringWriter();
+        new JebtTextWriter(new StringReader(TEMPLATE), expected).writeData(data);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StringWriter document = new StringWriter();
+            JebtRecordSubscriber subscriber = new JebtRecordSubscriber(new JebtTextWriter(new StringReader(TEMPLATE), document),
+                    new LinkedHashMap(), "names", 4, executor);
+            SubmissionPublisher<Object> publisher = new SubmissionPublisher<>();
+            publisher.subscribe(subscriber);
+            for (String name : names) {
+                publisher.submit(name);
+            }
+            publisher.close();
+
+            subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+            assertEquals(expected.toString(), document.toString());
+
+            // An error of the publisher fails the document.
+            subscriber = new JebtRecordSubscriber(new JebtTextWriter(new StringReader(TEMPLATE), new StringWriter()), new LinkedHashMap(), "names", 4,
+                    executor);
+            publisher = new SubmissionPublisher<>();
+            publisher.subscribe(subscriber);
+            publisher.submit("a");
+            publisher.closeExceptionally(new IllegalStateException("Broken"));
+            try {
+                subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertEquals("Broken", e.getCause().getMessage());
+            }
+            assertFalse(subscriber.getCompletion().isCancelled());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] write(XSSFWorkbook workbook) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        workbook.write(os);
+        return os.toByteArray();
+    }
+
+    private byte[] writeDocument(byte[] template, Map data) throws Exception {
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                .writeData(data);
+        return documentOS.toByteArray();
+    }
+}
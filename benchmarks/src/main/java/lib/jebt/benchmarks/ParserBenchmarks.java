@@ -0,0 +1,80 @@
+package lib.jebt.benchmarks;
+
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JsonPathResolver;
+import lib.jebt.parser.ParsingUtils;
+import lib.jebt.parser.Token;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Template tokenizing and JSON path evaluation and update.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmarks {
+
+    @Param({"100", "10000"})
+    public int recordCount;
+
+    @Param({"4", "16"})
+    public int fieldCount;
+
+    @Param({"1", "3"})
+    public int loopDepth;
+
+    // The loop template repeated once per record.
+    private String template;
+
+    private Map data;
+
+    private List<String> fieldPaths;
+
+    @Setup
+    public void setUp() {
+        String loopTemplate = SyntheticData.createTextTemplate(fieldCount, loopDepth);
+        StringBuilder repeated = new StringBuilder(loopTemplate.length() * recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            repeated.append(loopTemplate).append('\n');
+        }
+        template = repeated.toString();
+        data = SyntheticData.createData(recordCount, fieldCount, loopDepth);
+        fieldPaths = SyntheticData.createFieldPaths(recordCount, fieldCount, loopDepth);
+    }
+
+    @Benchmark
+    public void tokenizerReadNext(Blackhole blackhole) {
+        JebtTextTokenizer tokenizer = new JebtTextTokenizer(new StringReader(template));
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            blackhole.consume(token);
+        }
+    }
+
+    @Benchmark
+    public void resolverEvaluatePathToObject(Blackhole blackhole) {
+        JsonPathResolver resolver = new JsonPathResolver(data);
+        for (String path : fieldPaths) {
+            blackhole.consume(resolver.evaluatePathToObject(path));
+        }
+    }
+
+    @Benchmark
+    public Map parsingUtilsUpdateData() {
+        Map updated = new LinkedHashMap();
+        for (String path : fieldPaths) {
+            ParsingUtils.updateData(path, path, updated);
+        }
+        return updated;
+    }
+}
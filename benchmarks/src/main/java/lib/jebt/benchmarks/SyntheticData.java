@@ -0,0 +1,168 @@
+package lib.jebt.benchmarks;
+
+import lib.jebt.parser.JebtWriterTextProcessor;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic templates, data and documents used by the benchmarks.
+ * <p>
+ * Data has a title and recordCount items. Each item has fieldCount fields (f0, f1...) and, down to loopDepth levels of loops, 2 children items.
+ * Templates loop on all levels: items with i0, i0.children with i1, and so on. Documents are written from the templates and data with JEBT itself.
+ * </p>
+ */
+final class SyntheticData {
+
+    static final int CHILDREN_COUNT = 2;
+
+    private SyntheticData() {
+    }
+
+    static Map createData(int recordCount, int fieldCount, int loopDepth) {
+        Map data = new LinkedHashMap();
+        data.put("title", "Benchmark");
+        List items = new ArrayList();
+        for (int i = 0; i < recordCount; i++) {
+            items.add(createItem(i, fieldCount, 0, loopDepth));
+        }
+        data.put("items", items);
+        return data;
+    }
+
+    private static Map createItem(int index, int fieldCount, int level, int loopDepth) {
+        Map item = new LinkedHashMap();
+        for (int f = 0; f < fieldCount; f++) {
+            item.put("f" + f, "v" + index + "_" + f);
+        }
+        if (level < loopDepth - 1) {
+            List children = new ArrayList();
+            for (int c = 0; c < CHILDREN_COUNT; c++) {
+                children.add(createItem(c, fieldCount, level + 1, loopDepth));
+            }
+            item.put("children", children);
+        }
+        return item;
+    }
+
+    /**
+     * @return the paths of all the fields of the data, as written in templates without loops (e.g. items[3].children[1].f2).
+     */
+    static List<String> createFieldPaths(int recordCount, int fieldCount, int loopDepth) {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < recordCount; i++) {
+            addFieldPaths("items[" + i + "]", fieldCount, 0, loopDepth, paths);
+        }
+        return paths;
+    }
+
+    private static void addFieldPaths(String itemPath, int fieldCount, int level, int loopDepth, List<String> paths) {
+        for (int f = 0; f < fieldCount; f++) {
+            paths.add(itemPath + ".f" + f);
+        }
+        if (level < loopDepth - 1) {
+            for (int c = 0; c < CHILDREN_COUNT; c++) {
+                addFieldPaths(itemPath + ".children[" + c + "]", fieldCount, level + 1, loopDepth, paths);
+            }
+        }
+    }
+
+    /**
+     * @return a text template like "Title: {{title}}\n{[items|i0]}f0={{i0.f0}};&lt;{[i0.children|i1]}f0={{i1.f0}};{[]}&gt;\n{[]}END".
+     */
+    static String createTextTemplate(int fieldCount, int loopDepth) {
+        StringBuilder template = new StringBuilder("Title: {{title}}\n{[items|i0]}");
+        appendTextLoopBody(template, fieldCount, 0, loopDepth);
+        template.append("\n{[]}END");
+        return template.toString();
+    }
+
+    private static void appendTextLoopBody(StringBuilder template, int fieldCount, int level, int loopDepth) {
+        for (int f = 0; f < fieldCount; f++) {
+            template.append("f").append(f).append("={{i").append(level).append(".f").append(f).append("}};");
+        }
+        if (level < loopDepth - 1) {
+            template.append("<{[i").append(level).append(".children|i").append(level + 1).append("]}");
+            appendTextLoopBody(template, fieldCount, level + 1, loopDepth);
+            template.append("{[]}>");
+        }
+    }
+
+    static String createTextDocument(String template, Map data) {
+        StringWriter document = new StringWriter();
+        new JebtWriterTextProcessor().convertString(new StringReader(template), document, data);
+        return document.toString();
+    }
+
+    /**
+     * @return an XLSX template with the title on the first row, and all the loops on the second one: cells of inner loops follow the cells of their outer loop.
+     */
+    static byte[] createXlsxTemplate(int fieldCount, int loopDepth) throws IOException {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet("Data");
+        sheet.createRow(0).createCell(0).setCellValue("Title: {{title}}");
+
+        Drawing drawing = sheet.createDrawingPatriarch();
+        XSSFRow row = sheet.createRow(1);
+        int lastColumn = fieldCount * loopDepth - 1;
+        for (int level = 0; level < loopDepth; level++) {
+            for (int f = 0; f < fieldCount; f++) {
+                int column = level * fieldCount + f;
+                XSSFCell cell = row.createCell(column);
+                // Literal prefixes tell levels apart when matching.
+                cell.setCellValue("L" + level + "F" + f + ": {{i" + level + ".f" + f + "}}");
+
+                StringBuilder comment = new StringBuilder();
+                if (f == 0) {
+                    comment.append(level == 0 ? "{[items|i0]}" : "{[i" + (level - 1) + ".children|i" + level + "]}");
+                }
+                if (column == lastColumn) {
+                    for (int l = 0; l < loopDepth; l++) {
+                        comment.append("{[]}");
+                    }
+                }
+                if (comment.length() > 0) {
+                    ClientAnchor anchor = workbook.getCreationHelper().createClientAnchor();
+                    anchor.setCol1(column);
+                    anchor.setCol2(column + 2);
+                    anchor.setRow1(1);
+                    anchor.setRow2(4);
+                    Comment cellComment = drawing.createCellComment(anchor);
+                    cellComment.setString(new XSSFRichTextString(comment.toString()));
+                    cell.setCellComment(cellComment);
+                }
+            }
+        }
+
+        return toBytes(workbook);
+    }
+
+    static byte[] createXlsxDocument(byte[] template, Map data) throws IOException {
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), document)
+                .writeData(data);
+        return document.toByteArray();
+    }
+
+    static byte[] toBytes(XSSFWorkbook workbook) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        workbook.write(os);
+        return os.toByteArray();
+    }
+}
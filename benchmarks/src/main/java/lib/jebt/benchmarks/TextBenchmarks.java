@@ -0,0 +1,59 @@
+package lib.jebt.benchmarks;
+
+import lib.jebt.parser.JebtReaderTextProcessor;
+import lib.jebt.parser.JebtWriterTextProcessor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text templates, written from data and read back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmarks {
+
+    @Param({"100", "10000"})
+    public int recordCount;
+
+    @Param({"4", "16"})
+    public int fieldCount;
+
+    @Param({"1", "3"})
+    public int loopDepth;
+
+    private String template;
+
+    private Map data;
+
+    private String document;
+
+    @Setup
+    public void setUp() {
+        template = SyntheticData.createTextTemplate(fieldCount, loopDepth);
+        data = SyntheticData.createData(recordCount, fieldCount, loopDepth);
+        document = SyntheticData.createTextDocument(template, data);
+    }
+
+    @Benchmark
+    public StringWriter writerConvertString() {
+        StringWriter out = new StringWriter(document.length());
+        new JebtWriterTextProcessor().convertString(new StringReader(template), out, data);
+        return out;
+    }
+
+    @Benchmark
+    public Map readerExtractData() {
+        Map extracted = new LinkedHashMap();
+        new JebtReaderTextProcessor().extractData(new StringReader(template), new StringReader(document), extracted);
+        return extracted;
+    }
+}
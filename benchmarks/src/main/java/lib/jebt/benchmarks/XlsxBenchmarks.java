@@ -0,0 +1,103 @@
+package lib.jebt.benchmarks;
+
+import lib.jebt.xlsx.InMemorySharedStringsStore;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import lib.jebt.xlsx.XlsxTemplate;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * XLSX documents, written from data and read back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class XlsxBenchmarks {
+
+    @Param({"100", "10000"})
+    public int recordCount;
+
+    @Param({"4", "16"})
+    public int fieldCount;
+
+    @Param({"1", "3"})
+    public int loopDepth;
+
+    private byte[] templateBytes;
+
+    private XlsxTemplate template;
+
+    private Map data;
+
+    // The document is read from a file, as the template can only be used with document files when reading the sheets XML.
+    private File documentFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        templateBytes = SyntheticData.createXlsxTemplate(fieldCount, loopDepth);
+        template = XlsxTemplate.load(new ByteArrayInputStream(templateBytes));
+        data = SyntheticData.createData(recordCount, fieldCount, loopDepth);
+        documentFile = File.createTempFile("jebt-benchmark", ".xlsx");
+        Files.write(documentFile.toPath(), SyntheticData.createXlsxDocument(templateBytes, data));
+    }
+
+    @TearDown
+    public void tearDown() {
+        documentFile.delete();
+    }
+
+    @Benchmark
+    public void writerWriteData(WriterWorkbooks workbooks) {
+        new JebtXlsxWriter(workbooks.template, workbooks.base, new NullOutputStream()).writeData(data);
+    }
+
+    @Benchmark
+    public Map readerReadData() {
+        return JebtXlsxReader.builder(template).document(documentFile).build().readData();
+    }
+
+    /**
+     * Same as {@link #readerReadData()}, reading the document sheets XML instead of using excel-streaming-reader.
+     */
+    @Benchmark
+    public Map readerReadDataFromXml() {
+        return JebtXlsxReader.builder(template).document(documentFile).sharedStringsStore(new InMemorySharedStringsStore()).build().readData();
+    }
+
+    /**
+     * Writers tokenize and modify their template workbooks, so each write needs new ones.
+     */
+    @State(Scope.Thread)
+    public static class WriterWorkbooks {
+
+        XSSFWorkbook template;
+
+        XSSFWorkbook base;
+
+        @Setup(Level.Invocation)
+        public void setUp(XlsxBenchmarks benchmarks) throws IOException {
+            template = new XSSFWorkbook(new ByteArrayInputStream(benchmarks.templateBytes));
+            base = new XSSFWorkbook(new ByteArrayInputStream(benchmarks.templateBytes));
+        }
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override public void write(int b) {
+        }
+
+        @Override public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package lib.jebt.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Metrics emitting JDK Flight Recorder events for the phases of jobs and, when the lib.jebt.LoopRecord event is enabled, for every loop record matched.
+ * <p>
+ * Install it with {@link JebtMetrics#install(JebtMetrics)}. Events are only created while a recording has them enabled,
+ * so this costs next to nothing when nothing is recorded. Loop record events are disabled by default, as there's one per record.
+ * Events are committed when their phase is over, with the phase wall time as a field: their own duration is 0.
+ * </p>
+ * It needs jdk.jfr (Java 11+), so it ships in its own jebt-jfr module: the jebt core still builds and runs on Java 7.
+ */
+public class JfrJebtMetrics extends JebtMetrics {
+
+    private final JebtMetrics delegate;
+
+    public JfrJebtMetrics() {
+        this(NONE);
+    }
+
+    /**
+     * @param delegate metrics also receiving everything, e.g. to keep counters that aren't turned into events.
+     */
+    public JfrJebtMetrics(JebtMetrics delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override public void count(Counter counter, long delta) {
+        delegate.count(counter, delta);
+    }
+
+    @Override public void phaseCompleted(Phase phase, String templateName, int sheetIndex, long rowCount, long wallTimeNanos, long allocatedBytes) {
+        delegate.phaseCompleted(phase, templateName, sheetIndex, rowCount, wallTimeNanos, allocatedBytes);
+
+        PhaseEvent event;
+        switch (phase) {
+            case TOKENIZE:
+                event = new TokenizeEvent();
+                break;
+            case FILL:
+                event = new FillEvent();
+                break;
+            case FLUSH:
+                event = new FlushEvent();
+                break;
+            case SERIALIZE:
+                event = new SerializeEvent();
+                break;
+            default:
+                event = new ExtractEvent();
+                break;
+        }
+        if (event.isEnabled()) {
+            event.templateName = templateName;
+            event.sheetIndex = sheetIndex;
+            event.rowCount = rowCount;
+            event.wallTime = wallTimeNanos;
+            event.allocated = allocatedBytes;
+            event.commit();
+        }
+    }
+
+    @Override public boolean isTimingLoopRecords() {
+        return delegate.isTimingLoopRecords() || EventType.getEventType(LoopRecordEvent.class).isEnabled();
+    }
+
+    @Override public void loopRecordCompleted(String collectionJsonPath, int index, boolean matched, long wallTimeNanos) {
+        delegate.loopRecordCompleted(collectionJsonPath, index, matched, wallTimeNanos);
+
+        LoopRecordEvent event = new LoopRecordEvent();
+        if (event.isEnabled()) {
+            event.collectionJsonPath = collectionJsonPath;
+            event.index = index;
+            event.matched = matched;
+            event.wallTime = wallTimeNanos;
+            event.commit();
+        }
+    }
+
+    @Category("JEBT")
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+
+        @Label("Template Name")
+        @Description("Name of the template sheet, null for text documents and whole workbooks")
+        String templateName;
+
+        @Label("Sheet Index")
+        @Description("-1 for text documents and whole workbooks")
+        int sheetIndex;
+
+        @Label("Row Count")
+        @Description("Rows written, flushed or matched, -1 if it doesn't apply")
+        long rowCount;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+
+        @Label("Allocated")
+        @Description("Bytes allocated by the thread, -1 if the JVM can't tell")
+        @DataAmount
+        long allocated;
+    }
+
+    @Name("lib.jebt.Tokenize")
+    @Label("Template Tokenization")
+    static class TokenizeEvent extends PhaseEvent {
+    }
+
+    @Name("lib.jebt.Fill")
+    @Label("Sheet Fill")
+    static class FillEvent extends PhaseEvent {
+    }
+
+    @Name("lib.jebt.Flush")
+    @Label("SXSSF Flush")
+    static class FlushEvent extends PhaseEvent {
+    }
+
+    @Name("lib.jebt.Serialize")
+    @Label("Workbook Serialization")
+    static class SerializeEvent extends PhaseEvent {
+    }
+
+    @Name("lib.jebt.Extract")
+    @Label("Sheet Extraction")
+    static class ExtractEvent extends PhaseEvent {
+    }
+
+    @Name("lib.jebt.LoopRecord")
+    @Label("Loop Record Match")
+    @Category("JEBT")
+    @StackTrace(false)
+    @Enabled(false)
+    static class LoopRecordEvent extends Event {
+
+        @Label("Collection Path")
+        String collectionJsonPath;
+
+        @Label("Index")
+        int index;
+
+        @Label("Matched")
+        boolean matched;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+    }
+}
@@ -0,0 +1,91 @@
+package lib.jebt.metrics;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lib.jebt.xlsx.CorpusGenerator;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JfrJebtMetricsTest {
+
+    @Test
+    /**
+     * Phases and loop records of XLSX jobs are recorded as JFR events, and counters still reach the delegate
+     */
+    public void testXlsxEvents() throws Exception {
+        CorpusGenerator generator = new CorpusGenerator(3, 300, 2, 10, 2);
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        generator.createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+
+        StripedJebtMetrics counters = new StripedJebtMetrics(1);
+        JfrJebtMetrics metrics = new JfrJebtMetrics(counters);
+        assertFalse(metrics.isTimingLoopRecords());
+
+        File recordingFile = File.createTempFile("jebt", ".jfr");
+        Recording recording = new Recording();
+        recording.enable("lib.jebt.Tokenize");
+        recording.enable("lib.jebt.Fill");
+        recording.enable("lib.jebt.Flush");
+        recording.enable("lib.jebt.Serialize");
+        recording.enable("lib.jebt.Extract");
+        recording.enable("lib.jebt.LoopRecord");
+        recording.start();
+        JebtMetrics.install(metrics);
+        try {
+            assertTrue(metrics.isTimingLoopRecords());
+
+            ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+            new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                    .writeData(generator.createData());
+            new JebtXlsxReader(new XSSFWorkbook(new ByteArrayInputStream(template)), new ByteArrayInputStream(documentOS.toByteArray())).readData();
+        } finally {
+            JebtMetrics.install(null);
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+            recording.close();
+        }
+
+        Map<String, Integer> eventCounts = new HashMap<>();
+        try {
+            for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+                String name = event.getEventType().getName();
+                Integer count = eventCounts.get(name);
+                eventCounts.put(name, count == null ? 1 : count + 1);
+
+                if (name.equals("lib.jebt.Fill") || name.equals("lib.jebt.Extract")) {
+                    assertEquals("Items", event.getString("templateName"));
+                    assertEquals(0, event.getInt("sheetIndex"));
+                    assertEquals(301, event.getLong("rowCount"));
+                    assertTrue(event.getLong("wallTime") > 0);
+                }
+            }
+        } finally {
+            recordingFile.delete();
+        }
+
+        assertEquals(Integer.valueOf(1), eventCounts.get("lib.jebt.Tokenize"));
+        assertEquals(Integer.valueOf(1), eventCounts.get("lib.jebt.Fill"));
+        // 300 rows, flushed by 100 once 200 are in memory.
+        assertEquals(Integer.valueOf(2), eventCounts.get("lib.jebt.Flush"));
+        assertEquals(Integer.valueOf(1), eventCounts.get("lib.jebt.Serialize"));
+        assertEquals(Integer.valueOf(1), eventCounts.get("lib.jebt.Extract"));
+        assertTrue(eventCounts.get("lib.jebt.LoopRecord") > 300);
+
+        assertEquals(301, counters.getCount(JebtMetrics.Counter.ROWS_MATCHED));
+        assertEquals(1, counters.getPhaseCount(JebtMetrics.Phase.EXTRACT));
+    }
+}
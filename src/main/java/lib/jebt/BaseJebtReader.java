@@ -1,9 +1,13 @@
 package lib.jebt;
 
+import lib.jebt.json.JsonRecordWriter;
 import lib.jebt.parser.JebtReaderTextProcessor;
+import lib.jebt.parser.JsonPathProjection;
 
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -12,6 +16,12 @@ import java.util.Map;
  */
 public abstract class BaseJebtReader implements JebtReader
 {
+    // When set, only the values of these paths are extracted.
+    protected JsonPathProjection projection;
+
+    // When set, main loop records are passed to it instead of being stored in the returned data.
+    protected JebtRecordSink recordSink;
+
     /**
      * Method to call when there's no existing data Map to use as starting data.
      */
@@ -26,7 +36,7 @@ public abstract class BaseJebtReader implements JebtReader
      */
     public void extractData(Reader templateReader, Reader documentReader, Map data) {
         JebtReaderTextProcessor textReaderProcessor = new JebtReaderTextProcessor();
-        textReaderProcessor.extractData(templateReader, documentReader, data);
+        textReaderProcessor.extractData(templateReader, documentReader, data, projection, recordSink);
     }
 
     /**
@@ -36,5 +46,34 @@ public abstract class BaseJebtReader implements JebtReader
         this.extractData(new StringReader(templateText), new StringReader(documentText), data);
     }
 
+    /**
+     * Reads the document like {@link #readData()}, writing its data as JSON instead of returning it: main loop records are written as soon as they're read,
+     * so that they're never all held in memory (see {@link JsonRecordWriter}, also for the order of keys). The writer is flushed, but not closed.
+     *
+     * @param jsonLines true to only write main loop records, one per line.
+     */
+    public void writeJson(Writer jsonWriter, boolean jsonLines) {
+        writeJson(new JsonRecordWriter(jsonWriter, jsonLines));
+    }
+
+    /**
+     * Same as {@link #writeJson(Writer, boolean)}, writing UTF-8 encoded JSON to the stream.
+     */
+    public void writeJson(OutputStream jsonOS, boolean jsonLines) {
+        writeJson(new JsonRecordWriter(jsonOS, jsonLines));
+    }
+
+    private void writeJson(JsonRecordWriter jsonRecordWriter) {
+        if (recordSink != null) {
+            throw new IllegalStateException("Records are already passed to another record sink");
+        }
+        recordSink = jsonRecordWriter;
+        try {
+            jsonRecordWriter.finish(readData());
+        } finally {
+            recordSink = null;
+        }
+    }
+
 
 }
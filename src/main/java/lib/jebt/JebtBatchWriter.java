@@ -0,0 +1,187 @@
+package lib.jebt;
+
+import org.apache.poi.util.IOUtils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills many documents from one template concurrently, each with its own data and output.
+ * <p>
+ * The template is read once when the batch writer is created, and shared by all jobs.
+ * Jobs are pulled from an iterator as they can be run, so there can be any number of them: at most parallelism jobs are running or waiting at a time.
+ * They run on a fixed pool of parallelism threads, or on virtual threads (one per job) when asked and the JVM has them (Java 21+).
+ * A job that fails doesn't stop the others: its error is returned with the failures.
+ * </p>
+ * Outputs are closed once their job is over, whether it failed or not.
+ *
+ * @param <O> the type of the job outputs.
+ */
+public abstract class JebtBatchWriter<O> {
+
+    private final int parallelism;
+
+    private final boolean virtualThreads;
+
+    /**
+     * @param parallelism the maximum number of documents filled at a time.
+     * @param virtualThreads true to run jobs on virtual threads if the JVM has them, and on a fixed thread pool otherwise.
+     */
+    protected JebtBatchWriter(int parallelism, boolean virtualThreads) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Fills the document of a job, on the thread running the job.
+     */
+    protected abstract void write(Map data, O output);
+
+    /**
+     * Fills the documents of all jobs, and returns once they're all written.
+     *
+     * @return the jobs that failed, in the jobs order. Empty if all documents were written.
+     */
+    public List<Failure<O>> writeAll(Iterator<? extends Job<O>> jobs) {
+        final List<Failure<O>> failures = Collections.synchronizedList(new ArrayList<Failure<O>>());
+        // Errors (e.g. OutOfMemoryError) aren't job failures: no more jobs are started, and the first one is thrown.
+        final Error[] fatalError = new Error[1];
+        final Semaphore permits = new Semaphore(parallelism);
+        ExecutorService executor = createExecutor();
+        try {
+            int index = 0;
+            while (jobs.hasNext()) {
+                permits.acquire();
+                synchronized (fatalError) {
+                    if (fatalError[0] != null) {
+                        break;
+                    }
+                }
+                final Job<O> job = jobs.next();
+                final int jobIndex = index++;
+                executor.execute(new Runnable() {
+                    @Override public void run() {
+                        try {
+                            write(job.getData(), job.getOutput());
+                        } catch (RuntimeException e) {
+                            failures.add(new Failure<>(jobIndex, job, e));
+                        } catch (Error e) {
+                            synchronized (fatalError) {
+                                if (fatalError[0] == null) {
+                                    fatalError[0] = e;
+                                }
+                            }
+                        } finally {
+                            if (job.getOutput() instanceof Closeable) {
+                                IOUtils.closeQuietly((Closeable)job.getOutput());
+                            }
+                            permits.release();
+                        }
+                    }
+                });
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing documents", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        synchronized (fatalError) {
+            if (fatalError[0] != null) {
+                throw fatalError[0];
+            }
+        }
+
+        List<Failure<O>> sortedFailures = new ArrayList<>(failures);
+        Collections.sort(sortedFailures, new Comparator<Failure<O>>() {
+            @Override public int compare(Failure<O> failure1, Failure<O> failure2) {
+                return Integer.compare(failure1.getIndex(), failure2.getIndex());
+            }
+        });
+        return sortedFailures;
+    }
+
+    private ExecutorService createExecutor() {
+        if (virtualThreads) {
+            try {
+                // Looked up at runtime, as JEBT still runs on Java 7.
+                return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // No virtual threads on this JVM.
+            }
+        }
+        return Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * The data of a document, and where to write it.
+     */
+    public static class Job<O> {
+
+        private final Map data;
+
+        private final O output;
+
+        public Job(Map data, O output) {
+            this.data = data;
+            this.output = output;
+        }
+
+        public Map getData() {
+            return data;
+        }
+
+        public O getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * A job that failed, and why.
+     */
+    public static class Failure<O> {
+
+        private final int index;
+
+        private final Job<O> job;
+
+        private final RuntimeException error;
+
+        Failure(int index, Job<O> job, RuntimeException error) {
+            this.index = index;
+            this.job = job;
+            this.error = error;
+        }
+
+        /**
+         * @return the 0-based index of the job, in the order they were pulled.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public Job<O> getJob() {
+            return job;
+        }
+
+        public RuntimeException getError() {
+            return error;
+        }
+    }
+}
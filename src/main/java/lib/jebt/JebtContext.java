@@ -0,0 +1,65 @@
+package lib.jebt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a single read of {@link JebtEngine} works on: the data Map read into, and the options of this read.
+ * A context is used for one read only, while the engine can be shared.
+ */
+public class JebtContext {
+
+    private final Map data;
+
+    private final Set<String> projection;
+
+    private final JebtRecordSink recordSink;
+
+    private final boolean reuseRecords;
+
+    public JebtContext() {
+        this(new LinkedHashMap());
+    }
+
+    /**
+     * @param data the data to edit/insert the data read into.
+     */
+    public JebtContext(Map data) {
+        this(data, null);
+    }
+
+    /**
+     * @param projection the JSON paths to extract (see {@link lib.jebt.parser.JsonPathProjection}), or null to extract everything.
+     */
+    public JebtContext(Map data, Set<String> projection) {
+        this(data, projection, null, false);
+    }
+
+    /**
+     * @param recordSink receives the records of the main loops of the template as they're read, see {@link JebtRecordSink}.
+     * @param reuseRecords true to pass the same record Map for every record of a sheet. Only XLSX reads reuse records.
+     */
+    public JebtContext(Map data, Set<String> projection, JebtRecordSink recordSink, boolean reuseRecords) {
+        this.data = data;
+        this.projection = projection;
+        this.recordSink = recordSink;
+        this.reuseRecords = reuseRecords;
+    }
+
+    public Map getData() {
+        return data;
+    }
+
+    public Set<String> getProjection() {
+        return projection;
+    }
+
+    public JebtRecordSink getRecordSink() {
+        return recordSink;
+    }
+
+    public boolean isReuseRecords() {
+        return reuseRecords;
+    }
+}
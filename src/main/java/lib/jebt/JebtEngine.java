@@ -0,0 +1,106 @@
+package lib.jebt;
+
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JebtReaderTextProcessor;
+import lib.jebt.parser.JebtWriterTextProcessor;
+import lib.jebt.parser.JsonPathProjection;
+import lib.jebt.parser.ParsingUtils;
+import lib.jebt.xlsx.InMemorySharedStringsStore;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import lib.jebt.xlsx.XlsxTemplate;
+import lib.jebt.xlsx.XlsxWriteTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Reads and writes text and XLSX documents, without any state of its own: one engine can serve any number of concurrent reads and writes.
+ * <p>
+ * Everything a read works on is in its {@link JebtContext}, and the state of a run (tokenizers, automatons, sheet extractors) is created for that run only.
+ * Unlike {@link JebtReader} and {@link JebtWriter} implementations, the engine isn't bound to a template or a document.
+ * XLSX templates are shared as {@link XlsxTemplate} for reads, and as {@link XlsxWriteTemplate} for writes: both are tokenized once when loaded.
+ * </p>
+ * Streams aren't closed, except for the XLSX document stream written.
+ */
+public class JebtEngine {
+
+    private final JebtReaderTextProcessor textReaderProcessor = new JebtReaderTextProcessor();
+
+    private final JebtWriterTextProcessor textWriterProcessor = new JebtWriterTextProcessor();
+
+    private final int threadCount;
+
+    private final String datePattern;
+
+    public JebtEngine() {
+        this(1, JebtXlsxReader.DEFAULT_DATE_PATTERN);
+    }
+
+    /**
+     * @param threadCount the number of sheets of an XLSX document extracted concurrently, see {@link JebtXlsxReader}.
+     * @param datePattern the pattern of date cells text in XLSX documents, see {@link JebtXlsxReader}.
+     */
+    public JebtEngine(int threadCount, String datePattern) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count should be at least 1, got " + threadCount);
+        }
+        this.threadCount = threadCount;
+        this.datePattern = datePattern;
+    }
+
+    /**
+     * @return the data of the context, with the data read.
+     */
+    public Map readText(Reader templateReader, Reader documentReader, JebtContext context) {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.EXTRACT, null, -1);
+        textReaderProcessor.extractData(templateReader, documentReader, context.getData(),
+                context.getProjection() == null ? null : new JsonPathProjection(context.getProjection()), context.getRecordSink());
+        timer.stop(-1);
+        return context.getData();
+    }
+
+    public void writeText(Reader templateReader, Writer documentWriter, Map data) {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.FILL, null, -1);
+        textWriterProcessor.convertString(templateReader, documentWriter, data);
+        timer.stop(-1);
+    }
+
+    /**
+     * The document is read from its sheets XML, see {@link JebtXlsxReader}.
+     *
+     * @return the data of the context, with the data read.
+     */
+    public Map readXlsx(XlsxTemplate template, InputStream documentIS, JebtContext context) {
+        Map data = JebtXlsxReader.builder(template).document(documentIS).sharedStringsStore(new InMemorySharedStringsStore()).threadCount(threadCount)
+                .datePattern(datePattern).recordSink(context.getRecordSink()).reuseRecords(context.isReuseRecords()).projection(context.getProjection())
+                .build().readData();
+        ParsingUtils.mergeData(context.getData(), data);
+        return context.getData();
+    }
+
+    /**
+     * The document is filled on its own copy of the template workbook, see {@link JebtXlsxWriter#JebtXlsxWriter(XlsxWriteTemplate, OutputStream)}.
+     */
+    public void writeXlsx(XlsxWriteTemplate template, OutputStream documentOS, Map data) {
+        new JebtXlsxWriter(template, documentOS).writeData(data);
+    }
+
+    /**
+     * @param templateIS the template, read entirely and tokenized for this write only. Load it once as an {@link XlsxWriteTemplate} to write several documents.
+     */
+    public void writeXlsx(InputStream templateIS, OutputStream documentOS, Map data) {
+        XlsxWriteTemplate template;
+        try {
+            template = XlsxWriteTemplate.load(templateIS);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading template Workbook", e);
+        }
+        writeXlsx(template, documentOS, data);
+    }
+}
@@ -0,0 +1,19 @@
+package lib.jebt;
+
+import java.util.Map;
+
+/**
+ * Receives the records of the main loops of a template as soon as they're read, instead of having them stored in the returned data.
+ * Used to import huge documents with a flat memory footprint.
+ */
+public interface JebtRecordSink {
+
+    /**
+     * Called once per record, in the document order.
+     *
+     * @param collectionJsonPath the path of the looped collection, as written in the template (e.g. "customers").
+     * @param index the 0-based index of the record in the collection.
+     * @param record the record data. When records are reused, the same Map is passed again for the next record, so it must not be kept after this call.
+     */
+    void accept(String collectionJsonPath, int index, Map record);
+}
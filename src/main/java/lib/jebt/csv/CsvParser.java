@@ -0,0 +1,207 @@
+package lib.jebt.csv;
+
+import lib.jebt.parser.JebtParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV file (RFC 4180) from its bytes, through a buffer: separators, quotes and line breaks are found on the raw bytes,
+ * and only the bytes of each field are decoded. The charset must therefore encode them as single ASCII bytes that can't be part of another character,
+ * which is the case of UTF-8, ISO-8859-* and windows-125*.
+ * <p>
+ * Records end with LF, CRLF or CR. Fields can be quoted, with quotes escaped by doubling them. A UTF-8 byte order mark is skipped.
+ * </p>
+ */
+class CsvParser {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream is;
+
+    private final Charset charset;
+
+    private final byte separator;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = 0;
+
+    private int limit = 0;
+
+    private boolean isStartRead = false;
+
+    private boolean isEndReached = false;
+
+    // Bytes of the field being read, when it spans several buffer fills or has escaped quotes.
+    private byte[] field = new byte[256];
+
+    private int fieldLength;
+
+    // 1-based number of the record being read, for error messages.
+    private int recordNumber = 0;
+
+    CsvParser(InputStream is, Charset charset, char separator) {
+        if (separator > 127 || separator == '"' || separator == '\r' || separator == '\n') {
+            throw new IllegalArgumentException("Invalid CSV separator: '" + separator + "'");
+        }
+        this.is = is;
+        this.charset = charset;
+        this.separator = (byte)separator;
+    }
+
+    /**
+     * Reads the next record, replacing the content of fields with its fields. An empty line is a record with a single empty field.
+     *
+     * @return false if the end of the file was reached, in which case fields is left empty.
+     */
+    boolean readRecord(List<String> fields) throws IOException {
+        fields.clear();
+        if (position == limit && !fill()) {
+            return false;
+        }
+        ++recordNumber;
+        while (readField(fields)) {
+        }
+        return true;
+    }
+
+    /**
+     * Reads a field and the separator or line break after it.
+     *
+     * @return true if another field of the same record follows.
+     */
+    private boolean readField(List<String> fields) throws IOException {
+        fieldLength = 0;
+        if (position == limit && !fill()) {
+            // The record ends with a separator.
+            fields.add("");
+            return false;
+        }
+
+        if (buffer[position] == '"') {
+            ++position;
+            while (true) {
+                if (position == limit && !fill()) {
+                    throw new JebtParseException("Reached the end of the CSV file in a quoted field of record " + recordNumber);
+                }
+                int start = position;
+                while (position < limit && buffer[position] != '"') {
+                    ++position;
+                }
+                append(start, position);
+                if (position == limit) {
+                    continue;
+                }
+                // Either the closing quote, or the first of two quotes standing for one.
+                ++position;
+                if ((position < limit || fill()) && buffer[position] == '"') {
+                    append(position, position + 1);
+                    ++position;
+                } else {
+                    break;
+                }
+            }
+            fields.add(new String(field, 0, fieldLength, charset));
+        } else {
+            int start = position;
+            while (true) {
+                while (position < limit) {
+                    byte b = buffer[position];
+                    if (b == separator || b == '\n' || b == '\r') {
+                        break;
+                    }
+                    ++position;
+                }
+                if (position < limit) {
+                    break;
+                }
+                append(start, limit);
+                if (!fill()) {
+                    break;
+                }
+                start = position;
+            }
+            if (fieldLength == 0) {
+                // The whole field is in the buffer, which is the most common case.
+                fields.add(new String(buffer, start, position - start, charset));
+            } else {
+                if (position < limit) {
+                    append(start, position);
+                }
+                fields.add(new String(field, 0, fieldLength, charset));
+            }
+        }
+
+        return readFieldEnd();
+    }
+
+    /**
+     * @return true if a separator was read, false for a line break or the end of the file.
+     */
+    private boolean readFieldEnd() throws IOException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+        byte b = buffer[position++];
+        if (b == separator) {
+            return true;
+        } else if (b == '\n') {
+            return false;
+        } else if (b == '\r') {
+            if ((position < limit || fill()) && buffer[position] == '\n') {
+                ++position;
+            }
+            return false;
+        }
+        throw new JebtParseException("Unexpected character after the closing quote of a field of CSV record " + recordNumber);
+    }
+
+    private void append(int from, int to) {
+        int length = to - from;
+        if (fieldLength + length > field.length) {
+            field = Arrays.copyOf(field, Math.max(field.length * 2, fieldLength + length));
+        }
+        System.arraycopy(buffer, from, field, fieldLength, length);
+        fieldLength += length;
+    }
+
+    /**
+     * Replaces the buffer content with the next bytes of the file. Bytes of the buffer must have all been read.
+     *
+     * @return false if the end of the file was reached.
+     */
+    private boolean fill() throws IOException {
+        if (isEndReached) {
+            return false;
+        }
+        int n;
+        do {
+            n = is.read(buffer, 0, buffer.length);
+        } while (n == 0);
+
+        if (n == -1) {
+            isEndReached = true;
+            position = limit = 0;
+            return false;
+        }
+        position = 0;
+        limit = n;
+
+        if (!isStartRead) {
+            isStartRead = true;
+            if (StandardCharsets.UTF_8.equals(charset) && limit >= 3
+                    && buffer[0] == (byte)0xEF && buffer[1] == (byte)0xBB && buffer[2] == (byte)0xBF) {
+                position = 3;
+                if (position == limit) {
+                    return fill();
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package lib.jebt.csv;
+
+import lib.jebt.parser.Token;
+import lib.jebt.xlsx.SheetSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the rows of a CSV document as they're needed by its {@link lib.jebt.xlsx.SheetReader}: each record is a row,
+ * and each field a text cell, or a blank cell if it's empty. Cell values are the field Strings.
+ */
+class CsvSheetSource implements SheetSource {
+
+    private final CsvParser parser;
+
+    private final List<String> fields = new ArrayList<>();
+
+    private int rowIndex = 0;
+
+    CsvSheetSource(CsvParser parser) {
+        this.parser = parser;
+    }
+
+    @Override public boolean readRow(RowHandler handler) {
+        try {
+            if (!parser.readRecord(fields)) {
+                return false;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        handler.startRow(rowIndex++);
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            if (field.isEmpty()) {
+                handler.cell(i, Token.TokenType.NEW_BLANK_CELL, null);
+            } else {
+                handler.cell(i, Token.TokenType.NEW_TEXT_CELL, field);
+            }
+        }
+        return true;
+    }
+
+    @Override public String getValueAsString(Object value) {
+        return (String)value;
+    }
+}
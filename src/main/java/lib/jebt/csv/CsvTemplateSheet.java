@@ -0,0 +1,142 @@
+package lib.jebt.csv;
+
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JebtXlsxTokenizer;
+import lib.jebt.parser.Token;
+import lib.jebt.parser.XlsxTemplateSheet;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A CSV template, read as the only sheet of an XLSX template so that it's tokenized by {@link JebtXlsxTokenizer}: each record is a row,
+ * and each field a text cell, or a blank cell if it's empty.
+ * <p>
+ * CSV files have no comments, so loop tags are written in the cells themselves: opening tags (e.g. "{[items|item]}") at the start of a cell,
+ * and closing tags (e.g. "{[]}") at its end. They're moved to the cell comment, where XLSX templates have them.
+ * Loops written inside the text of a cell (see {@link JebtTextTokenizer}) must therefore not start or end it.
+ * </p>
+ */
+class CsvTemplateSheet implements XlsxTemplateSheet {
+
+    private final List<String[]> texts = new ArrayList<>();
+
+    private final List<String[]> comments = new ArrayList<>();
+
+    /**
+     * Reads the whole template: templates are small, unlike documents.
+     */
+    CsvTemplateSheet(InputStream templateIS, Charset charset, char separator) throws IOException {
+        CsvParser parser = new CsvParser(templateIS, charset, separator);
+        List<String> fields = new ArrayList<>();
+        while (parser.readRecord(fields)) {
+            String[] rowTexts = new String[fields.size()];
+            String[] rowComments = new String[fields.size()];
+            for (int i = 0; i < fields.size(); i++) {
+                splitLoopTags(fields.get(i), rowTexts, rowComments, i);
+            }
+            texts.add(rowTexts);
+            comments.add(rowComments);
+        }
+    }
+
+    /**
+     * Reads the template, and returns its tokens without the final Token.EOD.
+     */
+    static List<Token> tokenize(InputStream templateIS, Charset charset, char separator) throws IOException {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.TOKENIZE, null, -1);
+        JebtXlsxTokenizer tokenizer = new JebtXlsxTokenizer(new CsvTemplateSheet(templateIS, charset, separator));
+
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            tokens.add(token);
+        }
+        timer.stop(-1);
+        return tokens;
+    }
+
+    /**
+     * Moves the opening loop tags at the start of the field and the closing ones at its end to the cell comment.
+     */
+    private static void splitLoopTags(String field, String[] rowTexts, String[] rowComments, int columnIndex) {
+        StringBuilder comment = new StringBuilder();
+        String text = field;
+
+        int tagEnd;
+        while (text.startsWith("{[") && (tagEnd = text.indexOf("]}")) >= 0 && isLoopTag(text.substring(2, tagEnd), true)) {
+            comment.append(text, 0, tagEnd + 2);
+            text = text.substring(tagEnd + 2);
+        }
+
+        StringBuilder closingTags = new StringBuilder();
+        int tagStart;
+        while (text.endsWith("]}") && (tagStart = text.lastIndexOf("{[")) >= 0 && isLoopTag(text.substring(tagStart + 2, text.length() - 2), false)) {
+            closingTags.insert(0, text.substring(tagStart));
+            text = text.substring(0, tagStart);
+        }
+        comment.append(closingTags);
+
+        rowTexts[columnIndex] = text;
+        rowComments[columnIndex] = comment.length() == 0 ? null : comment.toString();
+    }
+
+    /**
+     * @param tag the text between "{[" and "]}".
+     */
+    private static boolean isLoopTag(String tag, boolean opening) {
+        if (tag.contains("{[") || tag.contains("]}")) {
+            return false;
+        }
+        try {
+            JebtTextTokenizer.LoopToken loopToken = new JebtTextTokenizer.LoopToken(tag);
+            if (opening) {
+                return !StringUtils.isBlank(loopToken.getCollectionJsonPath()) && !StringUtils.isBlank(loopToken.getLoopItemName());
+            }
+            return StringUtils.isBlank(loopToken.getCollectionJsonPath());
+        } catch (Exception e) {
+            // Not a loop tag, it's part of the cell text.
+            return false;
+        }
+    }
+
+    @Override public int getLastRowNum() {
+        return Math.max(0, texts.size() - 1);
+    }
+
+    @Override public int getLastCellNum(int rowIndex) {
+        return rowIndex < texts.size() ? texts.get(rowIndex).length : -1;
+    }
+
+    @Override public Token createCellToken(int rowIndex, int columnIndex) {
+        String text = getText(rowIndex, columnIndex);
+        if (text == null || text.isEmpty()) {
+            return new Token(Token.TokenType.NEW_BLANK_CELL, null);
+        }
+        return new Token(Token.TokenType.NEW_TEXT_CELL, text);
+    }
+
+    @Override public String getComment(int rowIndex, int columnIndex) {
+        if (rowIndex >= comments.size() || columnIndex >= comments.get(rowIndex).length) {
+            return null;
+        }
+        return comments.get(rowIndex)[columnIndex];
+    }
+
+    @Override public void setComment(int rowIndex, int columnIndex, String comment) {
+        comments.get(rowIndex)[columnIndex] = comment;
+    }
+
+    private String getText(int rowIndex, int columnIndex) {
+        if (rowIndex >= texts.size() || columnIndex >= texts.get(rowIndex).length) {
+            return null;
+        }
+        return texts.get(rowIndex)[columnIndex];
+    }
+}
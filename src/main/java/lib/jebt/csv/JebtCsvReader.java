@@ -0,0 +1,185 @@
+package lib.jebt.csv;
+
+import lib.jebt.BaseJebtReader;
+import lib.jebt.JebtRecordSink;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JsonPathProjection;
+import lib.jebt.parser.Token;
+import lib.jebt.xlsx.TabularExtractor;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of {@link lib.jebt.JebtReader} for CSV files. The template is a CSV file whose cells are matched just like the cells of
+ * a one-sheet XLSX template (see {@link CsvTemplateSheet} for how loops are written), and the document is read as a stream, one record at a time.
+ */
+public class JebtCsvReader extends BaseJebtReader {
+
+    public static final char DEFAULT_SEPARATOR = ',';
+
+    private InputStream templateIS;
+
+    private InputStream documentIS;
+
+    private File templateFile;
+
+    private File documentFile;
+
+    private Charset charset = StandardCharsets.UTF_8;
+
+    private char separator = DEFAULT_SEPARATOR;
+
+    private boolean reuseRecords;
+
+    // We only open streams at the last moment on read operation
+    boolean shouldCreateStreamsOnRun = false;
+
+    public Map readData() {
+        Map data = new LinkedHashMap();
+
+        try {
+            if (shouldCreateStreamsOnRun) {
+                templateIS = new BufferedInputStream(new FileInputStream(templateFile));
+                documentIS = new FileInputStream(documentFile);
+            }
+
+            List<Token> templateTokens = CsvTemplateSheet.tokenize(templateIS, charset, separator);
+
+            PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.EXTRACT, null, -1);
+            timer.stop(TabularExtractor.extract(templateTokens, new CsvSheetSource(new CsvParser(documentIS, charset, separator)), recordSink, reuseRecords,
+                    projection, data));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (shouldCreateStreamsOnRun) {
+                IOUtils.closeQuietly(templateIS);
+                IOUtils.closeQuietly(documentIS);
+            }
+        }
+
+        return data;
+    }
+
+    /**
+     * Reads UTF-8 CSV files separated by commas.
+     */
+    public JebtCsvReader(InputStream templateIS, InputStream documentIS) {
+        this.templateIS = templateIS;
+        this.documentIS = documentIS;
+    }
+
+    private JebtCsvReader(Builder builder) {
+        this.templateIS = builder.templateIS;
+        this.documentIS = builder.documentIS;
+        this.templateFile = builder.templateFile;
+        this.documentFile = builder.documentFile;
+        this.shouldCreateStreamsOnRun = builder.templateFile != null;
+        this.charset = builder.charset;
+        this.separator = builder.separator;
+        this.recordSink = builder.recordSink;
+        this.reuseRecords = builder.reuseRecords;
+        this.projection = builder.projection == null ? null : new JsonPathProjection(builder.projection);
+    }
+
+    /**
+     * @return a builder of readers with any other option, e.g.
+     * <code>JebtCsvReader.builder(templateIS, documentIS).charset(StandardCharsets.ISO_8859_1).separator(';').build()</code>
+     */
+    public static Builder builder(InputStream templateIS, InputStream documentIS) {
+        return new Builder(templateIS, documentIS, null, null);
+    }
+
+    /**
+     * The files are opened when data is read, and closed once it's read.
+     */
+    public static Builder builder(File templateFile, File documentFile) {
+        return new Builder(null, null, templateFile, documentFile);
+    }
+
+    /**
+     * Options of a {@link JebtCsvReader}. Everything has a default: UTF-8 files separated by commas, all read into the returned data.
+     */
+    public static class Builder {
+
+        private final InputStream templateIS;
+
+        private final InputStream documentIS;
+
+        private final File templateFile;
+
+        private final File documentFile;
+
+        private Charset charset = StandardCharsets.UTF_8;
+
+        private char separator = DEFAULT_SEPARATOR;
+
+        private JebtRecordSink recordSink;
+
+        private boolean reuseRecords;
+
+        private Set<String> projection;
+
+        private Builder(InputStream templateIS, InputStream documentIS, File templateFile, File documentFile) {
+            this.templateIS = templateIS;
+            this.documentIS = documentIS;
+            this.templateFile = templateFile;
+            this.documentFile = documentFile;
+        }
+
+        /**
+         * @param charset the charset of both files, which must encode ASCII characters as single bytes, like UTF-8 or ISO-8859-1.
+         */
+        public Builder charset(Charset charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        /**
+         * @param separator the ASCII character separating fields.
+         */
+        public Builder separator(char separator) {
+            this.separator = separator;
+            return this;
+        }
+
+        /**
+         * @param recordSink receives the records of the main loops of the template as soon as they're read. They're not stored in the returned data.
+         */
+        public Builder recordSink(JebtRecordSink recordSink) {
+            this.recordSink = recordSink;
+            return this;
+        }
+
+        /**
+         * @param reuseRecords true to pass the same record Map for every record to the record sink, so that no record is allocated while reading.
+         */
+        public Builder reuseRecords(boolean reuseRecords) {
+            this.reuseRecords = reuseRecords;
+            return this;
+        }
+
+        /**
+         * @param projection the JSON paths to extract (see {@link JsonPathProjection}), other expressions being matched but never stored. Null to extract everything.
+         */
+        public Builder projection(Set<String> projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        public JebtCsvReader build() {
+            return new JebtCsvReader(this);
+        }
+    }
+}
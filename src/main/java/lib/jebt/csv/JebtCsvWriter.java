@@ -0,0 +1,297 @@
+package lib.jebt.csv;
+
+import lib.jebt.BaseJebtWriter;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JebtEvaluationException;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JebtWriterTextProcessor;
+import lib.jebt.parser.JsonPathResolver;
+import lib.jebt.parser.Token;
+import lib.jebt.parser.TokenListTokenizer;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link lib.jebt.JebtWriter} for CSV files. The template is a CSV file filled just like a one-sheet XLSX template
+ * (see {@link CsvTemplateSheet} for how loops are written): every record of a main loop starts a new row, records of inner loops follow each other in the same row.
+ * <p>
+ * Rows are written as soon as they're filled, ended with CRLF as in RFC 4180. Fields are quoted when they contain a separator, a quote or a line break.
+ * Like in XLSX documents, generated values that could be taken for formulas are escaped (see {@link #escapeExcelInjection(String, String)}).
+ * </p>
+ */
+public class JebtCsvWriter extends BaseJebtWriter {
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private InputStream templateIS;
+
+    private OutputStream documentOS;
+
+    private File templateFile;
+
+    private File documentFile;
+
+    private Charset charset = StandardCharsets.UTF_8;
+
+    private char separator = JebtCsvReader.DEFAULT_SEPARATOR;
+
+    boolean shouldCreateStreamsOnRun = false;
+
+    public void writeData(Map data) {
+        try {
+            if (shouldCreateStreamsOnRun) {
+                templateIS = new BufferedInputStream(new FileInputStream(templateFile));
+                documentOS = new FileOutputStream(documentFile);
+            }
+
+            List<Token> templateTokens = CsvTemplateSheet.tokenize(templateIS, charset, separator);
+
+            PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.FILL, null, -1);
+            DocumentContext document = new DocumentContext(new BufferedWriter(new OutputStreamWriter(documentOS, charset), 64 * 1024));
+            for (Token token : templateTokens) {
+                processToken(token, data, document);
+            }
+            document.finish();
+            timer.stop(document.rowIndex + 1);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (shouldCreateStreamsOnRun) {
+                IOUtils.closeQuietly(templateIS);
+                IOUtils.closeQuietly(documentOS);
+            }
+        }
+    }
+
+    /**
+     * Writes UTF-8 CSV files separated by commas. The output stream is flushed, but not closed.
+     */
+    public JebtCsvWriter(InputStream templateIS, OutputStream documentOS) {
+        this.templateIS = templateIS;
+        this.documentOS = documentOS;
+    }
+
+    private JebtCsvWriter(Builder builder) {
+        this.templateIS = builder.templateIS;
+        this.documentOS = builder.documentOS;
+        this.templateFile = builder.templateFile;
+        this.documentFile = builder.documentFile;
+        this.shouldCreateStreamsOnRun = builder.templateFile != null;
+        this.charset = builder.charset;
+        this.separator = builder.separator;
+    }
+
+    /**
+     * @return a builder of writers with any other option, e.g.
+     * <code>JebtCsvWriter.builder(templateIS, documentOS).charset(StandardCharsets.ISO_8859_1).separator(';').build()</code>
+     */
+    public static Builder builder(InputStream templateIS, OutputStream documentOS) {
+        return new Builder(templateIS, documentOS, null, null);
+    }
+
+    /**
+     * The files are opened when data is written, and closed once it's written.
+     */
+    public static Builder builder(File templateFile, File documentFile) {
+        return new Builder(null, null, templateFile, documentFile);
+    }
+
+    private void processToken(Token t, Map data, DocumentContext document) throws IOException {
+        switch (t.getType()) {
+            case NEW_ROW:
+            case NEW_BLANK_ROW:
+                document.startRow();
+                break;
+            case NEW_BLANK_CELL:
+            case NEW_NON_TEXT_CELL:
+                document.startCell();
+                break;
+            case NEW_TEXT_CELL:
+                document.startCell();
+                document.writeField(escapeExcelInjection(t.getCellText(), document.convertCell(t, data)));
+                break;
+            case LOOP:
+                JebtTextTokenizer.LoopToken loop = (JebtTextTokenizer.LoopToken)t;
+                List collection;
+                try {
+                    collection = (List)new JsonPathResolver(data).evaluatePathToObject(loop.getCollectionJsonPath());
+                } catch (ClassCastException e) {
+                    throw new JebtEvaluationException("Object found at " + loop.getCollectionJsonPath() + " is not a List", e);
+                }
+
+                if (collection == null) {
+                    // The list is empty or non-existent, so we have nothing to iterate.
+                    return;
+                }
+
+                List<Token> loopTokens = loop.getLoopTokens();
+                boolean first = true;
+                document.loopDepth++;
+                for (Iterator it = collection.iterator(); it.hasNext(); ) {
+                    if (document.loopDepth <= 1) {
+                        // We must go to the next row before every new record for the main Loop
+                        if (first) {
+                            first = false;
+                        } else {
+                            document.startRow();
+                        }
+                    }
+
+                    Map dataCopy = new LinkedHashMap(data);
+                    dataCopy.put(loop.getLoopItemName(), it.next());
+                    for (Token tok : loopTokens) {
+                        processToken(tok, dataCopy, document);
+                    }
+                }
+                document.loopDepth--;
+                break;
+            default:
+                throw new RuntimeException("Unknown Token: " + t.getType());
+        }
+    }
+
+    /**
+     * State of one document being written.
+     */
+    private class DocumentContext {
+
+        private final Writer out;
+
+        private final JebtWriterTextProcessor textProcessor = new JebtWriterTextProcessor();
+
+        // Text tokens of the template cells, tokenized once as they're filled for every record of the loops they're in.
+        private final Map<Token, List<Token>> cellTokens = new IdentityHashMap<>();
+
+        // Buffer reused to fill cells.
+        private final StringWriter cellText = new StringWriter();
+
+        private int rowIndex = -1;
+
+        private int columnIndex = -1;
+
+        private int loopDepth = 0;
+
+        DocumentContext(Writer out) {
+            this.out = out;
+        }
+
+        void startRow() throws IOException {
+            if (rowIndex >= 0) {
+                out.write(LINE_SEPARATOR);
+            }
+            rowIndex++;
+            columnIndex = -1;
+        }
+
+        void startCell() throws IOException {
+            columnIndex++;
+            if (columnIndex > 0) {
+                out.write(separator);
+            }
+        }
+
+        String convertCell(Token t, Map data) {
+            List<Token> tokens = cellTokens.get(t);
+            if (tokens == null) {
+                tokens = new ArrayList<>();
+                JebtTextTokenizer tokenizer = new JebtTextTokenizer(new StringReader(t.getCellText()));
+                Token token;
+                while ((token = tokenizer.readNext()) != Token.EOD) {
+                    tokens.add(token);
+                }
+                cellTokens.put(t, tokens);
+            }
+            cellText.getBuffer().setLength(0);
+            textProcessor.convertString(new TokenListTokenizer(tokens), cellText, data);
+            return cellText.toString();
+        }
+
+        void writeField(String value) throws IOException {
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == separator || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quoted) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        void finish() throws IOException {
+            if (rowIndex >= 0) {
+                out.write(LINE_SEPARATOR);
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Options of a {@link JebtCsvWriter}. Everything has a default: UTF-8 files separated by commas.
+     */
+    public static class Builder {
+
+        private final InputStream templateIS;
+
+        private final OutputStream documentOS;
+
+        private final File templateFile;
+
+        private final File documentFile;
+
+        private Charset charset = StandardCharsets.UTF_8;
+
+        private char separator = JebtCsvReader.DEFAULT_SEPARATOR;
+
+        private Builder(InputStream templateIS, OutputStream documentOS, File templateFile, File documentFile) {
+            this.templateIS = templateIS;
+            this.documentOS = documentOS;
+            this.templateFile = templateFile;
+            this.documentFile = documentFile;
+        }
+
+        /**
+         * @param charset the charset of both files, which must encode ASCII characters as single bytes, like UTF-8 or ISO-8859-1.
+         */
+        public Builder charset(Charset charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        /**
+         * @param separator the ASCII character separating fields.
+         */
+        public Builder separator(char separator) {
+            this.separator = separator;
+            return this;
+        }
+
+        public JebtCsvWriter build() {
+            return new JebtCsvWriter(this);
+        }
+    }
+}
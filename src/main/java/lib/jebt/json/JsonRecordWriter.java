@@ -0,0 +1,158 @@
+package lib.jebt.json;
+
+import lib.jebt.JebtRecordSink;
+import lib.jebt.parser.ParsingUtils;
+import org.json.simple.JSONValue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link JebtRecordSink} writing records as JSON as soon as they're read, so that extracted data never has to be held in memory.
+ * <p>
+ * In JSON mode, records of a top-level collection (e.g. "customers") are written as items of its array, while the array is open.
+ * {@link #finish(Map)} then writes the rest of the data read: values outside of the main loops, and records of nested collections
+ * (e.g. "company.customers"), which are kept in memory until then as they can't be written before their parent object.
+ * The result holds the same data as the data returned by readData(), but not always with its keys in the same order:
+ * the keys of top-level collections come first, in the order their records are read, then the other keys.
+ * </p>
+ * <p>
+ * In JSON Lines mode, each record is written on its own line, whatever its collection, and the rest of the data is not written.
+ * </p>
+ * Records can be passed from several threads, but the records of a collection must not be interleaved with other ones:
+ * {@link lib.jebt.xlsx.JebtXlsxReader} extracts sheets one after the other when it writes JSON.
+ */
+public class JsonRecordWriter implements JebtRecordSink {
+
+    private final Writer writer;
+
+    private final boolean jsonLines;
+
+    // True once the opening brace of the root object was written.
+    private boolean started = false;
+
+    // The top-level collection whose array is open, if any.
+    private String openCollection;
+
+    // Top-level collections whose records were written, whose keys aren't written again by finish().
+    private final Set<String> streamedCollections = new HashSet<>();
+
+    // Records of nested collections, by collection path, written by finish().
+    private final Map<String, List<Map>> bufferedRecords = new LinkedHashMap<>();
+
+    /**
+     * @param jsonLines true to write one record per line instead of a JSON object.
+     */
+    public JsonRecordWriter(Writer writer, boolean jsonLines) {
+        this.writer = writer;
+        this.jsonLines = jsonLines;
+    }
+
+    /**
+     * Writes UTF-8 encoded JSON to the stream, through a buffer flushed by {@link #finish(Map)}.
+     */
+    public JsonRecordWriter(OutputStream os, boolean jsonLines) {
+        this(new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8)), jsonLines);
+    }
+
+    @Override public synchronized void accept(String collectionJsonPath, int index, Map record) {
+        try {
+            if (jsonLines) {
+                JSONValue.writeJSONString(record, writer);
+                writer.write('\n');
+                return;
+            }
+
+            if (collectionJsonPath.equals(openCollection)) {
+                writer.write(',');
+            } else if (isTopLevelKey(collectionJsonPath)) {
+                if (streamedCollections.contains(collectionJsonPath)) {
+                    throw new IllegalStateException("Records of " + collectionJsonPath
+                            + " were read again after records of another collection, they can't be written in the same JSON array");
+                }
+                closeCollection();
+                writeKey(collectionJsonPath);
+                writer.write('[');
+                openCollection = collectionJsonPath;
+                streamedCollections.add(collectionJsonPath);
+            } else {
+                List<Map> records = bufferedRecords.get(collectionJsonPath);
+                if (records == null) {
+                    records = new ArrayList<>();
+                    bufferedRecords.put(collectionJsonPath, records);
+                }
+                // The record may be reused by the reader.
+                records.add(new LinkedHashMap(record));
+                return;
+            }
+            JSONValue.writeJSONString(record, writer);
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't write record " + index + " of " + collectionJsonPath, e);
+        }
+    }
+
+    /**
+     * Writes the rest of the data read, ends the JSON document and flushes the writer, which is left open.
+     *
+     * @param data the data returned by the reader, without the records passed to this sink.
+     */
+    public synchronized void finish(Map data) {
+        try {
+            if (!jsonLines) {
+                closeCollection();
+                for (Map.Entry<String, List<Map>> records : bufferedRecords.entrySet()) {
+                    ParsingUtils.updateData(records.getKey(), records.getValue(), data);
+                }
+                bufferedRecords.clear();
+
+                for (Object o : data.entrySet()) {
+                    Map.Entry entry = (Map.Entry)o;
+                    String key = String.valueOf(entry.getKey());
+                    if (!streamedCollections.contains(key)) {
+                        writeKey(key);
+                        JSONValue.writeJSONString(entry.getValue(), writer);
+                    }
+                }
+                if (!started) {
+                    writer.write('{');
+                }
+                writer.write('}');
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeKey(String key) throws IOException {
+        writer.write(started ? ',' : '{');
+        started = true;
+        writer.write('"');
+        writer.write(JSONValue.escape(key));
+        writer.write("\":");
+    }
+
+    private void closeCollection() throws IOException {
+        if (openCollection != null) {
+            writer.write(']');
+            openCollection = null;
+        }
+    }
+
+    /**
+     * @return true if the path is a key of the root object, which isn't in any other object or array.
+     */
+    private static boolean isTopLevelKey(String jsonPath) {
+        return jsonPath.indexOf('.') < 0 && jsonPath.indexOf('[') < 0;
+    }
+}
@@ -0,0 +1,113 @@
+package lib.jebt.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+/**
+ * Receives what the engine does: counters, and the wall time and allocated bytes of each phase of a job.
+ * <p>
+ * Readers and writers get the installed metrics when a job starts, and report counters once per tokenizer, sheet or document rather than once per event,
+ * so the default no-op metrics cost nothing and phases aren't even timed.
+ * Metrics are installed with {@link #install(JebtMetrics)}, or found with {@link ServiceLoader} when JEBT is loaded
+ * (the first provider of lib.jebt.metrics.JebtMetrics listed in META-INF/services).
+ * </p>
+ * All methods do nothing by default, so implementations only override what they need. They can be called concurrently.
+ */
+public abstract class JebtMetrics {
+
+    public enum Counter {
+        // Template tokens read by tokenizers, including loop inner tokens.
+        TOKENS,
+        ROWS_WRITTEN,
+        CELLS_WRITTEN,
+        // Document rows and cells matched against the template, speculative matches that were rolled back excluded.
+        ROWS_MATCHED,
+        CELLS_MATCHED,
+        // Loop records written or matched.
+        LOOP_ITERATIONS,
+        // Expressions and loop collections evaluated on data by writers.
+        PATH_EVALUATIONS,
+        SHARED_STRINGS_CACHE_HITS,
+        SHARED_STRINGS_CACHE_MISSES,
+        // Loop records that didn't match in the end, and were rolled back by the XLSX reader.
+        BACKTRACKS
+    }
+
+    public enum Phase {
+        // Reading the template tokens (writers tokenize while they fill, so it's part of FILL for them).
+        TOKENIZE,
+        // Filling a document sheet, or a text document, from the template.
+        FILL,
+        // Writing filled rows of a sheet to the temporary file of the streaming XLSX workbook, part of FILL.
+        FLUSH,
+        // Writing the filled XLSX workbook to the output stream.
+        SERIALIZE,
+        // Extracting data from a document sheet, or a text document.
+        EXTRACT
+    }
+
+    /**
+     * Metrics that do nothing, installed by default.
+     */
+    public static final JebtMetrics NONE = new JebtMetrics() {
+    };
+
+    private static volatile JebtMetrics installed = loadProvider();
+
+    /**
+     * @return the metrics to report into, {@link #NONE} if none was installed.
+     */
+    public static JebtMetrics get() {
+        return installed;
+    }
+
+    /**
+     * Installs metrics for all the jobs started from now on.
+     *
+     * @param metrics the metrics, or null to go back to {@link #NONE}.
+     */
+    public static void install(JebtMetrics metrics) {
+        installed = metrics != null ? metrics : NONE;
+    }
+
+    private static JebtMetrics loadProvider() {
+        Iterator<JebtMetrics> providers = ServiceLoader.load(JebtMetrics.class).iterator();
+        return providers.hasNext() ? providers.next() : NONE;
+    }
+
+    /**
+     * @param delta the number of events, always positive.
+     */
+    public void count(Counter counter, long delta) {
+    }
+
+    /**
+     * Called on the thread that ran the phase, once it's over.
+     *
+     * @param templateName the name of the template sheet, null for text documents and whole workbooks.
+     * @param sheetIndex the index of the sheet, -1 for text documents and whole workbooks.
+     * @param rowCount the number of rows written, flushed or matched in the phase, -1 if it doesn't apply.
+     * @param allocatedBytes the bytes allocated by the thread during the phase, -1 if the JVM can't tell.
+     */
+    public void phaseCompleted(Phase phase, String templateName, int sheetIndex, long rowCount, long wallTimeNanos, long allocatedBytes) {
+    }
+
+    /**
+     * Checked when an XLSX sheet extraction starts, as timing every loop record has a cost.
+     *
+     * @return true to have {@link #loopRecordCompleted(String, int, boolean, long)} called, false by default.
+     */
+    public boolean isTimingLoopRecords() {
+        return false;
+    }
+
+    /**
+     * Called for every record the XLSX reader tries to match against a loop of the template, if {@link #isTimingLoopRecords()}.
+     *
+     * @param collectionJsonPath the path of the looped collection, as written in the template.
+     * @param index the index the record has or would have had in the collection.
+     * @param matched false if the record didn't match, which ends the loop.
+     */
+    public void loopRecordCompleted(String collectionJsonPath, int index, boolean matched, long wallTimeNanos) {
+    }
+}
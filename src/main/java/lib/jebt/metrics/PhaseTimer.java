@@ -0,0 +1,77 @@
+package lib.jebt.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the wall time and the bytes allocated by the current thread during a phase, and reports them to metrics.
+ * Nothing is measured when metrics are {@link JebtMetrics#NONE}.
+ */
+public class PhaseTimer {
+
+    private static final PhaseTimer DISABLED = new PhaseTimer(null, null, null, -1);
+
+    // Null when the JVM can't measure allocated bytes per thread.
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = getAllocationBean();
+
+    private final JebtMetrics metrics;
+
+    private final JebtMetrics.Phase phase;
+
+    private final String templateName;
+
+    private final int sheetIndex;
+
+    private long startNanos;
+
+    private long startAllocatedBytes;
+
+    private PhaseTimer(JebtMetrics metrics, JebtMetrics.Phase phase, String templateName, int sheetIndex) {
+        this.metrics = metrics;
+        this.phase = phase;
+        this.templateName = templateName;
+        this.sheetIndex = sheetIndex;
+    }
+
+    /**
+     * @param templateName see {@link JebtMetrics#phaseCompleted(JebtMetrics.Phase, String, int, long, long, long)}.
+     */
+    public static PhaseTimer start(JebtMetrics metrics, JebtMetrics.Phase phase, String templateName, int sheetIndex) {
+        if (metrics == JebtMetrics.NONE) {
+            return DISABLED;
+        }
+        PhaseTimer timer = new PhaseTimer(metrics, phase, templateName, sheetIndex);
+        timer.startAllocatedBytes = getAllocatedBytes();
+        timer.startNanos = System.nanoTime();
+        return timer;
+    }
+
+    /**
+     * @param rowCount see {@link JebtMetrics#phaseCompleted(JebtMetrics.Phase, String, int, long, long, long)}.
+     */
+    public void stop(long rowCount) {
+        if (this == DISABLED) {
+            return;
+        }
+        long wallTimeNanos = System.nanoTime() - startNanos;
+        long allocatedBytes = startAllocatedBytes < 0 ? -1 : getAllocatedBytes() - startAllocatedBytes;
+        metrics.phaseCompleted(phase, templateName, sheetIndex, rowCount, wallTimeNanos, allocatedBytes);
+    }
+
+    private static long getAllocatedBytes() {
+        return ALLOCATION_BEAN != null ? ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemoryEnabled()) {
+                return (com.sun.management.ThreadMXBean)bean;
+            }
+        } catch (Throwable e) {
+            // Not a HotSpot JVM.
+        }
+        return null;
+    }
+}
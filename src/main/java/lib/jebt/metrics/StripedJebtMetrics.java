@@ -0,0 +1,118 @@
+package lib.jebt.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics summing counters and phases over all jobs, for any number of threads.
+ * <p>
+ * Each total is split into stripes picked by thread id, so that threads reporting at the same time seldom update the same value.
+ * Each value of each stripe is alone on its cache line, so there is no false sharing either. Totals are summed when they're read.
+ * </p>
+ */
+public class StripedJebtMetrics extends JebtMetrics {
+
+    // 8 longs is 64 bytes, a cache line on most CPUs.
+    private static final int PADDING = 8;
+
+    private static final JebtMetrics.Counter[] COUNTERS = JebtMetrics.Counter.values();
+
+    private static final JebtMetrics.Phase[] PHASES = JebtMetrics.Phase.values();
+
+    // Phase values, after the counters: completion count, wall time and allocated bytes.
+    private static final int PHASE_VALUES = 3;
+
+    private final int stripeMask;
+
+    private final int valueCount;
+
+    private final AtomicLongArray stripes;
+
+    public StripedJebtMetrics() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param concurrency the number of threads expected to report at the same time, rounded up to a power of 2 to get the number of stripes.
+     */
+    public StripedJebtMetrics(int concurrency) {
+        int stripeCount = 1;
+        while (stripeCount < concurrency) {
+            stripeCount <<= 1;
+        }
+        this.stripeMask = stripeCount - 1;
+        this.valueCount = COUNTERS.length + PHASES.length * PHASE_VALUES;
+        this.stripes = new AtomicLongArray((stripeCount * valueCount + 1) * PADDING);
+    }
+
+    @Override public void count(JebtMetrics.Counter counter, long delta) {
+        add(counter.ordinal(), delta);
+    }
+
+    @Override public void phaseCompleted(JebtMetrics.Phase phase, String templateName, int sheetIndex, long rowCount, long wallTimeNanos,
+                                         long allocatedBytes) {
+        int phaseValues = COUNTERS.length + phase.ordinal() * PHASE_VALUES;
+        add(phaseValues, 1);
+        add(phaseValues + 1, wallTimeNanos);
+        if (allocatedBytes > 0) {
+            add(phaseValues + 2, allocatedBytes);
+        }
+    }
+
+    public long getCount(JebtMetrics.Counter counter) {
+        return sum(counter.ordinal());
+    }
+
+    /**
+     * @return the number of times the phase was completed.
+     */
+    public long getPhaseCount(JebtMetrics.Phase phase) {
+        return sum(COUNTERS.length + phase.ordinal() * PHASE_VALUES);
+    }
+
+    public long getPhaseWallTimeNanos(JebtMetrics.Phase phase) {
+        return sum(COUNTERS.length + phase.ordinal() * PHASE_VALUES + 1);
+    }
+
+    /**
+     * @return the bytes allocated during the phase, 0 if the JVM can't tell.
+     */
+    public long getPhaseAllocatedBytes(JebtMetrics.Phase phase) {
+        return sum(COUNTERS.length + phase.ordinal() * PHASE_VALUES + 2);
+    }
+
+    /**
+     * Sets all totals back to 0. Values reported at the same time may or may not be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < stripes.length(); i++) {
+            stripes.set(i, 0);
+        }
+    }
+
+    @Override public String toString() {
+        StringBuilder s = new StringBuilder("JebtMetrics[");
+        for (JebtMetrics.Counter counter : COUNTERS) {
+            s.append(counter).append('=').append(getCount(counter)).append(", ");
+        }
+        for (JebtMetrics.Phase phase : PHASES) {
+            s.append(phase).append("=").append(getPhaseCount(phase)).append(" in ").append(getPhaseWallTimeNanos(phase) / 1000000).append("ms/")
+                    .append(getPhaseAllocatedBytes(phase)).append("B, ");
+        }
+        s.setLength(s.length() - 2);
+        return s.append(']').toString();
+    }
+
+    private void add(int value, long delta) {
+        int stripe = (int)Thread.currentThread().getId() & stripeMask;
+        // The first cache line is left empty, so that the first stripe doesn't share one with the array header.
+        stripes.addAndGet((stripe * valueCount + value + 1) * PADDING, delta);
+    }
+
+    private long sum(int value) {
+        long sum = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            sum += stripes.get((stripe * valueCount + value + 1) * PADDING);
+        }
+        return sum;
+    }
+}
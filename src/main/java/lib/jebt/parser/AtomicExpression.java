@@ -41,6 +41,17 @@ public abstract class AtomicExpression {
             doSetValue(obj, value, context);
     }
 
+    /**
+     * Same as {@link #setValue(Object, Object, Map)}, but the change is first recorded in the journal (if not null) so that it can be rolled back.
+     */
+    public final void setValue(Object obj, Object value, Map context, DataJournal journal) throws Exception {
+            if (journal != null) {
+                recordValue(obj, journal);
+            }
+
+            setValue(obj, value, context);
+    }
+
     // In order to comply with JSon spec, we should handle booleans and doubles and return them as such.
     private Object convertToOtherType(String s) {
         if ("true".equals(s)) {
@@ -65,6 +76,9 @@ public abstract class AtomicExpression {
     // Set the value to the object according to the atomic expression.
     public abstract void doSetValue(Object object, Object value, Map context) throws Exception;
 
+    // Record the value that setValue() is about to change in the journal.
+    protected abstract void recordValue(Object object, DataJournal journal);
+
     // Apply the atomic expression to the passed parent bean to retrieve the child bean.
     protected abstract Object doResolve(Object parent, Map context) throws Exception;
 
@@ -142,6 +156,13 @@ public abstract class AtomicExpression {
                         }
                     }
 
+                    @Override
+                    protected void recordValue(Object object, DataJournal journal) {
+                        if (object instanceof List) {
+                            journal.recordListSlot((List)object, index);
+                        }
+                    }
+
                     @Override
                     protected Object doResolve(Object obj, Map context) throws Exception {
                         if (obj instanceof List) {
@@ -213,6 +234,12 @@ public abstract class AtomicExpression {
                         ((Map)obj).put(token, value);
                     }
 
+                    @Override protected void recordValue(Object object, DataJournal journal) {
+                        if (object instanceof Map) {
+                            journal.recordMapEntry((Map)object, token);
+                        }
+                    }
+
                     @Override protected Object doResolve(Object parent, Map context) throws Exception {
                         return ((Map)parent).get(token);
                     }
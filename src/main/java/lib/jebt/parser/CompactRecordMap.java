@@ -0,0 +1,261 @@
+package lib.jebt.parser;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Insertion-ordered Map of a record read from a document: its keys are in a {@link Schema} shared by all records with the same keys,
+ * and its values in a plain array. Records of a loop all have the same keys in the same order, so they take a fraction of a LinkedHashMap memory.
+ * <p>
+ * It supports all Map operations and null values. Maps aren't thread-safe, schemas are.
+ * </p>
+ */
+public class CompactRecordMap extends AbstractMap<Object, Object> {
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final Schema rootSchema;
+
+    private Schema schema;
+
+    private Object[] values = NO_VALUES;
+
+    private int modCount = 0;
+
+    /**
+     * @param rootSchema the schema of records without keys, from which the schemas of all records of a loop are derived.
+     */
+    public CompactRecordMap(Schema rootSchema) {
+        this.rootSchema = rootSchema;
+        this.schema = rootSchema;
+    }
+
+    @Override public int size() {
+        return schema.keys.length;
+    }
+
+    @Override public boolean containsKey(Object key) {
+        return schema.indexOf(key) >= 0;
+    }
+
+    @Override public Object get(Object key) {
+        int index = schema.indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override public Object put(Object key, Object value) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        index = schema.keys.length;
+        schema = schema.with(key);
+        if (values.length <= index) {
+            values = Arrays.copyOf(values, Math.max(4, index + (index >> 1) + 1));
+        }
+        values[index] = value;
+        modCount++;
+        return null;
+    }
+
+    @Override public Object remove(Object key) {
+        int index = schema.indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object previous = values[index];
+
+        // The schema of the remaining keys is found again from the root, so that it's still shared.
+        Schema remaining = rootSchema;
+        for (int i = 0; i < schema.keys.length; i++) {
+            if (i != index) {
+                remaining = remaining.with(schema.keys[i]);
+            }
+        }
+        System.arraycopy(values, index + 1, values, index, schema.keys.length - index - 1);
+        values[schema.keys.length - 1] = null;
+        schema = remaining;
+        modCount++;
+        return previous;
+    }
+
+    @Override public void clear() {
+        schema = rootSchema;
+        values = NO_VALUES;
+        modCount++;
+    }
+
+    @Override public Set<Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Entry<Object, Object>>() {
+            @Override public Iterator<Entry<Object, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override public int size() {
+                return CompactRecordMap.this.size();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<Object, Object>> {
+
+        private int index = 0;
+
+        private int lastIndex = -1;
+
+        private int expectedModCount = modCount;
+
+        @Override public boolean hasNext() {
+            return index < schema.keys.length;
+        }
+
+        @Override public Entry<Object, Object> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (index >= schema.keys.length) {
+                throw new NoSuchElementException();
+            }
+            lastIndex = index++;
+            return new RecordEntry(lastIndex);
+        }
+
+        @Override public void remove() {
+            if (lastIndex < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            CompactRecordMap.this.remove(schema.keys[lastIndex]);
+            index = lastIndex;
+            lastIndex = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class RecordEntry implements Entry<Object, Object> {
+
+        private final Object key;
+
+        private final int index;
+
+        RecordEntry(int index) {
+            this.key = schema.keys[index];
+            this.index = index;
+        }
+
+        @Override public Object getKey() {
+            return key;
+        }
+
+        @Override public Object getValue() {
+            return values[index];
+        }
+
+        @Override public Object setValue(Object value) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry)o;
+            return (key == null ? entry.getKey() == null : key.equals(entry.getKey()))
+                    && (getValue() == null ? entry.getValue() == null : getValue().equals(entry.getValue()));
+        }
+
+        @Override public int hashCode() {
+            return (key == null ? 0 : key.hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    /**
+     * The keys of records, in insertion order. Schemas are immutable: adding a key to a schema gives another schema,
+     * created once and then shared by all records that got the same keys in the same order from the same root.
+     */
+    public static class Schema {
+
+        // Past this many keys, they're looked up in a HashMap instead of being compared one by one.
+        private static final int MAX_SCANNED_KEYS = 8;
+
+        private final Object[] keys;
+
+        private final Map<Object, Integer> indexes;
+
+        private final ConcurrentMap<Object, Schema> transitions = new ConcurrentHashMap<>();
+
+        /**
+         * @return a new schema without keys, to be shared by records of the same loop.
+         */
+        public static Schema root() {
+            return new Schema(new Object[0]);
+        }
+
+        private Schema(Object[] keys) {
+            this.keys = keys;
+            if (keys.length > MAX_SCANNED_KEYS) {
+                indexes = new HashMap<>(keys.length * 2);
+                for (int i = 0; i < keys.length; i++) {
+                    indexes.put(keys[i], i);
+                }
+            } else {
+                indexes = null;
+            }
+        }
+
+        int indexOf(Object key) {
+            if (indexes != null) {
+                Integer index = indexes.get(key);
+                return index != null ? index : -1;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key || (key != null && key.equals(keys[i]))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        Schema with(Object key) {
+            if (key == null) {
+                // ConcurrentHashMap has no null keys, so this schema isn't shared.
+                return new Schema(append(key));
+            }
+            Schema next = transitions.get(key);
+            if (next == null) {
+                Schema created = new Schema(append(key));
+                next = transitions.putIfAbsent(key, created);
+                if (next == null) {
+                    next = created;
+                }
+            }
+            return next;
+        }
+
+        private Object[] append(Object key) {
+            Object[] nextKeys = Arrays.copyOf(keys, keys.length + 1);
+            nextKeys[keys.length] = key;
+            return nextKeys;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package lib.jebt.parser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Undo journal of the changes made to data, used when matching a document speculatively:
+ * changes are recorded as they're made, kept if it's a match, and rolled back otherwise.
+ * <p>
+ * Transactions can be nested: {@link #mark()} starts one, {@link #commit(int)} keeps its changes (they can still be rolled back by an enclosing transaction)
+ * and {@link #rollback(int)} undoes them.
+ * </p>
+ */
+public class DataJournal {
+
+    // Entries are stored in parallel arrays, to keep the journal small and reusable.
+    private Object[] containers = new Object[16];
+
+    private Object[] keys = new Object[16];
+
+    private Object[] previousValues = new Object[16];
+
+    // For Lists, the size of the list before the change. For Maps, 1 if the key was present before the change, 0 otherwise.
+    private int[] previousSizes = new int[16];
+
+    private int size = 0;
+
+    /**
+     * Starts a transaction.
+     * @return the mark to pass to {@link #commit(int)} or {@link #rollback(int)}.
+     */
+    public int mark() {
+        return size;
+    }
+
+    /**
+     * Keeps the changes made since the mark.
+     */
+    public void commit(int mark) {
+        if (mark == 0) {
+            // There's no enclosing transaction, so there's nothing left to roll back.
+            clear(0);
+        }
+    }
+
+    /**
+     * Undoes the changes made since the mark, newest first.
+     */
+    public void rollback(int mark) {
+        for (int i = size - 1; i >= mark; i--) {
+            if (containers[i] instanceof Map) {
+                Map map = (Map)containers[i];
+                if (previousSizes[i] == 1) {
+                    map.put(keys[i], previousValues[i]);
+                } else {
+                    map.remove(keys[i]);
+                }
+            } else {
+                List list = (List)containers[i];
+                int index = (Integer)keys[i];
+                if (index < previousSizes[i]) {
+                    list.set(index, previousValues[i]);
+                }
+                while (list.size() > previousSizes[i]) {
+                    list.remove(list.size() - 1);
+                }
+            }
+        }
+        clear(mark);
+    }
+
+    /**
+     * Records the current state of a Map entry, before it's changed.
+     */
+    public void recordMapEntry(Map map, Object key) {
+        boolean hasKey = map.containsKey(key);
+        add(map, key, hasKey ? map.get(key) : null, hasKey ? 1 : 0);
+    }
+
+    /**
+     * Records the current state of a List slot, before it's changed (the List may also be extended to reach that index).
+     */
+    public void recordListSlot(List list, int index) {
+        add(list, index, index < list.size() ? list.get(index) : null, list.size());
+    }
+
+    public void put(Map map, Object key, Object value) {
+        recordMapEntry(map, key);
+        map.put(key, value);
+    }
+
+    public void remove(Map map, Object key) {
+        recordMapEntry(map, key);
+        map.remove(key);
+    }
+
+    public void set(List list, int index, Object value) {
+        recordListSlot(list, index);
+        list.set(index, value);
+    }
+
+    private void add(Object container, Object key, Object previousValue, int previousSize) {
+        if (size == containers.length) {
+            int newLength = size * 2;
+            containers = Arrays.copyOf(containers, newLength);
+            keys = Arrays.copyOf(keys, newLength);
+            previousValues = Arrays.copyOf(previousValues, newLength);
+            previousSizes = Arrays.copyOf(previousSizes, newLength);
+        }
+        containers[size] = container;
+        keys[size] = key;
+        previousValues[size] = previousValue;
+        previousSizes[size] = previousSize;
+        ++size;
+    }
+
+    private void clear(int from) {
+        for (int i = from; i < size; i++) {
+            // Let the GC collect old values.
+            containers[i] = null;
+            keys[i] = null;
+            previousValues[i] = null;
+        }
+        size = from;
+    }
+}
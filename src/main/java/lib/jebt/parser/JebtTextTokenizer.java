@@ -1,5 +1,6 @@
 package lib.jebt.parser;
 
+import lib.jebt.metrics.JebtMetrics;
 import lib.jebt.parser.Token.TokenType;
 import org.apache.commons.lang3.StringUtils;
 
@@ -24,6 +25,9 @@ public class JebtTextTokenizer implements JebtTokenizer {
     private boolean isEscaped = false;
     private boolean hasEODBeenReturned = false;
 
+    // Tokens returned so far, including the ones of loops, reported once EOD is returned.
+    private long tokenCount = 0;
+
     public JebtTextTokenizer(Reader reader) {
         this.reader = reader;
     }
@@ -55,6 +59,16 @@ public class JebtTextTokenizer implements JebtTokenizer {
      */
     @Override
     public Token readNext() {
+        Token token = readNextToken();
+        if (token == Token.EOD) {
+            JebtMetrics.get().count(JebtMetrics.Counter.TOKENS, tokenCount);
+        } else {
+            ++tokenCount;
+        }
+        return token;
+    }
+
+    private Token readNextToken() {
 
         try {
 
@@ -112,7 +126,7 @@ public class JebtTextTokenizer implements JebtTokenizer {
                             isInExpr = true;
                             if (text.length() == 0) {
                                 // Let's not return a TEXT token of size zero, doesn't make sense, better return directly the expression token.
-                                return readNext();
+                                return readNextToken();
                             }
                             return new Token(TokenType.TEXT, text.toString());
                         }
@@ -127,7 +141,7 @@ public class JebtTextTokenizer implements JebtTokenizer {
                             isInLoop = true;
                             if (text.length() == 0) {
                                 // Let's not return a TEXT token of size zero, doesn't make sense, better return directly the expression token.
-                                return readNext();
+                                return readNextToken();
                             }
                             return new Token(TokenType.TEXT, text.toString());
                         }
@@ -220,6 +234,9 @@ public class JebtTextTokenizer implements JebtTokenizer {
             // unreacheable code here.
         }
 
+        // The closing tag isn't a token of the loop.
+        tokenCount += loopTokenizer.tokenCount - 1;
+
         return baseLoopToken;
     }
 
@@ -1,5 +1,6 @@
 package lib.jebt.parser;
 
+import lib.jebt.metrics.JebtMetrics;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -11,34 +12,60 @@ import java.util.Map;
 
 /**
  * Class in charge of processing raw text with Jebt Template elements in it to turned it into filled text document
+ * <p>
+ * It has no state, so it can be shared between threads.
+ * </p>
  */
 public class JebtWriterTextProcessor {
 
+    // Indexes of the counts passed along while processing tokens.
+    private static final int PATH_EVALUATIONS = 0;
+
+    private static final int LOOP_ITERATIONS = 1;
+
     /**
      * @param sourceText A reader that reads template text.
      * @param outText A writer where we will write down the source text with all templating elements resolved.
      * @param data Data to use when filling template elements.
      */
     public void convertString(Reader sourceText, Writer outText, Map data) {
+        convertString(new JebtTextTokenizer(sourceText), outText, data);
+    }
 
-        JebtTextTokenizer tokenizer = new JebtTextTokenizer(sourceText);
+    /**
+     * Same as {@link #convertString(Reader, Writer, Map)}, with template tokens that may have been read beforehand (see {@link TokenListTokenizer}).
+     */
+    public void convertString(JebtTokenizer tokenizer, Writer outText, Map data) {
 
         Token token;
 
+        // Counted here and reported once, as this is called for every text cell of XLSX documents.
+        long[] counts = new long[2];
+
         try {
             while ((token = tokenizer.readNext()) != Token.EOD) {
-                processToken(token, outText, data);
+                processToken(token, outText, data, counts);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        if (counts[PATH_EVALUATIONS] > 0) {
+            JebtMetrics metrics = JebtMetrics.get();
+            metrics.count(JebtMetrics.Counter.PATH_EVALUATIONS, counts[PATH_EVALUATIONS]);
+            if (counts[LOOP_ITERATIONS] > 0) {
+                metrics.count(JebtMetrics.Counter.LOOP_ITERATIONS, counts[LOOP_ITERATIONS]);
+            }
+        }
     }
 
-    private void processToken(Token token, Writer outText, Map data) throws IOException{
+    private void processToken(Token token, Writer outText, Map data, long[] counts) throws IOException{
         if (token.getType() == Token.TokenType.EXPRESSION) {
+            ++counts[PATH_EVALUATIONS];
             outText.append(new JsonPathResolver(data).evaluatePathToString(token.getText()));
         } else if (token.getType() == Token.TokenType.LOOP) {
             JebtTextTokenizer.LoopToken loop = (JebtTextTokenizer.LoopToken)token;
+            ++counts[PATH_EVALUATIONS];
             List collection = null;
             try {
                 collection = (List)new JsonPathResolver(data).evaluatePathToObject(loop.getCollectionJsonPath());
@@ -53,12 +80,13 @@ public class JebtWriterTextProcessor {
 
             while (it.hasNext()) {
                 Object obj = it.next();
+                ++counts[LOOP_ITERATIONS];
 
                 Map dataCopy = new LinkedHashMap(data);
                 dataCopy.put(loop.getLoopItemName(), obj);
 
                 for (Token tok : loop.getLoopTokens()) {
-                    processToken(tok, outText, dataCopy);
+                    processToken(tok, outText, dataCopy, counts);
                 }
             }
 
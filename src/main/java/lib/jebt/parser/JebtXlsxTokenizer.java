@@ -1,5 +1,6 @@
 package lib.jebt.parser;
 
+import lib.jebt.metrics.JebtMetrics;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Comment;
@@ -16,6 +17,7 @@ import java.util.Stack;
  *
  * We cannot read tokens with excel-streaming-reader because it cannot read cell comments, where we store loop information.
  * But it's not a problem, template files shouldn't be too large.
+ * Sheets are read through {@link XlsxTemplateSheet}, so that templates can also be loaded without POI.
  */
 public class JebtXlsxTokenizer implements JebtTokenizer {
 
@@ -25,7 +27,7 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
 
     private int columnIndex = -1;
 
-    private Sheet sheet = null;
+    private XlsxTemplateSheet sheet = null;
 
     private int maxRowIndex = -1;
 
@@ -38,11 +40,18 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
 
     boolean eodReturned = false;
 
+    // Tokens read so far, including the ones of loops, reported with EOD.
+    private long tokenCount = 0;
+
     public JebtXlsxTokenizer(Sheet sheet) {
+        this(new PoiTemplateSheet(sheet));
+    }
+
+    public JebtXlsxTokenizer(XlsxTemplateSheet sheet) {
         this(sheet, -1, -1);
     }
 
-    private JebtXlsxTokenizer(Sheet sheet, int rowIndex, int columnIndex) {
+    private JebtXlsxTokenizer(XlsxTemplateSheet sheet, int rowIndex, int columnIndex) {
         this.rowIndex = rowIndex;
         this.columnIndex = columnIndex;
         this.sheet = sheet;
@@ -68,17 +77,16 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
         if (!isOnBlankRow && rowIndex >= 0 && columnIndex >= -1 && columnIndex < currentRowMaxColumnIndex) {
             // process next cell
             columnIndex++;
-            Cell cell = sheet.getRow(rowIndex).getCell(columnIndex);
 
             // Opening any loop
-            while (checkStartLoop(cell)) {
+            while (checkStartLoop()) {
             }
 
             // This is either a normal cell, or a cell with loop closing tags.
-            addToken(new Token(cell));
+            addToken(sheet.createCellToken(rowIndex, columnIndex));
 
             // Closing any opened loop
-            while (checkEndLoop(cell)) {
+            while (checkEndLoop()) {
             }
 
             return;
@@ -100,9 +108,9 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
 
         // Go to next row
         rowIndex++;
-        Row row = sheet.getRow(rowIndex);
-        currentRowMaxColumnIndex = row == null ? -1 : (row.getLastCellNum()-1);
-        if (isEmptyRow(row)) {
+        int lastCellNum = sheet.getLastCellNum(rowIndex);
+        currentRowMaxColumnIndex = lastCellNum < 0 ? -1 : (lastCellNum-1);
+        if (isEmptyRow()) {
             addToken(new Token(Token.TokenType.NEW_BLANK_ROW, null));
             isOnBlankRow = true;
         } else {
@@ -117,13 +125,9 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
     /**
      * An empty row has no cell or has only empty cells as defined by Token.TokenType.NEW_BLANK_CELL.
      */
-    private boolean isEmptyRow(Row row) {
-        if (row == null) {
-            return true;
-        }
-
-        for (Cell cell : row) {
-            Token t = new Token(cell);
+    private boolean isEmptyRow() {
+        for (int i = 0; i <= currentRowMaxColumnIndex; i++) {
+            Token t = sheet.createCellToken(rowIndex, i);
             if (t.getType() != Token.TokenType.NEW_BLANK_CELL) {
                 return false;
             }
@@ -135,18 +139,14 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
     /**
      * @return true if the cell contained a loop closing statement in its comments (and the currently opened loop was closed), false otherwise
      */
-    private boolean checkEndLoop(Cell cell) {
+    private boolean checkEndLoop() {
 
-        if (cell == null) {
+        String comment = sheet.getComment(rowIndex, columnIndex);
+        if (StringUtils.isBlank(comment)) {
             return false;
         }
 
-        Comment comment = cell.getCellComment();
-        if (comment == null || comment.getString() == null || StringUtils.isBlank(comment.getString().toString())) {
-            return false;
-        }
-
-        String commentStr = comment.getString().toString().trim();
+        String commentStr = comment.trim();
 
         if (commentStr.startsWith("{[") && commentStr.endsWith("]}")) {
             // Maybe a valid loop closing tag
@@ -171,7 +171,7 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
                     }
 
                     // We remove closing tag from comment
-                    cell.getCellComment().setString(new XSSFRichTextString(commentStr.substring(commentStr.indexOf("]}") + 2)));
+                    sheet.setComment(rowIndex, columnIndex, commentStr.substring(commentStr.indexOf("]}") + 2));
 
                     // We effectively close the loop tag
                     loopStack.pop();
@@ -192,18 +192,14 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
     /**
      * @return true if the cell comments starts with a loop opening tag (and has started the loop if that's ths case), false otherwise.
      */
-    private boolean checkStartLoop(Cell cell) {
-
-        if (cell == null) {
-            return false;
-        }
+    private boolean checkStartLoop() {
 
-        Comment comment = cell.getCellComment();
-        if (comment == null || comment.getString() == null || StringUtils.isBlank(comment.getString().toString())) {
+        String comment = sheet.getComment(rowIndex, columnIndex);
+        if (StringUtils.isBlank(comment)) {
             return false;
         }
 
-        String commentStr = comment.getString().toString().trim();
+        String commentStr = comment.trim();
 
         if (commentStr.startsWith("{[") && commentStr.endsWith("]}")) {
             // Maybe a valid loop starting tag
@@ -217,7 +213,7 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
                     loopStack.push(startLoop);
 
                     // We remove opening tag from comment as it's been processed
-                    cell.getCellComment().setString(new XSSFRichTextString(commentStr.substring(commentStr.indexOf("]}") + 2)));
+                    sheet.setComment(rowIndex, columnIndex, commentStr.substring(commentStr.indexOf("]}") + 2));
 
                     return true;
                 } else {
@@ -234,6 +230,12 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
     }
 
     private void addToken(Token t) {
+        if (t == Token.EOD) {
+            JebtMetrics.get().count(JebtMetrics.Counter.TOKENS, tokenCount);
+        } else {
+            ++tokenCount;
+        }
+
         if (!loopStack.empty()) {
             // Append current token to opened loop
             loopStack.peek().addLoopInnerToken(t);
@@ -244,4 +246,50 @@ public class JebtXlsxTokenizer implements JebtTokenizer {
 
     }
 
+    /**
+     * A template sheet read with POI: loop tags are removed from the cell comments as they're processed.
+     */
+    private static class PoiTemplateSheet implements XlsxTemplateSheet {
+
+        private Sheet sheet;
+
+        PoiTemplateSheet(Sheet sheet) {
+            this.sheet = sheet;
+        }
+
+        @Override public int getLastRowNum() {
+            return sheet.getLastRowNum();
+        }
+
+        @Override public int getLastCellNum(int rowIndex) {
+            Row row = sheet.getRow(rowIndex);
+            return row == null ? -1 : row.getLastCellNum();
+        }
+
+        @Override public Token createCellToken(int rowIndex, int columnIndex) {
+            return new Token(getCell(rowIndex, columnIndex));
+        }
+
+        @Override public String getComment(int rowIndex, int columnIndex) {
+            Cell cell = getCell(rowIndex, columnIndex);
+            if (cell == null) {
+                return null;
+            }
+
+            Comment comment = cell.getCellComment();
+            if (comment == null || comment.getString() == null) {
+                return null;
+            }
+            return comment.getString().toString();
+        }
+
+        @Override public void setComment(int rowIndex, int columnIndex, String comment) {
+            getCell(rowIndex, columnIndex).getCellComment().setString(new XSSFRichTextString(comment));
+        }
+
+        private Cell getCell(int rowIndex, int columnIndex) {
+            Row row = sheet.getRow(rowIndex);
+            return row == null ? null : row.getCell(columnIndex);
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package lib.jebt.parser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The set of JSON paths to extract from a document, all other expressions being matched but never stored.
+ * <p>
+ * Paths are written from the root of the data, with [*] (or any index) standing for all the items of a collection,
+ * e.g. "customers[*].name" or "customers[*].aliases". A path also selects everything below it.
+ * Expressions of the template are resolved to the same form before being compared, replacing loop item names by the path of their collection items:
+ * in a {[customers|customer]} loop, {{customer.name}} is "customers[*].name".
+ * </p>
+ * Projections have no state, so they can be shared between threads.
+ */
+public class JsonPathProjection {
+
+    public static final String WILDCARD = "[*]";
+
+    private final List<String> paths = new ArrayList<>();
+
+    public JsonPathProjection(Collection<String> paths) {
+        for (String path : paths) {
+            this.paths.add(resolve(path, Collections.<String, String>emptyMap()));
+        }
+    }
+
+    /**
+     * @param jsonPath a path as written in the template.
+     * @param loopItemPaths the resolved paths of the items of the loops the path is in, by loop item name.
+     * @return the path from the root of the data, with all indexes replaced by [*].
+     */
+    public static String resolve(String jsonPath, Map<String, String> loopItemPaths) {
+        StringBuilder resolved = new StringBuilder();
+
+        String path = jsonPath.trim();
+        int i = 0;
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '.' || c == ' ') {
+                ++i;
+            } else if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new JebtParseException("Missing ] in path " + jsonPath);
+                }
+                String element = cleanUpElementName(path.substring(i + 1, end));
+                if (element.equals("*") || isIndex(element)) {
+                    resolved.append(WILDCARD);
+                } else {
+                    appendProperty(resolved, element, loopItemPaths);
+                }
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    ++end;
+                }
+                appendProperty(resolved, path.substring(i, end).trim(), loopItemPaths);
+                i = end;
+            }
+        }
+
+        return resolved.toString();
+    }
+
+    /**
+     * @param resolvedPath a path returned by {@link #resolve(String, Map)}.
+     * @return true if the value at this path should be stored, that is if it's one of the projection paths or below one of them.
+     */
+    public boolean isProjected(String resolvedPath) {
+        for (String path : paths) {
+            if (isSameOrBelow(resolvedPath, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param resolvedPath a path returned by {@link #resolve(String, Map)}.
+     * @return true if the value at this path should be built, that is if it's projected or some projection path is below it.
+     */
+    public boolean isTraversed(String resolvedPath) {
+        for (String path : paths) {
+            if (isSameOrBelow(resolvedPath, path) || isSameOrBelow(path, resolvedPath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSameOrBelow(String path, String parentPath) {
+        return path.startsWith(parentPath) && (path.length() == parentPath.length() || parentPath.isEmpty()
+                || path.charAt(parentPath.length()) == '.' || path.charAt(parentPath.length()) == '[');
+    }
+
+    private static void appendProperty(StringBuilder resolved, String name, Map<String, String> loopItemPaths) {
+        if (resolved.length() == 0 && loopItemPaths.containsKey(name)) {
+            // Loop items are only available at the root of the data.
+            resolved.append(loopItemPaths.get(name));
+        } else {
+            if (resolved.length() > 0) {
+                resolved.append('.');
+            }
+            resolved.append(name);
+        }
+    }
+
+    private static boolean isIndex(String element) {
+        if (element.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < element.length(); i++) {
+            if (!Character.isDigit(element.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String cleanUpElementName(String e) {
+        while (e.startsWith("'") || e.startsWith("\"") || e.startsWith(" ")) {
+            e = e.substring(1);
+        }
+
+        while (e.endsWith("'") || e.endsWith("\"") || e.endsWith(" ")) {
+            e = e.substring(0, e.length() - 1);
+        }
+
+        return e;
+    }
+}
@@ -26,11 +26,26 @@ public class ParsingUtils {
      * Code used in loops ; it'll initialize the collection object.
      */
     public static List initCollection(Map data, String collectionJSonPath, int loopedBeanIndex, String loopItemName) {
+        return initCollection(data, collectionJSonPath, loopedBeanIndex, loopItemName, null);
+    }
+
+    /**
+     * Same as {@link #initCollection(Map, String, int, String)}, recording all changes in the journal if it's not null.
+     */
+    public static List initCollection(Map data, String collectionJSonPath, int loopedBeanIndex, String loopItemName, DataJournal journal) {
+        return initCollection(data, collectionJSonPath, loopedBeanIndex, loopItemName, journal, null);
+    }
+
+    /**
+     * Same as {@link #initCollection(Map, String, int, String, DataJournal)}, new items being {@link CompactRecordMap} of the schema if it's not null.
+     */
+    public static List initCollection(Map data, String collectionJSonPath, int loopedBeanIndex, String loopItemName, DataJournal journal,
+                                      CompactRecordMap.Schema recordSchema) {
 
         Object loopedCollectionBean = new JsonPathResolver(data).evaluatePathToObject(collectionJSonPath);
         if (loopedCollectionBean == null) {
             loopedCollectionBean = new ArrayList();
-            updateData(collectionJSonPath, loopedCollectionBean, data);
+            updateData(AtomicExpression.extractAtomicExpressions(collectionJSonPath), loopedCollectionBean, data, journal);
         }
         if (!(loopedCollectionBean instanceof List)) {
             throw new JebtEvaluationException(
@@ -43,6 +58,9 @@ public class ParsingUtils {
         List loopedCollectionList = (List)loopedCollectionBean;
 
         if (loopedBeanIndex >= 0) {
+            if (journal != null) {
+                journal.recordListSlot(loopedCollectionList, loopedBeanIndex);
+            }
             // We need to fill the List with empty objects if it doesn't have enough items in it.
             while (loopedCollectionList.size() <= loopedBeanIndex) {
                 // The list is not large enough, we have to add more data to it.
@@ -50,17 +68,59 @@ public class ParsingUtils {
             }
             loopedItem = loopedCollectionList.get(loopedBeanIndex);
             if (loopedItem == null) {
-                loopedItem = new LinkedHashMap();
+                loopedItem = recordSchema != null ? new CompactRecordMap(recordSchema) : new LinkedHashMap();
                 loopedCollectionList.set(loopedBeanIndex, loopedItem);
             }
         }
 
         // We now put the object at the root of the data to make it available to context.
+        if (journal != null) {
+            journal.recordMapEntry(data, loopItemName);
+        }
         data.put(loopItemName, loopedItem);
 
         return loopedCollectionList;
     }
 
+    /**
+     * Merges source data into target data, as if source data had been extracted after target data in the same Map:
+     * Maps are merged key by key and Lists item by item, recursively. Any other value from source replaces the one in target, unless it's null.
+     * Source objects may end up in target, so source shouldn't be used anymore afterwards.
+     */
+    public static void mergeData(Map target, Map source) {
+        for (Object o : source.entrySet()) {
+            Map.Entry entry = (Map.Entry)o;
+            Object merged = mergeValue(target.get(entry.getKey()), entry.getValue());
+            if (merged != null || !target.containsKey(entry.getKey())) {
+                target.put(entry.getKey(), merged);
+            }
+        }
+    }
+
+    private static void mergeData(List target, List source) {
+        for (int i = 0; i < source.size(); i++) {
+            if (i < target.size()) {
+                Object merged = mergeValue(target.get(i), source.get(i));
+                if (merged != null) {
+                    target.set(i, merged);
+                }
+            } else {
+                target.add(source.get(i));
+            }
+        }
+    }
+
+    private static Object mergeValue(Object targetValue, Object sourceValue) {
+        if (targetValue instanceof Map && sourceValue instanceof Map) {
+            mergeData((Map)targetValue, (Map)sourceValue);
+            return targetValue;
+        } else if (targetValue instanceof List && sourceValue instanceof List) {
+            mergeData((List)targetValue, (List)sourceValue);
+            return targetValue;
+        }
+        return sourceValue;
+    }
+
     /**
      * Update the entry at the given path to the given value.
      *
@@ -74,23 +134,41 @@ public class ParsingUtils {
             return;
         }
 
-        List<AtomicExpression> atomicExprs = AtomicExpression.extractAtomicExpressions(jsonPath);
+        updateData(AtomicExpression.extractAtomicExpressions(jsonPath), value, data);
+    }
+
+    /**
+     * Same as {@link #updateData(String, Object, Map)}, with a path already parsed by {@link AtomicExpression#extractAtomicExpressions(String)}.
+     * The passed List is not modified, so it can be parsed once and reused.
+     */
+    public static void updateData(List<AtomicExpression> atomicExprs, Object value, Map data) {
+        updateData(atomicExprs, value, data, null);
+    }
+
+    /**
+     * Same as {@link #updateData(List, Object, Map)}, recording all changes in the journal if it's not null.
+     */
+    public static void updateData(List<AtomicExpression> atomicExprs, Object value, Map data, DataJournal journal) {
+
+        if (atomicExprs.isEmpty()) {
+            return;
+        }
 
         // We keep the last expression to assign instead of "get".
-        AtomicExpression lastExpression = atomicExprs.remove(atomicExprs.size() - 1);
+        int lastIndex = atomicExprs.size() - 1;
+        AtomicExpression lastExpression = atomicExprs.get(lastIndex);
 
         Object obj = data;
 
         try {
 
             // climb up the expression ladder until the very last expression, instantiating null objects as we go up.
-            for (int i = 0; i < atomicExprs.size(); i++) {
+            for (int i = 0; i < lastIndex; i++) {
                 AtomicExpression atomicExpr = atomicExprs.get(i);
                 Object childBean = atomicExpr.resolve(obj, data);
                 if (childBean == null) {
                     // We instantiate a new Child bean, either a Map or an ArrayList depending on the following token
-                    AtomicExpression nextAtomicExpr =
-                            i + 1 < atomicExprs.size() ? atomicExprs.get(i + 1) : lastExpression;
+                    AtomicExpression nextAtomicExpr = atomicExprs.get(i + 1);
                     if (nextAtomicExpr.isExprOnArray()) {
                         // JSon Array
                         childBean = new ArrayList();
@@ -98,13 +176,13 @@ public class ParsingUtils {
                         // JSon Object.
                         childBean = new LinkedHashMap();
                     }
-                    atomicExpr.setValue(obj, childBean, data);
+                    atomicExpr.setValue(obj, childBean, data, journal);
                 }
                 obj = childBean;
             }
 
             // Use the very last expression to assign the value.
-            lastExpression.setValue(obj, value, data);
+            lastExpression.setValue(obj, value, data, journal);
 
         } catch (Exception e) {
             throw new RuntimeException(e);
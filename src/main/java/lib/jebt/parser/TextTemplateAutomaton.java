@@ -0,0 +1,645 @@
+package lib.jebt.parser;
+
+import lib.jebt.JebtRecordSink;
+import lib.jebt.metrics.JebtMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text template compiled once into a deterministic matching automaton, used to extract data back from text documents.
+ * <p>
+ * The template is turned into a sequence of states:
+ * <ul>
+ *     <li>Literal: template text that must be found as-is in the document.</li>
+ *     <li>Capture: an expression, whose value is everything read in the document until its terminator text (the template text following the expression) is matched.
+ *     Terminators are matched with a KMP failure table, so the document is never read twice.</li>
+ *     <li>Loop: entry and exit transitions around the loop body states. Before each record, we check whether the document matches the loop breaker text (the template text following the loop), in which case the loop is over.</li>
+ * </ul>
+ * The document is then run through the automaton in one pass. Compiled automatons have no state, so they can be reused and shared between threads.
+ * <p>
+ * When compiled with a {@link JsonPathProjection}, expressions and loops outside of it are still matched, but their values are neither built nor stored.
+ * </p>
+ */
+public class TextTemplateAutomaton {
+
+    /**
+     * This value sets an approximate text length to match with template text before deciding that the expression value is correctly matched.
+     * It's mostly setValue for performance purpose, we cannot keep the parsed string in memory indefinitely for memory consumption reasons.
+     */
+    private final static int MAX_TEXT_LENGTH_TO_STOP_MATCHING_EXPRESSION = 1000;
+
+    private final State[] states;
+
+    // Set when the template is a single expression and nothing else, in which case the whole document is its value.
+    private final CaptureState wholeDocumentCapture;
+
+    private TextTemplateAutomaton(State[] states) {
+        this.states = states;
+        this.wholeDocumentCapture = states.length == 1 && states[0] instanceof CaptureState && ((CaptureState)states[0]).terminator == null ?
+                (CaptureState)states[0] : null;
+    }
+
+    /**
+     * Reads all tokens of the template and compiles them.
+     */
+    public static TextTemplateAutomaton compile(JebtTokenizer templateTokenizer) {
+        return compile(templateTokenizer, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Same as {@link #compile(JebtTokenizer)}, only storing the values of the projection (if not null).
+     *
+     * @param loopItemPaths the resolved paths of the items of the loops the template is in, by loop item name (see {@link JsonPathProjection#resolve(String, Map)}).
+     */
+    public static TextTemplateAutomaton compile(JebtTokenizer templateTokenizer, JsonPathProjection projection, Map<String, String> loopItemPaths) {
+        return new TextTemplateAutomaton(compileSequence(templateTokenizer, projection, loopItemPaths));
+    }
+
+    /**
+     * Runs the document through the automaton, and updates data with the document data that was used to fill in the template expressions.
+     */
+    public void extractData(Reader documentReader, Map data) {
+        extractData(documentReader, data, null);
+    }
+
+    /**
+     * Same as {@link #extractData(Reader, Map)}, recording all changes made to data in the journal if it's not null.
+     */
+    public void extractData(Reader documentReader, Map data, DataJournal journal) {
+        Extraction extraction = new Extraction(new ReaderCursor(documentReader), data, journal, null);
+        try {
+            runSequence(states, extraction);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        extraction.reportCounts();
+    }
+
+    /**
+     * Same as {@link #extractData(Reader, Map)}, passing the records of the top-level loops to the sink as soon as they're matched,
+     * instead of storing them in their collection.
+     */
+    public void extractRecords(Reader documentReader, Map data, JebtRecordSink recordSink) {
+        Extraction extraction = new Extraction(new ReaderCursor(documentReader), data, null, recordSink);
+        try {
+            runSequence(states, extraction);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        extraction.reportCounts();
+    }
+
+    /**
+     * Same as {@link #extractData(Reader, Map, DataJournal)}, for a document already in memory, like the text of a cell.
+     * If the template is a single expression (e.g. "{{path}}"), the document is directly assigned to it without any matching.
+     */
+    public void extractData(CharSequence document, Map data, DataJournal journal) {
+        if (wholeDocumentCapture != null) {
+            if (wholeDocumentCapture.path == null) {
+                // Not projected, there's nothing to match.
+                return;
+            }
+            ParsingUtils.updateData(wholeDocumentCapture.path, document.toString(), data, journal);
+            return;
+        }
+
+        Extraction extraction = new Extraction(new CharSequenceCursor(document), data, journal, null);
+        try {
+            runSequence(states, extraction);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        extraction.reportCounts();
+    }
+
+    private static State[] compileSequence(JebtTokenizer templateTokenizer, JsonPathProjection projection, Map<String, String> loopItemPaths) {
+        List<State> sequence = new ArrayList<>();
+
+        Token token = templateTokenizer.readNext();
+
+        while (token != Token.EOD) {
+            if (token.getType() == Token.TokenType.TEXT) {
+                // Consecutive TEXT tokens are matched as a single literal.
+                StringBuilder text = new StringBuilder();
+                while (token != Token.EOD && token.getType() == Token.TokenType.TEXT) {
+                    text.append(token.getText());
+                    token = templateTokenizer.readNext();
+                }
+                sequence.add(new LiteralState(text.toString()));
+            } else if (token.getType() == Token.TokenType.EXPRESSION) {
+                String expression = token.getText();
+
+                StringBuilder textToMatch = new StringBuilder();
+
+                // We build the string to match to detect the end of the template value.
+                while (textToMatch.length() <= MAX_TEXT_LENGTH_TO_STOP_MATCHING_EXPRESSION
+                        && (token = templateTokenizer.readNext()) != Token.EOD
+                        && token.getType() == Token.TokenType.TEXT) {
+                    textToMatch.append(token.getText());
+                }
+
+                if (token != Token.EOD && textToMatch.length() == 0) {
+                    if (token.getType() == Token.TokenType.EXPRESSION) {
+                        // We've found a new expression immediately after the first one ; that's INVALID as it doesn't allow us to match the expression value.
+                        throw new RuntimeException(
+                                "Found two consecutive Expressions in the template with no text in-between. That's invalid when extracting data from document. {{"
+                                        + expression + "}} / {{" + token.getText() + "}}");
+                    } else {
+                        throw new RuntimeException(
+                                "Found a Loop right after an Expression in the template with no text in-between. That's invalid when extracting data from document. {{"
+                                        + expression + "}}");
+                    }
+                }
+
+                // An empty text to match means that everything left in the document is the expression value.
+                boolean stored = projection == null || projection.isProjected(JsonPathProjection.resolve(expression, loopItemPaths));
+                sequence.add(new CaptureState(stored ? expression : null, textToMatch.length() == 0 ? null : textToMatch.toString()));
+
+                if (token != Token.EOD && token.getType() == Token.TokenType.TEXT) {
+                    // We stopped because the text to match was long enough, the last TEXT token is already part of it.
+                    token = templateTokenizer.readNext();
+                }
+            } else if (token.getType() == Token.TokenType.LOOP) {
+                JebtTextTokenizer.LoopToken loopToken = (JebtTextTokenizer.LoopToken)token;
+
+                StringBuilder loopBreakerTextToMatch = new StringBuilder();
+
+                while (loopBreakerTextToMatch.length() <= MAX_TEXT_LENGTH_TO_STOP_MATCHING_EXPRESSION
+                        && (token = templateTokenizer.readNext()) != Token.EOD
+                        && token.getType() == Token.TokenType.TEXT) {
+                    loopBreakerTextToMatch.append(token.getText());
+                }
+
+                String collectionPath = JsonPathProjection.resolve(loopToken.getCollectionJsonPath(), loopItemPaths);
+                Map<String, String> bodyLoopItemPaths = new HashMap<>(loopItemPaths);
+                bodyLoopItemPaths.put(loopToken.getLoopItemName(), collectionPath + JsonPathProjection.WILDCARD);
+
+                State[] body = compileSequence(new TokenListTokenizer(loopToken.getLoopTokens()), projection, bodyLoopItemPaths);
+                sequence.add(new LoopState(loopToken, body, loopBreakerTextToMatch.toString(), projection == null || projection.isTraversed(collectionPath)));
+
+                if (token != Token.EOD && token.getType() == Token.TokenType.TEXT) {
+                    token = templateTokenizer.readNext();
+                }
+            } else {
+                throw new RuntimeException(
+                        "TextTemplateAutomaton doesn't know how to process templateToken type " + token.getType().toString());
+            }
+        }
+
+        return sequence.toArray(new State[sequence.size()]);
+    }
+
+    private static void runSequence(State[] sequence, Extraction extraction) throws IOException {
+        for (State state : sequence) {
+            state.run(extraction);
+        }
+    }
+
+    /**
+     * State of one document extraction.
+     */
+    private static class Extraction {
+
+        final DocumentCursor document;
+
+        final Map data;
+
+        final DataJournal journal;
+
+        // When set, records of the top-level loops are passed to it instead of being stored.
+        final JebtRecordSink recordSink;
+
+        // Buffer reused to capture values.
+        final StringBuilder value = new StringBuilder();
+
+        long loopIterationCount;
+
+        // Number of loops being run, the top-level one included.
+        int loopDepth;
+
+        Extraction(DocumentCursor document, Map data, DataJournal journal, JebtRecordSink recordSink) {
+            this.document = document;
+            this.data = data;
+            this.journal = journal;
+            this.recordSink = recordSink;
+        }
+
+        void reportCounts() {
+            // Most cells of XLSX documents have no loop, so there's nothing to report for them.
+            if (loopIterationCount > 0) {
+                JebtMetrics.get().count(JebtMetrics.Counter.LOOP_ITERATIONS, loopIterationCount);
+            }
+        }
+    }
+
+    private static abstract class State {
+        abstract void run(Extraction extraction) throws IOException;
+    }
+
+    /**
+     * Template text that must be found as-is in the document.
+     */
+    private static class LiteralState extends State {
+
+        private final String text;
+
+        LiteralState(String text) {
+            this.text = text;
+        }
+
+        @Override void run(Extraction extraction) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                int j = extraction.document.read();
+                if (text.charAt(i) != (char)j) {
+                    throw new RuntimeException(
+                            "Character mismatch between the template and the document : '" + text.charAt(i) + "' / '" + (char)j
+                                    + "' for template text \"" + text + "\"");
+                }
+            }
+        }
+    }
+
+    /**
+     * An expression value, read until its terminator text is matched, or until the end of the document if there's no terminator.
+     */
+    private static class CaptureState extends State {
+
+        // Null if the value isn't stored, in which case it isn't built either.
+        private final List<AtomicExpression> path;
+
+        private final char[] terminator;
+
+        // KMP failure table of the terminator: failure[i] is the length of the longest proper prefix of terminator[0..i] that is also a suffix of it.
+        private final int[] failure;
+
+        /**
+         * @param expression the expression to store the value in, or null to only match the value.
+         */
+        CaptureState(String expression, String terminator) {
+            this.path = expression == null ? null : AtomicExpression.extractAtomicExpressions(expression);
+            this.terminator = terminator == null ? null : terminator.toCharArray();
+            this.failure = terminator == null ? null : computeFailureTable(this.terminator);
+        }
+
+        @Override void run(Extraction extraction) throws IOException {
+            DocumentCursor document = extraction.document;
+            StringBuilder value = path == null ? null : extraction.value;
+            if (value != null) {
+                value.setLength(0);
+            }
+            int i;
+
+            if (terminator == null) {
+                // Everything left in the document is the expression value.
+                while ((i = document.read()) != -1) {
+                    if (value != null) {
+                        value.append((char)i);
+                    }
+                }
+            } else {
+                int matchedLength = 0;
+                while ((i = document.read()) != -1) {
+                    char c = (char)i;
+                    if (value != null) {
+                        value.append(c);
+                    }
+
+                    while (matchedLength > 0 && c != terminator[matchedLength]) {
+                        matchedLength = failure[matchedLength - 1];
+                    }
+                    if (c == terminator[matchedLength]) {
+                        ++matchedLength;
+                    }
+                    if (matchedLength == terminator.length) {
+                        break;
+                    }
+                }
+                if (value != null) {
+                    // Terminator characters are not part of the value.
+                    value.setLength(value.length() - matchedLength);
+                }
+            }
+
+            if (value != null) {
+                ParsingUtils.updateData(path, value.toString(), extraction.data, extraction.journal);
+            }
+        }
+
+        private static int[] computeFailureTable(char[] text) {
+            int[] failure = new int[text.length];
+            int k = 0;
+            for (int i = 1; i < text.length; i++) {
+                while (k > 0 && text[i] != text[k]) {
+                    k = failure[k - 1];
+                }
+                if (text[i] == text[k]) {
+                    ++k;
+                }
+                failure[i] = k;
+            }
+            return failure;
+        }
+    }
+
+    /**
+     * A loop matches its body states against the document once per record, until the document matches the loop breaker text (which is then consumed) or ends.
+     */
+    private static class LoopState extends State {
+
+        private final String collectionJsonPath;
+
+        private final String loopItemName;
+
+        private final State[] body;
+
+        // Empty when the loop is at the end of the template: all remaining text should then be matched with loop records.
+        private final String loopBreakerTextToMatch;
+
+        // False if nothing in the collection is projected: records are then matched without creating any item.
+        private final boolean stored;
+
+        // Shared by the records of all extractions, as they have the same keys.
+        private final CompactRecordMap.Schema recordSchema = CompactRecordMap.Schema.root();
+
+        LoopState(JebtTextTokenizer.LoopToken loopToken, State[] body, String loopBreakerTextToMatch, boolean stored) {
+            this.collectionJsonPath = loopToken.getCollectionJsonPath();
+            this.loopItemName = loopToken.getLoopItemName();
+            this.body = body;
+            this.loopBreakerTextToMatch = loopBreakerTextToMatch;
+            this.stored = stored;
+        }
+
+        @Override void run(Extraction extraction) throws IOException {
+            DocumentCursor document = extraction.document;
+
+            extraction.loopDepth++;
+            try {
+                runRecords(extraction, document);
+            } finally {
+                extraction.loopDepth--;
+            }
+        }
+
+        private void runRecords(Extraction extraction, DocumentCursor document) throws IOException {
+            int loopedBeanIndex = 0;
+
+            if (stored && extraction.recordSink != null && extraction.loopDepth == 1) {
+                // Records passed to the sink are never stored, but their collection is created anyway, empty, just like when reading XLSX documents.
+                ParsingUtils.initCollection(extraction.data, collectionJsonPath, -1, loopItemName, extraction.journal);
+                if (extraction.journal != null) {
+                    extraction.journal.remove(extraction.data, loopItemName);
+                } else {
+                    extraction.data.remove(loopItemName);
+                }
+            }
+
+            while (document.hasNext()) {
+                if (isLoopBreakerMatched(document)) {
+                    break;
+                }
+
+                long offset = document.getOffset();
+
+                if (!stored) {
+                    runSequence(body, extraction);
+                } else if (extraction.recordSink != null && extraction.loopDepth == 1) {
+                    sinkRecord(extraction, loopedBeanIndex);
+                } else {
+                    storeRecord(extraction, loopedBeanIndex);
+                }
+
+                if (document.getOffset() == offset) {
+                    throw new JebtParseException("Loop " + loopItemName + " matched a record without reading anything from the document");
+                }
+
+                loopedBeanIndex++;
+                extraction.loopIterationCount++;
+            }
+        }
+
+        /**
+         * Matches the body states, storing what they extract in a new item of the collection.
+         */
+        private void storeRecord(Extraction extraction, int loopedBeanIndex) throws IOException {
+            Map data = extraction.data;
+
+            List loopedCollectionList = ParsingUtils.initCollection(data, collectionJsonPath, loopedBeanIndex, loopItemName, extraction.journal, recordSchema);
+
+            runSequence(body, extraction);
+
+            // Now that parsing of one item has been completed we need to retrieve it, store it in data and clean the context
+            if (extraction.journal != null) {
+                extraction.journal.set(loopedCollectionList, loopedBeanIndex, data.get(loopItemName));
+                extraction.journal.remove(data, loopItemName);
+            } else {
+                loopedCollectionList.set(loopedBeanIndex, data.get(loopItemName));
+                data.remove(loopItemName);
+            }
+        }
+
+        /**
+         * Matches the body states into a record only made available to them, then passes it to the sink.
+         */
+        private void sinkRecord(Extraction extraction, int loopedBeanIndex) throws IOException {
+            Map data = extraction.data;
+            data.put(loopItemName, new CompactRecordMap(recordSchema));
+
+            runSequence(body, extraction);
+
+            Object item = data.remove(loopItemName);
+            if (item instanceof Map) {
+                extraction.recordSink.accept(collectionJsonPath, loopedBeanIndex, (Map)item);
+            } else {
+                // Items that aren't records (e.g. "{{item}}" in the loop body) can't be passed to the sink, so they're stored as usual.
+                ParsingUtils.initCollection(data, collectionJsonPath, loopedBeanIndex, loopItemName).set(loopedBeanIndex, item);
+                data.remove(loopItemName);
+            }
+        }
+
+        /**
+         * @return true if the loop breaker text was matched (and consumed), false if the document was left untouched.
+         */
+        private boolean isLoopBreakerMatched(DocumentCursor document) throws IOException {
+            if (loopBreakerTextToMatch.length() == 0) {
+                return false;
+            }
+
+            document.mark();
+
+            for (int i = 0; i < loopBreakerTextToMatch.length(); i++) {
+                int docChar = document.read();
+
+                if (docChar == -1) {
+                    // we reached the end of the document before the end of the loop text;
+                    // This means that it's a critical failure since we shouldn't end the document before matching the rest of the template
+                    throw new JebtParseException(
+                            "Reached the end of the document before we could find the loop breaker text: '"
+                                    + loopBreakerTextToMatch + "'");
+                }
+
+                if (docChar != loopBreakerTextToMatch.charAt(i)) {
+                    // No match!
+                    document.reset();
+                    return false;
+                }
+            }
+
+            document.unmark();
+            return true;
+        }
+    }
+
+    /**
+     * Reads the document, and allows to go back to a marked position (used to try matching loop breakers).
+     */
+    private static abstract class DocumentCursor {
+
+        abstract int read() throws IOException;
+
+        abstract boolean hasNext() throws IOException;
+
+        abstract void mark();
+
+        abstract void reset();
+
+        abstract void unmark();
+
+        abstract long getOffset();
+    }
+
+    /**
+     * Cursor over a document in memory.
+     */
+    private static class CharSequenceCursor extends DocumentCursor {
+
+        private final CharSequence text;
+
+        private int position = 0;
+
+        private int markPosition = -1;
+
+        CharSequenceCursor(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override int read() {
+            return position < text.length() ? text.charAt(position++) : -1;
+        }
+
+        @Override boolean hasNext() {
+            return position < text.length();
+        }
+
+        @Override void mark() {
+            markPosition = position;
+        }
+
+        @Override void reset() {
+            position = markPosition;
+            markPosition = -1;
+        }
+
+        @Override void unmark() {
+            markPosition = -1;
+        }
+
+        @Override long getOffset() {
+            return position;
+        }
+    }
+
+    /**
+     * Cursor reading the document through a buffer, which only keeps the marked characters.
+     */
+    private static class ReaderCursor extends DocumentCursor {
+
+        private final Reader reader;
+
+        private char[] buffer = new char[8192];
+
+        private int position = 0;
+
+        private int limit = 0;
+
+        private int markPosition = -1;
+
+        // Number of characters of the document discarded from the buffer so far.
+        private long discarded = 0;
+
+        private boolean isEndReached = false;
+
+        ReaderCursor(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override int read() throws IOException {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            return buffer[position++];
+        }
+
+        @Override boolean hasNext() throws IOException {
+            return position < limit || fill();
+        }
+
+        @Override void mark() {
+            markPosition = position;
+        }
+
+        @Override void reset() {
+            position = markPosition;
+            markPosition = -1;
+        }
+
+        @Override void unmark() {
+            markPosition = -1;
+        }
+
+        @Override long getOffset() {
+            return discarded + position;
+        }
+
+        private boolean fill() throws IOException {
+            if (isEndReached) {
+                return false;
+            }
+
+            // We keep the marked characters, and discard everything else.
+            int keptFrom = markPosition >= 0 ? markPosition : position;
+            if (keptFrom > 0) {
+                System.arraycopy(buffer, keptFrom, buffer, 0, limit - keptFrom);
+                discarded += keptFrom;
+                limit -= keptFrom;
+                position -= keptFrom;
+                if (markPosition >= 0) {
+                    markPosition = 0;
+                }
+            }
+            if (limit == buffer.length) {
+                char[] newBuffer = new char[buffer.length * 2];
+                System.arraycopy(buffer, 0, newBuffer, 0, limit);
+                buffer = newBuffer;
+            }
+
+            int n;
+            do {
+                n = reader.read(buffer, limit, buffer.length - limit);
+            } while (n == 0);
+
+            if (n == -1) {
+                isEndReached = true;
+                return false;
+            }
+
+            limit += n;
+            return true;
+        }
+    }
+}
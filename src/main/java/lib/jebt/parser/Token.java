@@ -23,21 +23,27 @@ public class Token {
     }
 
     public Token(Cell cell) {
+        this.type = getCellTokenType(cell);
+        this.cell = cell;
+    }
 
+    /**
+     * @return the type of the Token that would be created for the cell: NEW_BLANK_CELL, NEW_TEXT_CELL or NEW_NON_TEXT_CELL.
+     */
+    public static TokenType getCellTokenType(Cell cell) {
         if (cell == null) {
-            this.type = TokenType.NEW_BLANK_CELL;
+            return TokenType.NEW_BLANK_CELL;
         } else if (cell.getCellTypeEnum() == CellType.STRING) {
             if (cell.getStringCellValue() == null || "".equals(cell.getStringCellValue())) {
-                this.type = TokenType.NEW_BLANK_CELL;
+                return TokenType.NEW_BLANK_CELL;
             } else {
-                this.type = TokenType.NEW_TEXT_CELL;
+                return TokenType.NEW_TEXT_CELL;
             }
         } else if (cell.getCellTypeEnum() == CellType.BLANK) {
-            this.type = TokenType.NEW_BLANK_CELL;
+            return TokenType.NEW_BLANK_CELL;
         } else {
-            this.type = TokenType.NEW_NON_TEXT_CELL;
+            return TokenType.NEW_NON_TEXT_CELL;
         }
-        this.cell = cell;
     }
 
     // USed only by EOD.
@@ -62,6 +68,13 @@ public class Token {
         return cell;
     }
 
+    /**
+     * @return the text of a NEW_TEXT_CELL token: the value of its cell, or its text for templates loaded without POI (see {@link XlsxTemplateSheet}).
+     */
+    public String getCellText() {
+        return cell != null ? cell.getStringCellValue() : text;
+    }
+
     public enum TokenType {TEXT, EXPRESSION, LOOP,
         NEW_BLANK_CELL, // Blank cells are either BLANK cell type, or String cells with empty content.
         NEW_BLANK_ROW, // Blank row can contain some blank cells. They will then be ignored and not returned as tokens.
@@ -0,0 +1,24 @@
+package lib.jebt.parser;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Returns tokens read beforehand (e.g. the inner tokens of a loop, or a whole template tokenized once), then EOD.
+ * The list isn't modified, so it can be shared by any number of tokenizers.
+ */
+public class TokenListTokenizer implements JebtTokenizer {
+
+    private final Iterator<Token> tokens;
+
+    /**
+     * @param tokens the tokens to return, without EOD.
+     */
+    public TokenListTokenizer(List<Token> tokens) {
+        this.tokens = tokens.iterator();
+    }
+
+    @Override public Token readNext() {
+        return tokens.hasNext() ? tokens.next() : Token.EOD;
+    }
+}
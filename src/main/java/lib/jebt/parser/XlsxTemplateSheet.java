@@ -0,0 +1,35 @@
+package lib.jebt.parser;
+
+/**
+ * The cells of an XLSX template sheet, as read by {@link JebtXlsxTokenizer}. Row and column indexes are 0-based.
+ * <p>
+ * POI sheets are wrapped by the tokenizer itself; templates can also be loaded without POI (see {@link lib.jebt.xlsx.XlsxTemplate}).
+ * </p>
+ */
+public interface XlsxTemplateSheet {
+
+    /**
+     * @return the index of the last row, 0 if the sheet has no row (just like {@link org.apache.poi.ss.usermodel.Sheet#getLastRowNum()}).
+     */
+    int getLastRowNum();
+
+    /**
+     * @return the index of the last cell of the row plus one, -1 if the row doesn't exist or has no cell (just like {@link org.apache.poi.ss.usermodel.Row#getLastCellNum()}).
+     */
+    int getLastCellNum(int rowIndex);
+
+    /**
+     * @return a new NEW_BLANK_CELL, NEW_TEXT_CELL or NEW_NON_TEXT_CELL token for the cell, NEW_BLANK_CELL if there's no such cell.
+     */
+    Token createCellToken(int rowIndex, int columnIndex);
+
+    /**
+     * @return the text of the comment of the cell, or null if there's no such cell or it has no comment.
+     */
+    String getComment(int rowIndex, int columnIndex);
+
+    /**
+     * Replaces the text of the existing comment of the cell.
+     */
+    void setComment(int rowIndex, int columnIndex, String comment);
+}
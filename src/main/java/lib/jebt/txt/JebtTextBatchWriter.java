@@ -0,0 +1,57 @@
+package lib.jebt.txt;
+
+import lib.jebt.JebtBatchWriter;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JebtWriterTextProcessor;
+import lib.jebt.parser.Token;
+import lib.jebt.parser.TokenListTokenizer;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fills many text documents from one template concurrently, see {@link JebtBatchWriter}.
+ * The template is tokenized once, and kept in memory.
+ */
+public class JebtTextBatchWriter extends JebtBatchWriter<Writer> {
+
+    private final JebtWriterTextProcessor textWriterProcessor = new JebtWriterTextProcessor();
+
+    private final List<Token> templateTokens;
+
+    /**
+     * @param templateReader the template, read when the batch writer is created. It's not closed.
+     */
+    public JebtTextBatchWriter(Reader templateReader, int parallelism) {
+        this(templateReader, parallelism, false);
+    }
+
+    /**
+     * @param templateReader the template, read when the batch writer is created. It's not closed.
+     */
+    public JebtTextBatchWriter(Reader templateReader, int parallelism, boolean virtualThreads) {
+        super(parallelism, virtualThreads);
+
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.TOKENIZE, null, -1);
+        List<Token> tokens = new ArrayList<>();
+        JebtTextTokenizer tokenizer = new JebtTextTokenizer(templateReader);
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            tokens.add(token);
+        }
+        this.templateTokens = Collections.unmodifiableList(tokens);
+        timer.stop(-1);
+    }
+
+    @Override protected void write(Map data, Writer output) {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.FILL, null, -1);
+        textWriterProcessor.convertString(new TokenListTokenizer(templateTokens), output, data);
+        timer.stop(-1);
+    }
+}
@@ -1,10 +1,16 @@
 package lib.jebt.txt;
 
 import lib.jebt.BaseJebtReader;
+import lib.jebt.JebtRecordSink;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.JsonPathProjection;
 import org.apache.poi.util.IOUtils;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Simple Implementation of {@link JebtTextReader} for plain old text.
@@ -19,6 +25,9 @@ public class JebtTextReader extends BaseJebtReader {
 
     private File documentFile;
 
+    // When set, files are read with this charset, and the document is memory-mapped instead of read through a FileReader.
+    private Charset charset;
+
     // We only instantiate readers at the last moment on read operation
     boolean shouldCreateReadersOnRun = false;
 
@@ -26,12 +35,19 @@ public class JebtTextReader extends BaseJebtReader {
 
         try {
 
-            if (shouldCreateReadersOnRun) {
+            if (shouldCreateReadersOnRun && charset != null) {
+                templateReader = new BufferedReader(new InputStreamReader(new FileInputStream(templateFile), charset));
+                documentReader = new MappedFileReader(documentFile, charset);
+            } else if (shouldCreateReadersOnRun) {
                 templateReader = new BufferedReader(new FileReader(templateFile));
                 documentReader = new BufferedReader(new FileReader(documentFile));
             }
 
-            return extractData(templateReader, documentReader);
+            // The template is compiled as the document is read, so both are part of the same phase.
+            PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.EXTRACT, null, -1);
+            Map data = extractData(templateReader, documentReader);
+            timer.stop(-1);
+            return data;
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -52,6 +68,22 @@ public class JebtTextReader extends BaseJebtReader {
         this.documentReader = documentReader;
     }
 
+    /**
+     * @param projection the JSON paths to extract (see {@link JsonPathProjection}), other expressions being matched but never stored.
+     */
+    public JebtTextReader(Reader templateReader, Reader documentReader, Set<String> projection) {
+        this(templateReader, documentReader);
+        this.projection = new JsonPathProjection(projection);
+    }
+
+    /**
+     * @param recordSink receives the records of the top-level loops of the template as soon as they're read. They're not stored in the returned data.
+     */
+    public JebtTextReader(Reader templateReader, Reader documentReader, JebtRecordSink recordSink) {
+        this(templateReader, documentReader);
+        this.recordSink = recordSink;
+    }
+
     public JebtTextReader(String templateFilePath, String documentFilePath) {
         this(new File(templateFilePath), new File(documentFilePath));
     }
@@ -61,4 +93,25 @@ public class JebtTextReader extends BaseJebtReader {
         this.documentFile = documentFile;
         shouldCreateReadersOnRun = true;
     }
+
+    public JebtTextReader(String templateFilePath, String documentFilePath, Charset charset) {
+        this(new File(templateFilePath), new File(documentFilePath), charset);
+    }
+
+    /**
+     * Files will be decoded with the passed charset instead of the platform default one.
+     * The document file is memory-mapped (see {@link MappedFileReader}), which is much faster on large documents.
+     */
+    public JebtTextReader(File templateFile, File documentFile, Charset charset) {
+        this(templateFile, documentFile);
+        this.charset = charset;
+    }
+
+    /**
+     * @param projection the JSON paths to extract (see {@link JsonPathProjection}), other expressions being matched but never stored.
+     */
+    public JebtTextReader(File templateFile, File documentFile, Charset charset, Set<String> projection) {
+        this(templateFile, documentFile, charset);
+        this.projection = new JsonPathProjection(projection);
+    }
 }
@@ -2,6 +2,8 @@ package lib.jebt.txt;
 
 import lib.jebt.BaseJebtWriter;
 import lib.jebt.JebtWriter;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
 import org.apache.poi.util.IOUtils;
 
 import java.io.*;
@@ -31,7 +33,9 @@ public class JebtTextWriter extends BaseJebtWriter {
                 outputWriter = new BufferedWriter(new FileWriter(outputFile));
             }
 
+            PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.FILL, null, -1);
             convertString(templateReader, outputWriter, data);
+            timer.stop(-1);
 
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,174 @@
+package lib.jebt.txt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * {@link Reader} over a file mapped in memory with {@link FileChannel#map}, decoded with an explicit {@link Charset}.
+ * The file is mapped window by window (so that files larger than 2GB can be read too), and decoded into one reusable {@link CharBuffer}.
+ * For UTF-8 and US-ASCII files, plain ASCII bytes are copied directly, only non-ASCII sequences go through the {@link CharsetDecoder}.
+ * Malformed or unmappable input is replaced, just like {@link java.io.InputStreamReader} does.
+ */
+public class MappedFileReader extends Reader {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private static final int CHAR_BUFFER_SIZE = 8192;
+
+    // When fewer bytes than that are left in the window, we move the window forward so that no encoded character is cut in half.
+    private static final int MAX_BYTES_PER_SEQUENCE = 16;
+
+    private final FileChannel channel;
+
+    private final long fileSize;
+
+    private final int windowSize;
+
+    private final CharsetDecoder decoder;
+
+    private final boolean isAsciiCompatible;
+
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    private MappedByteBuffer window;
+
+    // Position of the window start in the file.
+    private long windowPosition = 0;
+
+    private boolean isDecoderFlushed = false;
+
+    public MappedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileReader(File file, Charset charset, int windowSize) throws IOException {
+        if (windowSize < MAX_BYTES_PER_SEQUENCE) {
+            throw new IllegalArgumentException("Window size should be at least " + MAX_BYTES_PER_SEQUENCE + " bytes");
+        }
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            this.fileSize = channel.size();
+            this.windowSize = windowSize;
+            this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            String charsetName = charset.name();
+            this.isAsciiCompatible = "UTF-8".equals(charsetName) || "US-ASCII".equals(charsetName);
+
+            mapWindow(0);
+        } catch (IOException | RuntimeException e) {
+            // The reader won't be returned, so nobody else can close the file.
+            try {
+                channel.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+        // Nothing to read yet.
+        chars.flip();
+    }
+
+    @Override public int read() throws IOException {
+        if (!chars.hasRemaining() && fill() == 0) {
+            return -1;
+        }
+        return chars.get();
+    }
+
+    @Override public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!chars.hasRemaining() && fill() == 0) {
+            return -1;
+        }
+        int n = Math.min(len, chars.remaining());
+        chars.get(cbuf, off, n);
+        return n;
+    }
+
+    @Override public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void mapWindow(long position) throws IOException {
+        windowPosition = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, fileSize - position));
+    }
+
+    private boolean isLastWindow() {
+        return windowPosition + window.limit() >= fileSize;
+    }
+
+    /**
+     * Decodes the next characters in the char buffer.
+     * @return the number of characters available, 0 if we reached the end of the file.
+     */
+    private int fill() throws IOException {
+        if (window == null) {
+            throw new IOException("Reader is closed");
+        }
+
+        chars.clear();
+
+        while (chars.hasRemaining() && !isDecoderFlushed) {
+            if (window.remaining() < MAX_BYTES_PER_SEQUENCE && !isLastWindow()) {
+                mapWindow(windowPosition + window.position());
+            }
+
+            if (isAsciiCompatible) {
+                copyAsciiBytes();
+                if (!chars.hasRemaining()) {
+                    break;
+                }
+            }
+
+            boolean isEndOfInput = isLastWindow();
+            CoderResult result = decoder.decode(window, chars, isEndOfInput);
+            if (result.isOverflow()) {
+                break;
+            }
+
+            if (isEndOfInput && !window.hasRemaining()) {
+                decoder.flush(chars);
+                isDecoderFlushed = true;
+            }
+        }
+
+        chars.flip();
+        return chars.remaining();
+    }
+
+    /**
+     * Fast path: ASCII bytes are the same in UTF-8 and US-ASCII, so we copy them until we find a non-ASCII byte.
+     */
+    private void copyAsciiBytes() {
+        char[] array = chars.array();
+        int charOffset = chars.arrayOffset() + chars.position();
+        int bytePosition = window.position();
+        int n = Math.min(window.remaining(), chars.remaining());
+
+        int i = 0;
+        while (i < n) {
+            byte b = window.get(bytePosition + i);
+            if (b < 0) {
+                break;
+            }
+            array[charOffset + i] = (char)b;
+            ++i;
+        }
+
+        window.position(bytePosition + i);
+        chars.position(chars.position() + i);
+    }
+}
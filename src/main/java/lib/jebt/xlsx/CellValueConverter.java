@@ -0,0 +1,145 @@
+package lib.jebt.xlsx;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+
+import java.util.Arrays;
+
+/**
+ * Converts document cell values to the text matched against the template.
+ * <p>
+ * Whether a number is a date only depends on its cell style, so each style index is classified once and the decision is cached.
+ * Dates are formatted with a shared, thread-safe {@link FastDateFormat}. Other numbers are formatted with their number format.
+ * A converter isn't thread-safe itself (its cache and {@link DataFormatter} aren't), each sheet source should have its own.
+ * </p>
+ */
+class CellValueConverter {
+
+    static final String DEFAULT_DATE_PATTERN = "dd/MM/yyyy";
+
+    private static final byte UNKNOWN = 0;
+
+    private static final byte DATE = 1;
+
+    private static final byte NUMBER = 2;
+
+    private final FastDateFormat dateFormat;
+
+    // Used to read styles by index when converting XML values, null for POI cells.
+    private final StylesTable styles;
+
+    private final boolean use1904Dates;
+
+    private final DataFormatter dataFormatter = new DataFormatter();
+
+    // Classification, number format index and number format String of each style index.
+    private byte[] styleKinds = new byte[16];
+
+    private short[] formatIndexes = new short[16];
+
+    private String[] formatStrings = new String[16];
+
+    /**
+     * Converter for POI cells.
+     */
+    CellValueConverter(String datePattern) {
+        this(datePattern, null, false);
+    }
+
+    /**
+     * Converter for values read from the sheet XML, with the document styles (which can be null if the document has none).
+     */
+    CellValueConverter(String datePattern, StylesTable styles, boolean use1904Dates) {
+        this.dateFormat = FastDateFormat.getInstance(datePattern);
+        this.styles = styles;
+        this.use1904Dates = use1904Dates;
+    }
+
+    /**
+     * @return the text of a POI cell.
+     */
+    String toString(Cell cell) {
+        String strCellValue = "";
+        if (cell != null) {
+            if (cell.getCellTypeEnum() == CellType.STRING) {
+                strCellValue = cell.getStringCellValue();
+            } else if (cell.getCellTypeEnum() == CellType.NUMERIC) {
+                if (isDate(cell.getCellStyle()) && DateUtil.isValidExcelDate(cell.getNumericCellValue())) {
+                    strCellValue = dateFormat.format(cell.getDateCellValue());
+                } else {
+                    // Double value = cell.getNumericCellValue(); // Doing so will turn integer into double by adding .0 at the end, we don't want that.
+                    strCellValue = cell.getStringCellValue();
+                }
+            } else if (cell.getCellTypeEnum() == CellType.BOOLEAN) {
+                strCellValue = Boolean.toString(cell.getBooleanCellValue());
+            } else if (cell.getCellTypeEnum() == CellType.BLANK) {
+                strCellValue = "";
+            } else if (cell.getCellTypeEnum() == CellType.FORMULA) {
+                strCellValue = cell.getCellFormula();
+            }
+        }
+
+        return strCellValue;
+    }
+
+    /**
+     * @param contents the raw value of a number cell in the sheet XML.
+     * @param styleIndex the index of the cell style, or -1 if the cell has none.
+     * @return the text of the number.
+     */
+    String formatNumber(String contents, int styleIndex) {
+        if (contents.isEmpty()) {
+            return contents;
+        }
+
+        // Cells without style use the default one.
+        int index = styleIndex < 0 ? 0 : styleIndex;
+        if (index >= styleKinds.length || styleKinds[index] == UNKNOWN) {
+            XSSFCellStyle cellStyle = styles == null ? null : styles.getStyleAt(index);
+            if (cellStyle == null) {
+                classify(index, (short)0, null);
+            } else {
+                classify(index, cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+            }
+        }
+
+        double value = Double.parseDouble(contents);
+        if (styleKinds[index] == DATE && DateUtil.isValidExcelDate(value)) {
+            return dateFormat.format(DateUtil.getJavaDate(value, use1904Dates));
+        }
+
+        String formatString = formatStrings[index];
+        return formatString == null ? contents : dataFormatter.formatRawCellContents(value, formatIndexes[index], formatString);
+    }
+
+    private boolean isDate(CellStyle cellStyle) {
+        if (cellStyle == null) {
+            return false;
+        }
+
+        int index = cellStyle.getIndex();
+        if (index >= styleKinds.length || styleKinds[index] == UNKNOWN) {
+            classify(index, cellStyle.getDataFormat(), cellStyle.getDataFormatString());
+        }
+        return styleKinds[index] == DATE;
+    }
+
+    private void classify(int styleIndex, short formatIndex, String formatString) {
+        if (styleIndex >= styleKinds.length) {
+            int newLength = Math.max(styleKinds.length * 2, styleIndex + 1);
+            styleKinds = Arrays.copyOf(styleKinds, newLength);
+            formatIndexes = Arrays.copyOf(formatIndexes, newLength);
+            formatStrings = Arrays.copyOf(formatStrings, newLength);
+        }
+
+        if (formatString == null) {
+            formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+        }
+
+        styleKinds[styleIndex] = DateUtil.isADateFormat(formatIndex, formatString) ? DATE : NUMBER;
+        formatIndexes[styleIndex] = formatIndex;
+        formatStrings[styleIndex] = formatString;
+    }
+}
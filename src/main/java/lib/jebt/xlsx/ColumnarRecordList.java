@@ -0,0 +1,492 @@
+package lib.jebt.xlsx;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Records of a main loop read from an XLSX document, stored by column instead of as one Map per record:
+ * Long and Double values in long arrays, Boolean values in a bit set, Strings as indexes in a dictionary, and anything else (nested Maps and Lists) as is.
+ * A column mixing Long and Double values keeps them in its long array, with a bit set of the Double ones.
+ * It falls back to storing its values as is when they're not all of the same type otherwise.
+ * <p>
+ * It's a List of Maps like the collections read otherwise. Its records are read-only views on the columns, created when they're accessed,
+ * with their keys in the order they were first found. The first change made to the list or to one of its records materializes it:
+ * every record then becomes a LinkedHashMap, and columns are dropped.
+ * </p>
+ * It's not thread-safe.
+ */
+public class ColumnarRecordList extends AbstractList<Map> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Columns by key, in the order keys were first found. Null once materialized.
+    private Map<Object, Column> columns = new LinkedHashMap<>();
+
+    private int size = 0;
+
+    // Records, once materialized.
+    private List<Map> rows;
+
+    /**
+     * Appends a record, copying its values into the columns. The record can be reused afterwards.
+     */
+    void addRecord(Map record) {
+        if (rows != null) {
+            rows.add(new LinkedHashMap(record));
+        } else {
+            for (Object o : record.entrySet()) {
+                Map.Entry entry = (Map.Entry)o;
+                Column column = columns.get(entry.getKey());
+                if (column == null) {
+                    column = new Column();
+                    columns.put(entry.getKey(), column);
+                }
+                column.set(size, entry.getValue());
+            }
+            size++;
+        }
+        modCount++;
+    }
+
+    /**
+     * @return false once the list or one of its records was changed, and every record became a LinkedHashMap.
+     */
+    public boolean isColumnar() {
+        return rows == null;
+    }
+
+    /**
+     * Turns every record into a LinkedHashMap, as done on the first change. Records already returned then read and write their LinkedHashMap.
+     */
+    public void materialize() {
+        if (rows != null) {
+            return;
+        }
+        List<Map> materializedRows = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map row = new LinkedHashMap();
+            for (Map.Entry<Object, Column> column : columns.entrySet()) {
+                if (column.getValue().isPresent(i)) {
+                    row.put(column.getKey(), column.getValue().get(i));
+                }
+            }
+            materializedRows.add(row);
+        }
+        rows = materializedRows;
+        columns = null;
+    }
+
+    /**
+     * @return the keys found in records, in the order they were first found, or an empty Set once materialized.
+     */
+    public Set<Object> getKeys() {
+        return rows != null ? Collections.<Object>emptySet() : Collections.unmodifiableSet(columns.keySet());
+    }
+
+    /**
+     * Reads a Long value without boxing it.
+     *
+     * @return the value, or 0 if the record doesn't have it.
+     * @throws IllegalStateException if values of the key aren't all Longs, or the list was materialized.
+     */
+    public long getLong(Object key, int index) {
+        Column column = getColumn(key, Column.LONG, index);
+        return column != null && column.hasValue(index) ? column.longs[index] : 0;
+    }
+
+    /**
+     * Same as {@link #getLong(Object, int)}, for Double values.
+     */
+    public double getDouble(Object key, int index) {
+        Column column = getColumn(key, Column.DOUBLE, index);
+        return column != null && column.hasValue(index) ? Double.longBitsToDouble(column.longs[index]) : 0;
+    }
+
+    /**
+     * Same as {@link #getLong(Object, int)}, for Boolean values.
+     */
+    public boolean getBoolean(Object key, int index) {
+        Column column = getColumn(key, Column.BOOLEAN, index);
+        return column != null && column.hasValue(index) && column.booleans.get(index);
+    }
+
+    /**
+     * @return the column of the key, null if no record has it.
+     */
+    private Column getColumn(Object key, byte type, int index) {
+        if (rows != null) {
+            throw new IllegalStateException("Records were materialized");
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Column column = columns.get(key);
+        if (column != null && column.type != type && column.type != Column.NONE) {
+            throw new IllegalStateException("Values of " + key + " aren't all of the expected type");
+        }
+        return column;
+    }
+
+    @Override public Map get(int index) {
+        if (rows != null) {
+            return rows.get(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new RecordView(index);
+    }
+
+    @Override public int size() {
+        return rows != null ? rows.size() : size;
+    }
+
+    @Override public Map set(int index, Map record) {
+        materialize();
+        return rows.set(index, record);
+    }
+
+    @Override public void add(int index, Map record) {
+        materialize();
+        rows.add(index, record);
+        modCount++;
+    }
+
+    @Override public Map remove(int index) {
+        materialize();
+        modCount++;
+        return rows.remove(index);
+    }
+
+    /**
+     * The values of one key, for all records.
+     */
+    private static class Column {
+
+        // NUMBER is for columns mixing LONG and DOUBLE values.
+        private static final byte NONE = 0, LONG = 1, DOUBLE = 2, NUMBER = 3, BOOLEAN = 4, STRING = 5, OBJECT = 6;
+
+        // Distinct Strings kept in a dictionary, past which it's dropped if most Strings are distinct.
+        private static final int MAX_DICTIONARY_SIZE = 4096;
+
+        // Type of all non-null values, NONE until the first one is set.
+        private byte type = NONE;
+
+        // Records having the key, and the ones having it with a null value.
+        private final BitSet present = new BitSet();
+
+        private final BitSet nulls = new BitSet();
+
+        // LONG values, or DOUBLE values raw bits.
+        private long[] longs;
+
+        // For NUMBER columns, the records whose value in longs is a DOUBLE.
+        private BitSet doubles;
+
+        private BitSet booleans;
+
+        // STRING values, as their indexes in the dictionary.
+        private int[] codes;
+
+        private List<String> dictionary;
+
+        private Map<String, Integer> dictionaryIndexes;
+
+        private Object[] objects;
+
+        // Index of the last record set, plus one.
+        private int count = 0;
+
+        boolean isPresent(int index) {
+            return present.get(index);
+        }
+
+        boolean hasValue(int index) {
+            return present.get(index) && !nulls.get(index);
+        }
+
+        void set(int index, Object value) {
+            if (value == null) {
+                present.set(index);
+                nulls.set(index);
+                count = index + 1;
+                return;
+            }
+
+            byte valueType = typeOf(value);
+            if (type == NONE) {
+                type = valueType;
+            } else if (isNumber(type) && isNumber(valueType)) {
+                if (type != valueType && type != NUMBER) {
+                    toNumbers();
+                }
+            } else if (type != valueType && type != OBJECT) {
+                toObjects();
+            }
+            present.set(index);
+            count = index + 1;
+            ensureCapacity(count, type);
+
+            switch (type) {
+                case LONG:
+                    longs[index] = (Long)value;
+                    break;
+                case DOUBLE:
+                    longs[index] = Double.doubleToRawLongBits((Double)value);
+                    break;
+                case NUMBER:
+                    longs[index] = valueType == DOUBLE ? Double.doubleToRawLongBits((Double)value) : (Long)value;
+                    doubles.set(index, valueType == DOUBLE);
+                    break;
+                case BOOLEAN:
+                    booleans.set(index, (Boolean)value);
+                    break;
+                case STRING:
+                    Integer code = dictionaryIndexes.get(value);
+                    if (code == null) {
+                        if (dictionary.size() >= MAX_DICTIONARY_SIZE && dictionary.size() * 2 > count) {
+                            // Mostly distinct Strings: the dictionary would only cost more.
+                            toObjects();
+                            ensureCapacity(count, type);
+                            objects[index] = value;
+                            break;
+                        }
+                        code = dictionary.size();
+                        dictionary.add((String)value);
+                        dictionaryIndexes.put((String)value, code);
+                    }
+                    codes[index] = code;
+                    break;
+                default:
+                    objects[index] = value;
+                    break;
+            }
+        }
+
+        Object get(int index) {
+            if (!hasValue(index)) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    return longs[index];
+                case DOUBLE:
+                    return Double.longBitsToDouble(longs[index]);
+                case NUMBER:
+                    return doubles.get(index) ? (Object)Double.longBitsToDouble(longs[index]) : (Object)longs[index];
+                case BOOLEAN:
+                    return booleans.get(index);
+                case STRING:
+                    return dictionary.get(codes[index]);
+                default:
+                    return objects[index];
+            }
+        }
+
+        void ensureCapacity(int capacity, byte capacityType) {
+            switch (capacityType) {
+                case LONG:
+                case DOUBLE:
+                case NUMBER:
+                    longs = grow(longs == null ? new long[INITIAL_CAPACITY] : longs, capacity);
+                    break;
+                case BOOLEAN:
+                    if (booleans == null) {
+                        booleans = new BitSet();
+                    }
+                    break;
+                case STRING:
+                    if (codes == null) {
+                        codes = new int[INITIAL_CAPACITY];
+                        dictionary = new ArrayList<>();
+                        dictionaryIndexes = new HashMap<>();
+                    }
+                    if (codes.length < capacity) {
+                        codes = Arrays.copyOf(codes, newCapacity(codes.length, capacity));
+                    }
+                    break;
+                default:
+                    if (objects == null) {
+                        objects = new Object[INITIAL_CAPACITY];
+                    }
+                    if (objects.length < capacity) {
+                        objects = Arrays.copyOf(objects, newCapacity(objects.length, capacity));
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Keeps the LONG or DOUBLE values set so far in longs, marking the DOUBLE ones, for the first value of the other type.
+         */
+        private void toNumbers() {
+            doubles = new BitSet();
+            if (type == DOUBLE) {
+                doubles.or(present);
+                doubles.andNot(nulls);
+            }
+            type = NUMBER;
+        }
+
+        /**
+         * Boxes all values set so far, for values that aren't all of the same type.
+         */
+        private void toObjects() {
+            Object[] values = new Object[Math.max(INITIAL_CAPACITY, count)];
+            for (int i = 0; i < count; i++) {
+                values[i] = get(i);
+            }
+            type = OBJECT;
+            objects = values;
+            longs = null;
+            doubles = null;
+            booleans = null;
+            codes = null;
+            dictionary = null;
+            dictionaryIndexes = null;
+        }
+
+        private static long[] grow(long[] array, int capacity) {
+            return array.length >= capacity ? array : Arrays.copyOf(array, newCapacity(array.length, capacity));
+        }
+
+        private static int newCapacity(int length, int capacity) {
+            return Math.max(capacity, length + (length >> 1));
+        }
+
+        private static boolean isNumber(byte type) {
+            return type == LONG || type == DOUBLE || type == NUMBER;
+        }
+
+        private static byte typeOf(Object value) {
+            if (value instanceof Long) {
+                return LONG;
+            } else if (value instanceof Double) {
+                return DOUBLE;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            } else if (value instanceof String) {
+                return STRING;
+            }
+            return OBJECT;
+        }
+    }
+
+    /**
+     * A record read from the columns, or from its LinkedHashMap once materialized.
+     */
+    private class RecordView extends AbstractMap<Object, Object> {
+
+        private final int index;
+
+        RecordView(int index) {
+            this.index = index;
+        }
+
+        @Override public Set<Entry<Object, Object>> entrySet() {
+            if (rows != null) {
+                return rows.get(index).entrySet();
+            }
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override public Iterator<Entry<Object, Object>> iterator() {
+                    return new EntryIterator(index);
+                }
+
+                @Override public int size() {
+                    int entryCount = 0;
+                    for (Column column : columns.values()) {
+                        if (column.isPresent(index)) {
+                            entryCount++;
+                        }
+                    }
+                    return entryCount;
+                }
+            };
+        }
+
+        @Override public Object get(Object key) {
+            if (rows != null) {
+                return rows.get(index).get(key);
+            }
+            Column column = columns.get(key);
+            return column == null ? null : column.get(index);
+        }
+
+        @Override public boolean containsKey(Object key) {
+            if (rows != null) {
+                return rows.get(index).containsKey(key);
+            }
+            Column column = columns.get(key);
+            return column != null && column.isPresent(index);
+        }
+
+        @Override public Object put(Object key, Object value) {
+            materialize();
+            return rows.get(index).put(key, value);
+        }
+
+        @Override public Object remove(Object key) {
+            materialize();
+            return rows.get(index).remove(key);
+        }
+
+        @Override public void clear() {
+            materialize();
+            rows.get(index).clear();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Object, Object>> {
+
+        private final int index;
+
+        private final Iterator<Map.Entry<Object, Column>> columnIterator = columns.entrySet().iterator();
+
+        private Map.Entry<Object, Object> next;
+
+        EntryIterator(int index) {
+            this.index = index;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && columnIterator.hasNext()) {
+                Map.Entry<Object, Column> column = columnIterator.next();
+                if (column.getValue().isPresent(index)) {
+                    next = new AbstractMap.SimpleImmutableEntry<>(column.getKey(), column.getValue().get(index));
+                }
+            }
+        }
+
+        @Override public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override public Map.Entry<Object, Object> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Object, Object> entry = next;
+            advance();
+            return entry;
+        }
+
+        @Override public void remove() {
+            throw new UnsupportedOperationException("Records are read-only until materialized");
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package lib.jebt.xlsx;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link SharedStringsStore} keeping all the strings in memory, as plain Strings without any formatting.
+ */
+public class InMemorySharedStringsStore implements SharedStringsStore {
+
+    private List<String> strings = new ArrayList<>();
+
+    public void load(InputStream sharedStringsXml) throws IOException {
+        strings.clear();
+
+        StringBuilder buffer = new StringBuilder();
+        try {
+            XMLStreamReader reader = OoxmlText.createXMLStreamReader(sharedStringsXml);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "si".equals(reader.getLocalName())) {
+                        strings.add(OoxmlText.decodeEscapes(OoxmlText.readRichText(reader, buffer)));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read the shared strings table", e);
+        }
+    }
+
+    public String getString(int index) {
+        return strings.get(index);
+    }
+
+    public void close() {
+        strings.clear();
+    }
+}
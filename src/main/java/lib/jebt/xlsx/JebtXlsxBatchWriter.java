@@ -0,0 +1,53 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.JebtBatchWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Fills many XLSX documents from one template concurrently, see {@link JebtBatchWriter}.
+ * The template is loaded once as an {@link XlsxWriteTemplate}, and each document is filled by a {@link JebtXlsxWriter} from its tokens,
+ * on its own copy of the template workbook. The tokens hold the text, values and style index of the template cells,
+ * so documents are filled without going back to the template workbook, whose XML objects aren't safe to read concurrently.
+ */
+public class JebtXlsxBatchWriter extends JebtBatchWriter<OutputStream> {
+
+    private final XlsxWriteTemplate template;
+
+    /**
+     * @param templateIS the template, read when the batch writer is created. It's not closed.
+     */
+    public JebtXlsxBatchWriter(InputStream templateIS, int parallelism) {
+        this(templateIS, parallelism, false);
+    }
+
+    /**
+     * @param templateIS the template, read when the batch writer is created. It's not closed.
+     */
+    public JebtXlsxBatchWriter(InputStream templateIS, int parallelism, boolean virtualThreads) {
+        this(loadTemplate(templateIS), parallelism, virtualThreads);
+    }
+
+    /**
+     * @param template the template, which can also be used by any other writer.
+     */
+    public JebtXlsxBatchWriter(XlsxWriteTemplate template, int parallelism, boolean virtualThreads) {
+        super(parallelism, virtualThreads);
+        this.template = template;
+    }
+
+    private static XlsxWriteTemplate loadTemplate(InputStream templateIS) {
+        try {
+            return XlsxWriteTemplate.load(templateIS);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading template Workbook", e);
+        }
+    }
+
+    @Override protected void write(Map data, OutputStream output) {
+        new JebtXlsxWriter(template, output).writeData(data);
+    }
+}
@@ -2,393 +2,472 @@ package lib.jebt.xlsx;
 
 import com.monitorjbl.xlsx.StreamingReader;
 import lib.jebt.BaseJebtReader;
-import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.JebtRecordSink;
+import lib.jebt.json.JsonRecordWriter;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
 import lib.jebt.parser.JebtXlsxTokenizer;
+import lib.jebt.parser.JsonPathProjection;
 import lib.jebt.parser.ParsingUtils;
 import lib.jebt.parser.Token;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.IOException;
-import java.io.InputStream;
+import javax.xml.stream.XMLStreamException;
+import java.io.*;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Implementation of {@link JebtXlsxReader} for XLSX Excel format.
- * The template XLSX should be small enough fit in memory so it's passed as POI workbook.
+ * The template XLSX should be small enough fit in memory so it's passed as POI workbook, or as {@link XlsxTemplate} which is much lighter to load.
  * The document XLSX can be huge and is passed as an Input Stream so that we can parse it with excel-stream-reader to be memory-efficient and avoid OOME.
+ * It can also be passed as a File (or Path), which is then read in place instead of being copied to a temporary file first.
+ * When a {@link SharedStringsStore} is passed, the document sheets XML is read directly instead, without creating any POI row or cell,
+ * and sheets can be extracted concurrently.
+ * Readers are created with {@link #builder(XSSFWorkbook)} or {@link #builder(XlsxTemplate)}, which set all these options.
  * Calling readData() will NOT close the InputStream at the end, invoking code should do it.
  */
 public class JebtXlsxReader extends BaseJebtReader {
+
+    public static final String DEFAULT_DATE_PATTERN = CellValueConverter.DEFAULT_DATE_PATTERN;
+
     private InputStream documentIS;
 
+    // When set, the document package is opened directly from this file.
+    private File documentFile;
+
+    // Buffer size used to copy the document InputStream to a temporary file.
+    private int bufferSize = 4096;
+
     private XSSFWorkbook templateWorkbook;
 
-    private boolean skipReadNextTemplateToken;
+    // Set instead of the template workbook when the template was loaded without POI.
+    private XlsxTemplate template;
+
+    // When set, the document is read directly from its XML, with text cells looked up in this store.
+    private SharedStringsStore sharedStringsStore;
+
+    // Number of sheets extracted concurrently when reading the document XML directly.
+    private int threadCount = 1;
+
+    // Pattern of dates, as they're matched against the template.
+    private String datePattern = CellValueConverter.DEFAULT_DATE_PATTERN;
 
-    private int loopDepth = 0;
+    private boolean reuseRecords;
 
-    private int rowIndex, columnIndex = -1;
+    // When set, main loop collections are stored by column.
+    private boolean columnarLoops;
 
     public JebtXlsxReader(XSSFWorkbook templateWorkbook, InputStream documentIS) {
         this.templateWorkbook = templateWorkbook;
         this.documentIS = documentIS;
     }
 
-    public Map readData() {
-        Workbook doc = StreamingReader.builder().rowCacheSize(1)    // number of rows to keep in memory (defaults to 10)
-                .bufferSize(4096)     // buffer size to use when reading InputStream to file (defaults to 1024)
-                .open(documentIS);
-
-        Map data = new LinkedHashMap();
-
-        int i = 0;
-        for (Sheet docSheet : doc) {
-            if (templateWorkbook.getNumberOfSheets() < i + 1) {
-                break;
-            }
-
-            XSSFSheet templateSheet = templateWorkbook.getSheetAt(i);
+    private JebtXlsxReader(Builder builder) {
+        this.templateWorkbook = builder.templateWorkbook;
+        this.template = builder.template;
+        this.documentIS = builder.documentIS;
+        this.documentFile = builder.documentFile;
+        this.bufferSize = builder.bufferSize;
+        this.sharedStringsStore = builder.sharedStringsStore;
+        this.threadCount = builder.threadCount;
+        this.datePattern = builder.datePattern;
+        this.recordSink = builder.recordSink;
+        this.reuseRecords = builder.reuseRecords;
+        this.projection = builder.projection == null ? null : new JsonPathProjection(builder.projection);
+        this.columnarLoops = builder.columnarLoops;
+    }
 
-            JebtXlsxTokenizer tokenizer = new JebtXlsxTokenizer(templateSheet);
+    /**
+     * @return a builder of readers with any other option, e.g.
+     * <code>JebtXlsxReader.builder(template).document(file).sharedStringsStore(new InMemorySharedStringsStore()).threadCount(4).build()</code>
+     */
+    public static Builder builder(XSSFWorkbook templateWorkbook) {
+        return new Builder(templateWorkbook, null);
+    }
 
-            // We must not forget to read from Sheet name as it can also contain tokens.
-            try {
-                extractData(templateSheet.getSheetName(), docSheet.getSheetName(), data);
-            } catch (Exception e) {
-                // But if end users modified sheet name and broke matching, we don't care too much.
-            }
+    public static Builder builder(XlsxTemplate template) {
+        return new Builder(null, template);
+    }
 
-            extractData(tokenizer, new SheetReader(docSheet), data);
+    public Map readData() {
+        Map data = new LinkedHashMap();
 
-            ++i;
+        if (sharedStringsStore != null) {
+            readDocumentXml(data);
+        } else {
+            readStreamingWorkbook(data);
         }
 
         return data;
 
     }
 
-    private void extractData(JebtXlsxTokenizer templateTokenizer, SheetReader docSheetReader, Map data) {
-        skipReadNextTemplateToken = false;
+    private void readStreamingWorkbook(Map data) {
+        StreamingReader.Builder builder = StreamingReader.builder().rowCacheSize(1)    // number of rows to keep in memory (defaults to 10)
+                .bufferSize(bufferSize);     // buffer size to use when reading InputStream to file (defaults to 1024)
+        Workbook doc = documentFile != null ? builder.open(documentFile) : builder.open(documentIS);
+
+        try {
+            int i = 0;
+            for (Sheet docSheet : doc) {
+                if (getNumberOfTemplateSheets() < i + 1) {
+                    break;
+                }
 
-        Token templateToken = null;
+                SheetReader docSheetReader = new SheetReader(new PoiSheetSource(docSheet, new CellValueConverter(datePattern)));
+                extractSheetData(i, tokenize(i), docSheet.getSheetName(), docSheetReader, data);
 
-        while ((skipReadNextTemplateToken && templateToken != Token.EOD)
-                || (templateToken = templateTokenizer.readNext()) != Token.EOD) {
-            boolean shouldBreak = processSingleToken(templateToken, docSheetReader, data);
-            if (shouldBreak || templateToken == Token.EOD) {
-                break;
+                ++i;
             }
+        } finally {
+            // Releases the document file (and deletes the temporary copy of the InputStream), without writing anything.
+            IOUtils.closeQuietly(doc);
         }
-
     }
 
-    private boolean processSingleToken(Token templateToken, SheetReader docSheetReader, Map data) {
-
-        Token docToken;
-
-        switch (templateToken.getType()) {
-            case END_OF_DOCUMENT:
-                // We reached the end of the template, so we stop even if there's extra data in the document Sheet. It'll be ignored.
-                return true;
-            case NEW_ROW:
-            case NEW_BLANK_ROW:
-                ++rowIndex;
-                columnIndex = -1;
-                // Should have same thing in document.
-                docToken = docSheetReader.readNext();
-                if (docToken.getType() != templateToken.getType()) {
-                    throwError("Expected a New [BLANK] Row in the document but found a " + docToken.getType());
-                }
-                return false;
-            case NEW_NON_TEXT_CELL:
-                ++columnIndex;
-                // Should have same cell in document as non-text cell cannot contain expressions
-                docToken = docSheetReader.readNext();
-                if (docToken.getType() != Token.TokenType.NEW_NON_TEXT_CELL) {
-                    throwError(
-                            "Expected a non-text cell in the document but found a " + docToken.getType());
-                }
-                // We should also check that the contents are identical, but to be honest, we don't really care...
-                return false;
-            case NEW_BLANK_CELL:
-                ++columnIndex;
-                // Should also have a blank cell in document
-                docToken = docSheetReader.readNext();
-                if (docToken.getType() != Token.TokenType.NEW_BLANK_CELL) {
-                    throwError(
-                            "Expected a BLANK cell in the document but found a " + docToken.getType());
-                }
-                // We should also check that the contents are identical, but to be honest, we don't really care...
-                return false;
-            case NEW_TEXT_CELL:
-                ++columnIndex;
-                // Contents of the cells are considered as text and evaluated accordingly.
-                docToken = docSheetReader.readNext();
-
-                if (docToken.getType() != Token.TokenType.NEW_TEXT_CELL && docToken.getType() != Token.TokenType.NEW_NON_TEXT_CELL && docToken.getType() != Token.TokenType.NEW_BLANK_CELL) {
-                    throwError(
-                            "Expected a CELL in the document but found a " + docToken.getType());
-                }
+    private void readDocumentXml(Map data) {
+        File tempFile = null;
+        OPCPackage documentPackage = null;
 
-                String  docStr  = "";
-                if (docToken.getCell() != null) {
-                    docStr = getCellValueAsString(docToken.getCell());
+        try {
+            File packageFile = documentFile;
+            if (packageFile == null) {
+                // Just like excel-streaming-reader, the document is copied to a temporary file so that the package isn't loaded in memory.
+                tempFile = File.createTempFile("jebt", ".xlsx");
+                OutputStream documentOS = new BufferedOutputStream(new FileOutputStream(tempFile), bufferSize);
+                try {
+                    IOUtils.copy(documentIS, documentOS);
+                } finally {
+                    documentOS.close();
                 }
-                extractData(templateToken.getCell().getStringCellValue(), docStr, data);
-                return false;
-            case LOOP:
-                // We try to map the loop inner tokens with the document tokens; every time we have a match, we record a loop.
-                JebtTextTokenizer.LoopToken loopToken = (JebtTextTokenizer.LoopToken)templateToken;
-
-                List<Token> innerTokens = loopToken.getLoopTokens();
-
-                // We initialize the list here in order to have an empty JSONArray in our object even if the loop doesn't match anything in the document.
-                // It's better than not having the JSONArray key appear in the generated JSON.
-                ParsingUtils.initCollection(data, loopToken.getCollectionJsonPath(), -1, loopToken.getLoopItemName());
-
-                int loopedBeanIndex = 0;
-
-                boolean isFirst = true;
-
-                ++loopDepth;
-
-                if (loopDepth == 1) {
-                    // main loop, can contain new rows
-                    boolean matched = false;
-                    List<Token> loopMatchCandidates = null;
-                    do {
-                        Token rowSeparator = null;
-
-                        if (isFirst) {
-                            isFirst = false;
-                        } else {
-                            // There's a new Row between each loop match, so we'll read it first.
-                            rowSeparator = docSheetReader.readNext();
-                        }
-
-                        loopMatchCandidates = getLoopPotentialMatchingTokens(innerTokens, docSheetReader);
-
-                        if (loopMatchCandidates != null && isMatch(innerTokens, loopMatchCandidates)) {
-                            matched = true;
-                            applyLoopMatch(loopToken, loopMatchCandidates, data, loopedBeanIndex);
-                            ++loopedBeanIndex;
-                        } else {
-                            // Not a match, let's pretend nothing happened and move on.
-                            matched = false;
-                            if (loopMatchCandidates != null) {
-                                docSheetReader.reinjectTokens(loopMatchCandidates);
-                                // Row separator should be returned next.
-                                docSheetReader.reinjectToken(rowSeparator);
-                            }
-                        }
-
-                    } while (matched);
-                } else {
-                    // inner loops cannot contain new rows, so it's just cell-by-cell matching.
-                    // The SheetReader here is just looking at some potential matches, but it can still contain NEW_ROW
-                    boolean matched = false;
-                    List<Token> remainingRowCandidates = null;
-                    do {
-
-                        // Passing an empty array List will return everything until the end of the first line.
-                        remainingRowCandidates = getLoopPotentialMatchingTokens(new ArrayList<Token>(), docSheetReader);
-
-                        if (remainingRowCandidates != null && isMatch(innerTokens, remainingRowCandidates)) {
-                            matched = true;
-                            List<Token> remainingTokens = applyLoopMatch(loopToken, remainingRowCandidates, data, loopedBeanIndex);
-                            docSheetReader.reinjectTokens(remainingTokens);
-                            ++loopedBeanIndex;
-                        } else {
-                            // Not a match, let's pretend nothing happened and move on.
-                            matched = false;
-                            if (remainingRowCandidates != null) {
-                                docSheetReader.reinjectTokens(remainingRowCandidates);
-                            }
-                        }
-
-                    } while (matched);
+                packageFile = tempFile;
+            }
+
+            documentPackage = OPCPackage.open(packageFile, PackageAccess.READ);
+            XSSFReader xssfReader = new XSSFReader(documentPackage);
 
+            List<PackagePart> sharedStringsParts = documentPackage.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+            if (!sharedStringsParts.isEmpty()) {
+                InputStream sharedStringsIS = sharedStringsParts.get(0).getInputStream();
+                try {
+                    sharedStringsStore.load(sharedStringsIS);
+                } finally {
+                    sharedStringsIS.close();
                 }
+            }
 
-                --loopDepth;
-                // As soon as we don't have a match, we consider the loop is over and we move on to the rest of the template.
-                return false;
-            default:
-                throwError("Do not expect token "+templateToken.getType()+" while parsing Excel template");
-                return true;
+            StylesTable styles = xssfReader.getStylesTable();
+
+            boolean use1904Dates;
+            InputStream workbookIS = xssfReader.getWorkbookData();
+            try {
+                use1904Dates = OoxmlText.isUsing1904Dates(workbookIS);
+            } finally {
+                workbookIS.close();
+            }
+
+            // Document sheets with a matching template sheet.
+            List<XmlSheet> sheets = new ArrayList<>();
+            XSSFReader.SheetIterator sheetIterator = (XSSFReader.SheetIterator)xssfReader.getSheetsData();
+            while (sheetIterator.hasNext() && sheets.size() < getNumberOfTemplateSheets()) {
+                // Each sheet stream is opened again by whichever thread extracts it.
+                sheetIterator.next().close();
+                int sheetIndex = sheets.size();
+                // Template sheets are all tokenized here, as tokenizing updates the template workbook.
+                sheets.add(new XmlSheet(sheetIndex, tokenize(sheetIndex), sheetIterator.getSheetName(), sheetIterator.getSheetPart(),
+                        styles, use1904Dates));
+            }
+
+            // Records written as JSON must come one collection after the other, so sheets aren't extracted concurrently then.
+            if (threadCount == 1 || sheets.size() < 2 || recordSink instanceof JsonRecordWriter) {
+                for (XmlSheet sheet : sheets) {
+                    sheet.extractData(data);
+                }
+            } else {
+                extractConcurrently(sheets, data);
+            }
+        } catch (IOException | OpenXML4JException | XMLStreamException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (documentPackage != null) {
+                // Opened read-only, so there's nothing to save.
+                documentPackage.revert();
+            }
+            IOUtils.closeQuietly(sharedStringsStore);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
         }
     }
 
     /**
-     * This method will match inner tokens of the Loop tokens against the loopMatchCandidates,
-     * and return whatever tokens from loopMatchCandidates weren't part of the match (if any).
+     * Extracts each sheet into its own data Map on the thread pool, then merges them into data in the sheets order, whatever order they're completed in.
      */
-    private List<Token> applyLoopMatch(JebtTextTokenizer.LoopToken loopToken, List<Token> loopMatchCandidates, Map data, int loopedBeanIndex)
-    {
-        SheetReader candidatesReader = new SheetReader(loopMatchCandidates);
-
-        List loopedCollectionList = ParsingUtils
-                .initCollection(data, loopToken.getCollectionJsonPath(), loopedBeanIndex, loopToken.getLoopItemName());
-
-        // Since it's a match, we read from the reader and update data accordingly.
+    private void extractConcurrently(List<XmlSheet> sheets, Map data) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, sheets.size()));
+        try {
+            List<Future<Map>> sheetsData = new ArrayList<>();
+            for (final XmlSheet sheet : sheets) {
+                sheetsData.add(executor.submit(new Callable<Map>() {
+                    @Override public Map call() throws IOException {
+                        Map sheetData = new LinkedHashMap();
+                        sheet.extractData(sheetData);
+                        return sheetData;
+                    }
+                }));
+            }
 
-        for (Token loopInnerToken: loopToken.getLoopTokens()) {
-            processSingleToken(loopInnerToken, candidatesReader, data);
+            for (Future<Map> sheetData : sheetsData) {
+                ParsingUtils.mergeData(data, sheetData.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while extracting sheets", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            } else if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
         }
+    }
 
-        // Now that parsing of one item has been completed we need to retrieve it, store it in data and clean the context
-        Object obj = data.get(loopToken.getLoopItemName());
-        loopedCollectionList.set(loopedBeanIndex, obj);
-        data.remove(loopToken.getLoopItemName());
-
-        List<Token> remainingTokens = new ArrayList<>();
-        Token t;
-        while ((t = candidatesReader.readNext()) != Token.EOD) {
-            remainingTokens.add(t);
-        }
+    private int getNumberOfTemplateSheets() {
+        return template != null ? template.getNumberOfSheets() : templateWorkbook.getNumberOfSheets();
+    }
 
-        return remainingTokens;
+    private String getTemplateSheetName(int sheetIndex) {
+        return template != null ? template.getSheetName(sheetIndex) : templateWorkbook.getSheetName(sheetIndex);
     }
 
-    private boolean isMatch(List<Token> innerTokens, List<Token> loopMatchCandidates) {
-        SheetReader candidatesReader = new SheetReader(loopMatchCandidates);
+    /**
+     * @return the tokens of the template sheet at the passed index, without the final Token.EOD.
+     */
+    private List<Token> tokenize(int sheetIndex) {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.TOKENIZE, getTemplateSheetName(sheetIndex), sheetIndex);
+        JebtXlsxTokenizer tokenizer = template != null ? new JebtXlsxTokenizer(template.getSheet(sheetIndex))
+                : new JebtXlsxTokenizer(templateWorkbook.getSheetAt(sheetIndex));
+
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            tokens.add(token);
+        }
+        timer.stop(-1);
+        return tokens;
+    }
 
-        Map dummy = new HashMap();
+    /**
+     * Extracts data from a document sheet, matching it with the tokens of the template sheet at the same index.
+     * It can be called concurrently for different sheets and data Maps.
+     */
+    private void extractSheetData(int sheetIndex, List<Token> templateTokens, String docSheetName, SheetReader docSheetReader, Map data) {
+        PhaseTimer timer = PhaseTimer.start(JebtMetrics.get(), JebtMetrics.Phase.EXTRACT, getTemplateSheetName(sheetIndex), sheetIndex);
 
+        // We must not forget to read from Sheet name as it can also contain tokens.
         try {
-            for (Token templateToken : innerTokens) {
-                processSingleToken(templateToken, candidatesReader, dummy);
-            }
+            extractData(getTemplateSheetName(sheetIndex), docSheetName, data);
         } catch (Exception e) {
-            return false;
+            // But if end users modified sheet name and broke matching, we don't care too much.
         }
 
-        return true;
+        SheetExtractor extractor = new SheetExtractor(recordSink, reuseRecords, projection, columnarLoops);
+        extractor.extractData(templateTokens, docSheetReader, data);
+        timer.stop(extractor.getRowCount());
     }
 
-    // Potentially matching tokens have the same number of NEW_ROW or NEW_BLANK_ROW as in the passed innerTokens.
-    private List<Token> getLoopPotentialMatchingTokens(List<Token> innerTokens, SheetReader docSheetReader) {
-        List<Token> potentialMatchingTokens = new ArrayList<>();
+    /**
+     * Options of a {@link JebtXlsxReader}. Only the document is required, everything else has a default.
+     */
+    public static class Builder {
 
-        // First, we extract key tokens from innerTokens, i.e. NEW_ROW and NEW_BLANK_ROW tokens.
-        List<Token> keyTokens = new ArrayList<>();
-        for (Token token:innerTokens) {
-            if (token.getType() == Token.TokenType.NEW_ROW || token.getType() == Token.TokenType.NEW_BLANK_ROW) {
-                keyTokens.add(token);
-            }
-        }
+        private final XSSFWorkbook templateWorkbook;
 
-        // Then, we read from the reader and allow any number of cells in-between the key tokens
-        Token t = readNonRowsTokens(docSheetReader, potentialMatchingTokens);
+        private final XlsxTemplate template;
 
+        private InputStream documentIS;
 
+        private File documentFile;
 
-        for (Token keyToken:keyTokens) {
+        private int bufferSize = 4096;
 
-            potentialMatchingTokens.add(t);
+        private SharedStringsStore sharedStringsStore;
 
-            if (t.getType() != keyToken.getType() && t != Token.EOD) {
-                // Not a match!
-                docSheetReader.reinjectTokens(potentialMatchingTokens);
-                return null;
-            } else {
-                // match so far.
-            }
+        private int threadCount = 1;
 
-            t = readNonRowsTokens(docSheetReader, potentialMatchingTokens);
-        }
+        private String datePattern = CellValueConverter.DEFAULT_DATE_PATTERN;
 
-        // last matching ROW token should not be included in the matching Tokens
-        docSheetReader.reinjectToken(t);
+        private JebtRecordSink recordSink;
 
-        return potentialMatchingTokens;
-    }
+        private boolean reuseRecords;
 
-    /**
-     * Reads token from the reader and adds them to the List, until hitting a ROW or EOD token, that it will return.
-     */
-    private Token readNonRowsTokens(SheetReader sheetReader, List<Token> potentialMatchingTokens) {
-        Token t;
-        while ((t = sheetReader.readNext()) != Token.EOD && t.getType() != Token.TokenType.NEW_ROW && t.getType() != Token.TokenType.NEW_BLANK_ROW) {
-            potentialMatchingTokens.add(t);
+        private Set<String> projection;
+
+        private boolean columnarLoops;
+
+        private Builder(XSSFWorkbook templateWorkbook, XlsxTemplate template) {
+            this.templateWorkbook = templateWorkbook;
+            this.template = template;
         }
-        return t;
-    }
 
-    /**
-     * @return true if you can read from the reader and that it'll match the loopTokens. The reader is returned in the same read state it was passed.
-     *
-     */
-    private boolean isLoopMatch(SheetReader docSheetReader, List<Token> loopTokens) {
+        /**
+         * The document is copied to a temporary file before it's read. The InputStream is not closed.
+         */
+        public Builder document(InputStream documentIS) {
+            this.documentIS = documentIS;
+            this.documentFile = null;
+            return this;
+        }
 
-        List<Token> matchedTokens = new ArrayList<>();
-        Map dummy = new HashMap();
+        /**
+         * The document package is opened directly from the file, with random access to its entries. The file is never modified.
+         */
+        public Builder document(File documentFile) {
+            this.documentFile = documentFile;
+            this.documentIS = null;
+            return this;
+        }
 
-        // First, we try to match all tokens, but pass a dummy Data object so that changes do not impact us.
-        for (Token loopToken:loopTokens) {
+        public Builder document(Path documentPath) {
+            return document(documentPath.toFile());
+        }
 
-            Token sheetToken = docSheetReader.readNext();
-            matchedTokens.add(sheetToken);
+        /**
+         * @param bufferSize the size of the buffer used to copy the document InputStream to a temporary file, 4096 by default.
+         */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Buffer size should be at least 1, got " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
 
-            docSheetReader.reinjectToken(sheetToken);
+        /**
+         * @param sharedStringsStore if not null, the document is read from its sheets XML with this store for its shared strings, instead of with excel-streaming-reader.
+         *                           It's closed once data is read.
+         */
+        public Builder sharedStringsStore(SharedStringsStore sharedStringsStore) {
+            this.sharedStringsStore = sharedStringsStore;
+            return this;
+        }
 
-            try {
-                processSingleToken(loopToken, docSheetReader, dummy);
-            } catch (Exception e) {
-                // An exception means that it's not a match. Let's cancel loop matching.
-                docSheetReader.reinjectTokens(matchedTokens);
-                return false;
+        /**
+         * @param threadCount the number of sheets extracted concurrently when a shared strings store is set, each into its own data Map.
+         *                    They're then merged in the sheets order with {@link ParsingUtils#mergeData(Map, Map)}, so if several sheets set the same value, the last sheet wins.
+         *                    When sheets are extracted concurrently, the record sink can be called concurrently for records of different sheets.
+         *                    Sheets are always extracted one after the other by {@link #writeJson(java.io.Writer, boolean)}.
+         */
+        public Builder threadCount(int threadCount) {
+            if (threadCount < 1) {
+                throw new IllegalArgumentException("Thread count should be at least 1, got " + threadCount);
             }
+            this.threadCount = threadCount;
+            return this;
         }
 
-        if (loopDepth == 1) {
-            // Main Loops have a new row at the end of every record.
-            Token lastToken = docSheetReader.readNext();
+        /**
+         * @param datePattern the pattern of date cells text, as matched against the template (see {@link java.text.SimpleDateFormat}), dd/MM/yyyy by default.
+         */
+        public Builder datePattern(String datePattern) {
+            // Fails early on invalid patterns.
+            new SimpleDateFormat(datePattern);
+            this.datePattern = datePattern;
+            return this;
+        }
 
-            matchedTokens.add(lastToken);
+        /**
+         * @param recordSink receives the records of the main loops of the template as soon as they're read. They're not stored in the returned data,
+         *                   where their collections are left empty.
+         */
+        public Builder recordSink(JebtRecordSink recordSink) {
+            this.recordSink = recordSink;
+            return this;
+        }
 
-            if (lastToken.getType() != Token.TokenType.NEW_ROW && lastToken.getType() != Token.TokenType.NEW_BLANK_ROW) {
-                // not a match!
-                docSheetReader.reinjectTokens(matchedTokens);
-                return false;
-            }
+        /**
+         * @param reuseRecords true to pass the same record Map for every record of a sheet to the record sink, so that no record is allocated while reading.
+         */
+        public Builder reuseRecords(boolean reuseRecords) {
+            this.reuseRecords = reuseRecords;
+            return this;
         }
 
-        // If we're here, it means it's a match.
-        docSheetReader.reinjectTokens(matchedTokens);
-        return true;
-    }
+        /**
+         * @param projection the JSON paths to extract (see {@link JsonPathProjection}), other expressions being matched but never stored. Null to extract everything.
+         */
+        public Builder projection(Set<String> projection) {
+            this.projection = projection;
+            return this;
+        }
 
-    private void throwError(String errorMessage) {
-        errorMessage = errorMessage + " / RowIndex:"+rowIndex+":ColumnIndex:"+columnIndex;
-        throw new RuntimeException(errorMessage);
-    }
+        /**
+         * @param columnarLoops true to return the collections of main loops as {@link ColumnarRecordList}, which store records by column
+         *                      and take much less memory than one Map per record. Ignored when a record sink is set.
+         */
+        public Builder columnarLoops(boolean columnarLoops) {
+            this.columnarLoops = columnarLoops;
+            return this;
+        }
 
-    private String getCellValueAsString(Cell cell) {
-        String strCellValue = "";
-        if (cell != null) {
-            if (cell.getCellTypeEnum() == CellType.STRING) {
-                strCellValue = cell.getStringCellValue();
-            } else if (cell.getCellTypeEnum() == CellType.NUMERIC) {
-                if (DateUtil.isCellDateFormatted(cell)) {
-                    SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-                    strCellValue = dateFormat.format(cell.getDateCellValue());
-                } else {
-                    // Double value = cell.getNumericCellValue(); // Doing so will turn integer into double by adding .0 at the end, we don't want that.
-                    strCellValue = cell.getStringCellValue();
-                }
-            } else if (cell.getCellTypeEnum() == CellType.BOOLEAN) {
-                strCellValue = new Boolean(cell.getBooleanCellValue()).toString();
-            } else if (cell.getCellTypeEnum() == CellType.BLANK) {
-                strCellValue = "";
-            } else if (cell.getCellTypeEnum() == CellType.FORMULA) {
-                strCellValue = cell.getCellFormula();
+        public JebtXlsxReader build() {
+            if (documentIS == null && documentFile == null) {
+                throw new IllegalStateException("No document to read");
             }
+            return new JebtXlsxReader(this);
+        }
+    }
+
+    /**
+     * A document sheet read from its XML, with everything needed to extract its data on any thread.
+     */
+    private class XmlSheet {
+
+        private int sheetIndex;
+
+        private List<Token> templateTokens;
+
+        private String name;
+
+        private PackagePart part;
+
+        private StylesTable styles;
+
+        private boolean use1904Dates;
+
+        XmlSheet(int sheetIndex, List<Token> templateTokens, String name, PackagePart part, StylesTable styles, boolean use1904Dates) {
+            this.sheetIndex = sheetIndex;
+            this.templateTokens = templateTokens;
+            this.name = name;
+            this.part = part;
+            this.styles = styles;
+            this.use1904Dates = use1904Dates;
         }
 
-        return strCellValue;
+        void extractData(Map data) throws IOException {
+            InputStream sheetIS = part.getInputStream();
+            try {
+                SheetReader docSheetReader = new SheetReader(new XmlSheetSource(sheetIS, sharedStringsStore,
+                        new CellValueConverter(datePattern, styles, use1904Dates)));
+                extractSheetData(sheetIndex, templateTokens, name, docSheetReader, data);
+            } finally {
+                sheetIS.close();
+            }
+        }
     }
 }
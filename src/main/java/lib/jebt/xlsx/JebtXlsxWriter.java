@@ -2,6 +2,8 @@ package lib.jebt.xlsx;
 
 import lib.jebt.BaseJebtWriter;
 import lib.jebt.JebtWriter;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
 import lib.jebt.parser.*;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.ss.usermodel.*;
@@ -31,16 +33,30 @@ public class JebtXlsxWriter extends BaseJebtWriter {
 
     private OutputStream docOS;
 
+    // Null when the template sheets were tokenized beforehand.
     private XSSFWorkbook templateWorkbook;
 
     private XSSFWorkbook documentBaseWorkbook;
 
+    // Tokens of each template sheet when they were read beforehand, null to tokenize the template sheets.
+    private List<List<Token>> templateSheetTokens;
+
     public JebtXlsxWriter(XSSFWorkbook templateWorkbook, XSSFWorkbook documentBaseWorkbook, OutputStream docOS) {
         this.docOS = docOS;
         this.templateWorkbook = templateWorkbook;
         this.documentBaseWorkbook = documentBaseWorkbook;
     }
 
+    /**
+     * Fills the document from a template tokenized once, which can be shared by writers running concurrently.
+     * The document is filled on a new copy of the template workbook, which also gives the sheet names and the cell styles.
+     */
+    public JebtXlsxWriter(XlsxWriteTemplate template, OutputStream docOS) {
+        this.docOS = docOS;
+        this.templateSheetTokens = template.getSheetTokens();
+        this.documentBaseWorkbook = template.createDocumentBaseWorkbook();
+    }
+
     public void writeData(Map data) {
 
         if (isWritten) {
@@ -58,19 +74,31 @@ public class JebtXlsxWriter extends BaseJebtWriter {
             }
         }
 
-        final SXSSFWorkbook sDocWorkbook = new SXSSFWorkbook(documentBaseWorkbook);
+        JebtMetrics metrics = JebtMetrics.get();
+
+        // When metrics are reported, rows are flushed by the sheet contexts so that flushes can be timed.
+        // Otherwise SXSSF flushes them itself, keeping fewer rows in memory.
+        boolean timedFlushes = metrics != JebtMetrics.NONE;
+        final SXSSFWorkbook sDocWorkbook = timedFlushes ? new SXSSFWorkbook(documentBaseWorkbook, -1) : new SXSSFWorkbook(documentBaseWorkbook);
 
         // Fill Document sheet by sheet
-        for (int i = 0; i < templateWorkbook.getNumberOfSheets(); i++) {
-            XSSFSheet templateSheet = templateWorkbook.getSheetAt(i);
-            documentBaseWorkbook.setSheetName(i, WorkbookUtil.createSafeSheetName(convertString(templateSheet.getSheetName(), data)));
+        int sheetCount = templateSheetTokens != null ? templateSheetTokens.size() : templateWorkbook.getNumberOfSheets();
+        for (int i = 0; i < sheetCount; i++) {
+            String templateSheetName = templateWorkbook != null ? templateWorkbook.getSheetName(i) : documentBaseWorkbook.getSheetName(i);
+            PhaseTimer timer = PhaseTimer.start(metrics, JebtMetrics.Phase.FILL, templateSheetName, i);
+            List<Token> sheetTokens = templateSheetTokens != null ? templateSheetTokens.get(i) : TemplateCellToken.readSheetTokens(templateWorkbook.getSheetAt(i));
+            documentBaseWorkbook.setSheetName(i, WorkbookUtil.createSafeSheetName(convertString(templateSheetName, data)));
             SXSSFSheet docSheet = sDocWorkbook.getSheetAt(i);
 
-            fillDocSheetFromTemplate(templateSheet, docSheet, data);
+            SheetContext targetSheetContext = fillDocSheetFromTemplate(new TokenListTokenizer(sheetTokens), new SheetContext(docSheet, metrics, timedFlushes, templateSheetName, i), data);
+            targetSheetContext.reportCounts(metrics);
+            timer.stop(targetSheetContext.rowCount);
         }
 
         try {
+            PhaseTimer timer = PhaseTimer.start(metrics, JebtMetrics.Phase.SERIALIZE, null, -1);
             sDocWorkbook.write(docOS);
+            timer.stop(-1);
         } catch (IOException e) {
             throw new RuntimeException("Error writing document Workbook", e);
         } finally {
@@ -81,19 +109,18 @@ public class JebtXlsxWriter extends BaseJebtWriter {
 
     /**
      * Core method that makes the job of filling Excel template.
-     * It goes over cell events of the sourceSheet, and applies them to the target sheet in a streaming way.
+     * It goes over cell events of the template sheet, and applies them to the target sheet in a streaming way.
+     *
+     * @return the context of the filled sheet, with its counts.
      */
-    private void fillDocSheetFromTemplate(XSSFSheet sourceSheet, SXSSFSheet targetSheet, Map data) {
-        JebtXlsxTokenizer sheetTokenizer = new JebtXlsxTokenizer(sourceSheet);
-
-        SheetContext targetSheetContext = new SheetContext(targetSheet);
-
+    private SheetContext fillDocSheetFromTemplate(JebtTokenizer sheetTokenizer, SheetContext targetSheetContext, Map data) {
         Token t;
 
         while ((t = sheetTokenizer.readNext()) != Token.EOD) {
             processToken(t, data, targetSheetContext);
         }
 
+        return targetSheetContext;
     }
 
     private void processToken(Token t, Map data, SheetContext targetSheetContext) {
@@ -109,19 +136,21 @@ public class JebtXlsxWriter extends BaseJebtWriter {
             SXSSFRow row = sheet.getRow(targetSheetContext.rowId);
             if (row == null) {
                 row = sheet.createRow(targetSheetContext.rowId);
+                targetSheetContext.rowCreated();
             }
 
         } else if (t.getType() == Token.TokenType.NEW_NON_TEXT_CELL || t.getType() == Token.TokenType.NEW_BLANK_CELL) {
             // We just copy the cell and its contents to the destination sheet.
             SXSSFCell cell = initCellCopy(t, targetSheetContext, data);
 
-            if (t.getCell() == null) {
-                // null cell means this was a Blank cell, it was already created in initCell and there's nothing to copy.
+            if (!(t instanceof TemplateCellToken)) {
+                // No template cell means this was a Blank cell, it was already created in initCell and there's nothing to copy.
                 return;
             }
+            TemplateCellToken templateCell = (TemplateCellToken)t;
 
             // Copying value
-            switch (t.getCell().getCellTypeEnum()) {
+            switch (templateCell.getCellType()) {
                 case _NONE:
                     break;
                 case BLANK:
@@ -131,14 +160,14 @@ public class JebtXlsxWriter extends BaseJebtWriter {
                     cell.setCellValue("");
                     break;
                 case BOOLEAN:
-                    cell.setCellValue(t.getCell().getBooleanCellValue());
+                    cell.setCellValue(templateCell.getBooleanValue());
                     break;
                 case NUMERIC:
-                    cell.setCellValue(t.getCell().getNumericCellValue());
+                    cell.setCellValue(templateCell.getNumericValue());
                     break;
                 case FORMULA:
-                    cell.setCellValue(t.getCell().getStringCellValue());
-                    cell.setCellFormula(t.getCell().getCellFormula());
+                    cell.setCellValue(templateCell.getText());
+                    cell.setCellFormula(templateCell.getFormula());
                     break;
                 case ERROR:
                     break;
@@ -146,10 +175,11 @@ public class JebtXlsxWriter extends BaseJebtWriter {
 
         } else if (t.getType() == Token.TokenType.NEW_TEXT_CELL) {
             SXSSFCell cell = initCellCopy(t, targetSheetContext, data);
-            processTextCell(t.getCell(), cell, data);
+            processTextCell(t.getCellText(), cell, data);
         } else if (t.getType() == Token.TokenType.LOOP) {
             JebtTextTokenizer.LoopToken loop = (JebtTextTokenizer.LoopToken)t;
             List collection = null;
+            targetSheetContext.pathEvaluationCount++;
             try {
                 collection = (List)new JsonPathResolver(data).evaluatePathToObject(loop.getCollectionJsonPath());
             } catch (ClassCastException e) {
@@ -178,6 +208,7 @@ public class JebtXlsxWriter extends BaseJebtWriter {
                     }
                 }
                 Object obj = it.next();
+                targetSheetContext.loopIterationCount++;
 
                 Map dataCopy = new LinkedHashMap(data);
                 dataCopy.put(loop.getLoopItemName(), obj);
@@ -199,13 +230,15 @@ public class JebtXlsxWriter extends BaseJebtWriter {
         SXSSFCell cell = row.getCell(targetSheetContext.columnId);
         if (cell == null) {
             cell = row.createCell(targetSheetContext.columnId);
+            targetSheetContext.cellCount++;
         }
-        if (t.getCell() == null) {
+        if (!(t instanceof TemplateCellToken)) {
             cell.setCellType(CellType.BLANK);
         } else {
-            cell.setCellType(t.getCell().getCellTypeEnum());
-            // Not sure if this call will work since styles are coming from different workbooks...
-            cell.setCellStyle(t.getCell().getCellStyle());
+            TemplateCellToken templateCell = (TemplateCellToken)t;
+            cell.setCellType(templateCell.getCellType());
+            // The document base workbook is a copy of the template, so it has the same styles at the same indexes.
+            cell.setCellStyle(documentBaseWorkbook.getCellStyleAt(templateCell.getStyleIndex()));
         }
 
         // Remove any loop tag from comments & Resolve any expression in it.
@@ -227,42 +260,17 @@ public class JebtXlsxWriter extends BaseJebtWriter {
      * Copies cell contents from source to target, and resolves any token in cell's text in the process.
      * SXSSF doesn't support RichTextString, so we'll discard any text-part specific font, and will rely on Cell style only for formatting.
      */
-    private void processTextCell(Cell sourceCell, SXSSFCell targetCell, Map data) {
-        String sourceStr = sourceCell.getRichStringCellValue().getString();
+    private void processTextCell(String sourceStr, SXSSFCell targetCell, Map data) {
         String targetStr = escapeExcelInjection(sourceStr, convertString(sourceStr, data));
 
         targetCell.setCellValue(targetStr);
     }
 
-    /**
-     * An excel injection can occur if a user passes a string with a malicious content, such as
-     * =SUM(1+1)*cmd|' /C calc'!A0
-     * When we detect this, we escape the string with a single quote.
-     * We don't exepect anyone to pass to such a formula in a normal text label, so that protection will suffice for now.
-     * Later we might want to consider using Apache POI setQuotePrefixed(boolean) on CellStyle.
-     */
-    private String escapeExcelInjection(String sourceStr, String evaluatedStr) {
-        if (sourceStr == null || evaluatedStr == null) {
-            // Should never happen.
-            return evaluatedStr;
-        }
-
-        if (sourceStr.equals(evaluatedStr)) {
-            // Nothing was changed
-            return evaluatedStr;
-        }
-
-        if (sourceStr.startsWith("{{") && !"".equals(evaluatedStr) && "=-+@".indexOf(evaluatedStr.charAt(0)) >= 0) {
-            // Escaping any generated value starting with =-+@ with a starting quote.
-            return "'" + evaluatedStr;
-        }
-
-        return evaluatedStr;
-
-    }
-
     private class SheetContext {
 
+        // With timed flushes, once twice as many rows are in memory, all of them but the last ROW_WINDOW ones are flushed.
+        private static final int ROW_WINDOW = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+
         public int rowId = -1;
 
         public int columnId = -1;
@@ -271,14 +279,52 @@ public class JebtXlsxWriter extends BaseJebtWriter {
 
         public int loopDepth = 0;
 
+        // Counted while filling the sheet, and reported once it's filled.
+        public long rowCount, cellCount, loopIterationCount, pathEvaluationCount;
+
         private SXSSFSheet sheet;
 
-        public SheetContext(SXSSFSheet sheet) {
+        private JebtMetrics metrics;
+
+        private boolean timedFlushes;
+
+        private String templateName;
+
+        private int sheetIndex;
+
+        private int rowsInMemory = 0;
+
+        public SheetContext(SXSSFSheet sheet, JebtMetrics metrics, boolean timedFlushes, String templateName, int sheetIndex) {
             this.sheet = sheet;
+            this.metrics = metrics;
+            this.timedFlushes = timedFlushes;
+            this.templateName = templateName;
+            this.sheetIndex = sheetIndex;
+        }
+
+        public void rowCreated() {
+            rowCount++;
+            if (timedFlushes && ++rowsInMemory >= 2 * ROW_WINDOW) {
+                PhaseTimer timer = PhaseTimer.start(metrics, JebtMetrics.Phase.FLUSH, templateName, sheetIndex);
+                try {
+                    sheet.flushRows(ROW_WINDOW);
+                } catch (IOException e) {
+                    throw new RuntimeException("Error flushing rows of sheet " + sheet.getSheetName(), e);
+                }
+                timer.stop(rowsInMemory - ROW_WINDOW);
+                rowsInMemory = ROW_WINDOW;
+            }
         }
 
         public SXSSFSheet getSheet() {
             return sheet;
         }
+
+        public void reportCounts(JebtMetrics metrics) {
+            metrics.count(JebtMetrics.Counter.ROWS_WRITTEN, rowCount);
+            metrics.count(JebtMetrics.Counter.CELLS_WRITTEN, cellCount);
+            metrics.count(JebtMetrics.Counter.LOOP_ITERATIONS, loopIterationCount);
+            metrics.count(JebtMetrics.Counter.PATH_EVALUATIONS, pathEvaluationCount);
+        }
     }
 }
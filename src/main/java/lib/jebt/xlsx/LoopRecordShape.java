@@ -0,0 +1,159 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.Token;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Row-shape signature of the body of a main loop, used to reject document records cheaply before trying to match them.
+ * <p>
+ * The body is split into rows (the first one starts where the loop starts). For each row, the signature holds:
+ * <ul>
+ *     <li>bitmaps of the cells that must be non-text cells and of the cells that must be blank cells (for the first 64 cells),</li>
+ *     <li>the literal text that text cells must start with (their anchor), if any,</li>
+ *     <li>the number of cells the row must have: exactly, unless it's the last row or has an inner loop (then at least the cells before the loop).</li>
+ * </ul>
+ * A record matching the signature can still fail to match, but a record failing it would fail to match.
+ * </p>
+ */
+class LoopRecordShape {
+
+    private final long[] nonTextMasks;
+
+    private final long[] blankMasks;
+
+    // Anchors of each row, by cell index. Null if the row has no anchor at all.
+    private final String[][] anchors;
+
+    private final int[] cellCounts;
+
+    // True if the row can have more cells than its cell count.
+    private final boolean[] isOpen;
+
+    private LoopRecordShape(List<List<Token>> rows, List<Boolean> rowsWithLoop) {
+        int rowCount = rows.size();
+        nonTextMasks = new long[rowCount];
+        blankMasks = new long[rowCount];
+        anchors = new String[rowCount][];
+        cellCounts = new int[rowCount];
+        isOpen = new boolean[rowCount];
+
+        for (int r = 0; r < rowCount; r++) {
+            List<Token> cells = rows.get(r);
+            cellCounts[r] = cells.size();
+            isOpen[r] = rowsWithLoop.get(r) || r == rowCount - 1;
+
+            for (int c = 0; c < cells.size(); c++) {
+                Token cell = cells.get(c);
+                if (cell.getType() == Token.TokenType.NEW_NON_TEXT_CELL && c < 64) {
+                    nonTextMasks[r] |= 1L << c;
+                } else if (cell.getType() == Token.TokenType.NEW_BLANK_CELL && c < 64) {
+                    blankMasks[r] |= 1L << c;
+                } else if (cell.getType() == Token.TokenType.NEW_TEXT_CELL) {
+                    String anchor = getAnchor(cell.getCellText());
+                    if (!anchor.isEmpty()) {
+                        if (anchors[r] == null) {
+                            anchors[r] = new String[cells.size()];
+                        }
+                        anchors[r][c] = anchor;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param loopTokens the inner tokens of a main loop.
+     */
+    static LoopRecordShape compile(List<Token> loopTokens) {
+        List<List<Token>> rows = new ArrayList<>();
+        List<Boolean> rowsWithLoop = new ArrayList<>();
+
+        List<Token> row = new ArrayList<>();
+        boolean hasLoop = false;
+        for (Token token : loopTokens) {
+            switch (token.getType()) {
+                case NEW_ROW:
+                case NEW_BLANK_ROW:
+                    rows.add(row);
+                    rowsWithLoop.add(hasLoop);
+                    row = new ArrayList<>();
+                    hasLoop = false;
+                    break;
+                case LOOP:
+                    // Cells after an inner loop are not at a fixed index anymore.
+                    hasLoop = true;
+                    break;
+                default:
+                    if (!hasLoop) {
+                        row.add(token);
+                    }
+                    break;
+            }
+        }
+        rows.add(row);
+        rowsWithLoop.add(hasLoop);
+
+        return new LoopRecordShape(rows, rowsWithLoop);
+    }
+
+    /**
+     * Checks the record starting at the current position of the reader, up to the candidates end. The reader is left at the position it was passed.
+     */
+    boolean matches(SheetReader docSheetReader, int candidatesEnd) {
+        int start = docSheetReader.mark();
+        int previousLimit = docSheetReader.setLimit(candidatesEnd);
+        try {
+            for (int r = 0; r < cellCounts.length; r++) {
+                long nonTextMask = 0;
+                long blankMask = 0;
+                int c = 0;
+
+                Token.TokenType t;
+                while ((t = docSheetReader.next()) != Token.TokenType.END_OF_DOCUMENT
+                        && t != Token.TokenType.NEW_ROW && t != Token.TokenType.NEW_BLANK_ROW) {
+                    if (c < 64) {
+                        if (t == Token.TokenType.NEW_NON_TEXT_CELL) {
+                            nonTextMask |= 1L << c;
+                        } else if (t == Token.TokenType.NEW_BLANK_CELL) {
+                            blankMask |= 1L << c;
+                        }
+                    }
+                    if (anchors[r] != null && c < anchors[r].length && anchors[r][c] != null
+                            && !docSheetReader.getValueAsString().startsWith(anchors[r][c])) {
+                        return false;
+                    }
+                    ++c;
+                }
+
+                if (c < cellCounts[r] || (c > cellCounts[r] && !isOpen[r])) {
+                    return false;
+                }
+
+                if ((nonTextMask & nonTextMasks[r]) != nonTextMasks[r] || (blankMask & blankMasks[r]) != blankMasks[r]) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            docSheetReader.setLimit(previousLimit);
+            docSheetReader.rewind(start);
+        }
+    }
+
+    /**
+     * @return the literal text a template text cell starts with, before any expression or loop.
+     */
+    private static String getAnchor(String templateText) {
+        JebtTextTokenizer tokenizer = new JebtTextTokenizer(new StringReader(templateText));
+        StringBuilder anchor = new StringBuilder();
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD && token.getType() == Token.TokenType.TEXT) {
+            anchor.append(token.getText());
+        }
+        return anchor.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.metrics.JebtMetrics;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link SharedStringsStore} for huge shared strings tables: strings are spilled as UTF-8 to a temporary file, with their offsets in a second one,
+ * and both files are mapped in memory with {@link FileChannel#map}. Only a small cache of recently used strings is kept on the heap,
+ * so heap usage doesn't depend on how many strings the document has.
+ * <p>
+ * Files are mapped segment by segment, so that they can be larger than 2GB. Temporary files are deleted on {@link #close()}.
+ * </p>
+ * <p>
+ * Strings can be looked up concurrently without locking, as sheets are when they're extracted concurrently:
+ * mapped buffers are only read at absolute positions, which doesn't change their state, and the cache slots are replaced atomically.
+ * </p>
+ */
+public class MappedSharedStringsStore implements SharedStringsStore {
+
+    static final int DEFAULT_CACHE_SIZE = 1024;
+
+    static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    // Each offset is stored as a long.
+    private static final int OFFSET_SIZE = 8;
+
+    private final int cacheSize;
+
+    private final int segmentSize;
+
+    private File stringsFile;
+
+    private File offsetsFile;
+
+    private MappedByteBuffer[] stringSegments;
+
+    private MappedByteBuffer[] offsetSegments;
+
+    private int count;
+
+    // Each string is cached in the slot of its index modulo the cache size, replacing the string read before it for the same slot.
+    private AtomicReferenceArray<CachedString> cache;
+
+    // Reported when the store is closed.
+    private final AtomicLong cacheHitCount = new AtomicLong(), cacheMissCount = new AtomicLong();
+
+    public MappedSharedStringsStore() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize the number of strings kept on the heap.
+     */
+    public MappedSharedStringsStore(int cacheSize) {
+        this(cacheSize, DEFAULT_SEGMENT_SIZE);
+    }
+
+    MappedSharedStringsStore(int cacheSize, int segmentSize) {
+        if (segmentSize < OFFSET_SIZE || segmentSize % OFFSET_SIZE != 0) {
+            throw new IllegalArgumentException("Segment size should be a multiple of " + OFFSET_SIZE);
+        }
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size should be at least 1, got " + cacheSize);
+        }
+        this.cacheSize = cacheSize;
+        this.segmentSize = segmentSize;
+    }
+
+    public void load(InputStream sharedStringsXml) throws IOException {
+        close();
+
+        stringsFile = File.createTempFile("jebt-sst", ".strings");
+        offsetsFile = File.createTempFile("jebt-sst", ".offsets");
+
+        long offset = 0;
+        count = 0;
+
+        DataOutputStream offsetsOS = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile)));
+        OutputStream stringsOS = new BufferedOutputStream(new FileOutputStream(stringsFile));
+        try {
+            XMLStreamReader reader = OoxmlText.createXMLStreamReader(sharedStringsXml);
+            try {
+                StringBuilder buffer = new StringBuilder();
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT && "si".equals(reader.getLocalName())) {
+                        byte[] bytes = OoxmlText.decodeEscapes(OoxmlText.readRichText(reader, buffer)).getBytes(StandardCharsets.UTF_8);
+                        offsetsOS.writeLong(offset);
+                        stringsOS.write(bytes);
+                        offset += bytes.length;
+                        ++count;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            // The end of the last string.
+            offsetsOS.writeLong(offset);
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read the shared strings table", e);
+        } finally {
+            offsetsOS.close();
+            stringsOS.close();
+        }
+
+        stringSegments = map(stringsFile);
+        offsetSegments = map(offsetsFile);
+
+        cache = new AtomicReferenceArray<>(cacheSize);
+    }
+
+    /**
+     * Called concurrently by all the sheets of the document being extracted, see the class comment.
+     */
+    public String getString(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("No shared string at index " + index + ", there are " + count);
+        }
+
+        int slot = index % cacheSize;
+        CachedString cached = cache.get(slot);
+        if (cached != null && cached.index == index) {
+            cacheHitCount.incrementAndGet();
+            return cached.string;
+        }
+        cacheMissCount.incrementAndGet();
+        String string = readString(index);
+        cache.set(slot, new CachedString(index, string));
+        return string;
+    }
+
+    /**
+     * Must not be called while strings are looked up.
+     */
+    public synchronized void close() {
+        long hits = cacheHitCount.getAndSet(0);
+        long misses = cacheMissCount.getAndSet(0);
+        if (hits + misses > 0) {
+            JebtMetrics metrics = JebtMetrics.get();
+            metrics.count(JebtMetrics.Counter.SHARED_STRINGS_CACHE_HITS, hits);
+            metrics.count(JebtMetrics.Counter.SHARED_STRINGS_CACHE_MISSES, misses);
+        }
+        // Mapped buffers are unmapped by the GC once they're not referenced anymore.
+        stringSegments = null;
+        offsetSegments = null;
+        cache = null;
+        count = 0;
+        deleteFile(stringsFile);
+        deleteFile(offsetsFile);
+        stringsFile = null;
+        offsetsFile = null;
+    }
+
+    private String readString(int index) {
+        long start = readOffset(index);
+        int length = (int)(readOffset(index + 1) - start);
+
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            // A string can be split across 2 segments.
+            long position = start + read;
+            MappedByteBuffer segment = stringSegments[(int)(position / segmentSize)];
+            int segmentPosition = (int)(position % segmentSize);
+            int chunk = Math.min(length - read, segment.capacity() - segmentPosition);
+            for (int i = 0; i < chunk; i++) {
+                bytes[read + i] = segment.get(segmentPosition + i);
+            }
+            read += chunk;
+        }
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long readOffset(int index) {
+        // Segment size is a multiple of the offset size, so an offset is never split across segments.
+        long position = (long)index * OFFSET_SIZE;
+        return offsetSegments[(int)(position / segmentSize)].getLong((int)(position % segmentSize));
+    }
+
+    private MappedByteBuffer[] map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int)((size + segmentSize - 1) / segmentSize)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long)i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+            return segments;
+        } finally {
+            // Mappings stay valid once the channel is closed.
+            raf.close();
+        }
+    }
+
+    /**
+     * A cached string with its index, immutable so that it's safely shared between threads.
+     */
+    private static class CachedString {
+
+        final int index;
+
+        final String string;
+
+        CachedString(int index, String string) {
+            this.index = index;
+            this.string = string;
+        }
+    }
+
+    private void deleteFile(File file) {
+        if (file != null && !file.delete()) {
+            // Some platforms cannot delete a file that is still mapped.
+            file.deleteOnExit();
+        }
+    }
+}
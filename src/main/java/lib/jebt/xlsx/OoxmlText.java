@@ -0,0 +1,166 @@
+package lib.jebt.xlsx;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * Helpers to read the XML parts of an XLSX document with StAX.
+ */
+class OoxmlText {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // Document parts never need DTDs, and resolving them would be a security hole.
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private OoxmlText() {
+    }
+
+    static XMLStreamReader createXMLStreamReader(InputStream is) throws XMLStreamException {
+        return XML_INPUT_FACTORY.createXMLStreamReader(is);
+    }
+
+    /**
+     * @return true if the workbook (workbook.xml) stores dates with the 1904 date system.
+     */
+    static boolean isUsing1904Dates(InputStream workbookXml) throws XMLStreamException {
+        XMLStreamReader reader = createXMLStreamReader(workbookXml);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("workbookPr".equals(name)) {
+                        String date1904 = reader.getAttributeValue(null, "date1904");
+                        return "1".equals(date1904) || "true".equals(date1904);
+                    } else if ("sheets".equals(name)) {
+                        // workbookPr always comes before sheets.
+                        return false;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the text of a rich text element (&lt;si&gt; of the shared strings table or &lt;is&gt; of an inline string cell) on which the reader is positioned,
+     * up to its end element: the contents of all its &lt;t&gt; elements, except the phonetic ones.
+     * Escapes aren't decoded.
+     */
+    static String readRichText(XMLStreamReader reader, StringBuilder buffer) throws XMLStreamException {
+        buffer.setLength(0);
+
+        int depth = 1;
+        boolean inText = false;
+        boolean inPhonetic = false;
+
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    ++depth;
+                    String name = reader.getLocalName();
+                    if ("t".equals(name)) {
+                        inText = true;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = true;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    --depth;
+                    name = reader.getLocalName();
+                    if ("t".equals(name)) {
+                        inText = false;
+                    } else if ("rPh".equals(name)) {
+                        inPhonetic = false;
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (inText && !inPhonetic) {
+                        buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Reads the text content of the element on which the reader is positioned, up to its end element.
+     */
+    static String readElementText(XMLStreamReader reader, StringBuilder buffer) throws XMLStreamException {
+        buffer.setLength(0);
+
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    ++depth;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    --depth;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    buffer.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes the _xHHHH_ escapes used by Excel for characters that cannot be stored in XML, just like POI does for rich text strings.
+     */
+    static String decodeEscapes(CharSequence text) {
+        int length = text.length();
+
+        int start = indexOfEscape(text, 0);
+        if (start < 0) {
+            return text.toString();
+        }
+
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (start >= 0) {
+            sb.append(text, i, start);
+            sb.append((char)Integer.parseInt(text.subSequence(start + 2, start + 6).toString(), 16));
+            i = start + 7;
+            start = indexOfEscape(text, i);
+        }
+        sb.append(text, i, length);
+
+        return sb.toString();
+    }
+
+    private static int indexOfEscape(CharSequence text, int from) {
+        for (int i = from; i + 6 < text.length(); i++) {
+            if (text.charAt(i) == '_' && text.charAt(i + 1) == 'x' && text.charAt(i + 6) == '_'
+                    && isHexDigit(text.charAt(i + 2)) && isHexDigit(text.charAt(i + 3))
+                    && isHexDigit(text.charAt(i + 4)) && isHexDigit(text.charAt(i + 5))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
@@ -0,0 +1,44 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.Token;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.Iterator;
+
+/**
+ * {@link SheetSource} reading a POI Sheet, typically streamed by excel-streaming-reader. Values are the POI Cells, converted by a {@link CellValueConverter}.
+ */
+class PoiSheetSource implements SheetSource {
+
+    private Iterator<Row> rowIterator;
+
+    private CellValueConverter converter;
+
+    PoiSheetSource(Sheet sheet, CellValueConverter converter) {
+        this.rowIterator = sheet.iterator();
+        this.converter = converter;
+    }
+
+    public boolean readRow(RowHandler handler) {
+        if (!rowIterator.hasNext()) {
+            return false;
+        }
+
+        Row row = rowIterator.next();
+
+        handler.startRow(row.getRowNum());
+
+        for (Iterator<Cell> cellIterator = row.cellIterator(); cellIterator.hasNext(); ) {
+            Cell cell = cellIterator.next();
+            handler.cell(cell.getColumnIndex(), Token.getCellTokenType(cell), cell);
+        }
+
+        return true;
+    }
+
+    public String getValueAsString(Object value) {
+        return converter.toString((Cell)value);
+    }
+}
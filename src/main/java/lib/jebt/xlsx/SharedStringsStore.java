@@ -0,0 +1,26 @@
+package lib.jebt.xlsx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Holds the shared strings table of an XLSX document (sharedStrings.xml), where text cells store their value.
+ * <p>
+ * Used by {@link JebtXlsxReader} when it reads the document XML directly. Implementations can trade memory for speed,
+ * the default one ({@link InMemorySharedStringsStore}) keeps all strings in memory.
+ * </p>
+ */
+public interface SharedStringsStore extends Closeable {
+
+    /**
+     * Loads the shared strings table. It's called once per document, before any string is looked up, and isn't called at all if the document has no shared strings.
+     * The stream is closed by the caller.
+     */
+    void load(InputStream sharedStringsXml) throws IOException;
+
+    /**
+     * @return the string at the passed 0-based index of the table.
+     */
+    String getString(int index);
+}
@@ -0,0 +1,475 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.JebtRecordSink;
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.parser.CompactRecordMap;
+import lib.jebt.parser.DataJournal;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JsonPathProjection;
+import lib.jebt.parser.JsonPathResolver;
+import lib.jebt.parser.ParsingUtils;
+import lib.jebt.parser.TextTemplateAutomaton;
+import lib.jebt.parser.Token;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts data from one document sheet, matching it with the tokens of its template sheet.
+ * It holds all the state of the extraction, so that sheets can be extracted concurrently, each with its own SheetExtractor.
+ * <p>
+ * Other tabular documents are extracted the same way, once read through a {@link SheetSource} (see {@link TabularExtractor}).
+ * </p>
+ */
+class SheetExtractor {
+
+    /**
+     * Signals a mismatch while a loop record is matched speculatively, where a mismatch is expected and just means that the loop is over.
+     * It's preallocated and has no stack trace, so that it costs nothing to throw.
+     */
+    private static final LoopMismatchException LOOP_MISMATCH = new LoopMismatchException();
+
+    private int loopDepth = 0;
+
+    private int rowIndex, columnIndex = -1;
+
+    // Changes made to data while matching loop records are recorded here, so that they can be rolled back if it's not a match.
+    private DataJournal journal = new DataJournal();
+
+    // Number of loop records currently being matched speculatively.
+    private int speculationDepth = 0;
+
+    // Template text cells compiled once, as they're matched against every record of the loops they're in.
+    private Map<Token, TextTemplateAutomaton> cellAutomatons = new IdentityHashMap<>();
+
+    private Map<Token, LoopRecordShape> recordShapes = new IdentityHashMap<>();
+
+    // Records of a loop are CompactRecordMap sharing the schemas derived from the root schema of the loop.
+    private Map<Token, CompactRecordMap.Schema> recordSchemas = new IdentityHashMap<>();
+
+    // When set, main loop records are passed to the sink instead of being stored in their collection.
+    private JebtRecordSink recordSink;
+
+    // When records are reused, the same Map is used for every main loop record passed to the sink.
+    private Map reusedRecord;
+
+    // The main loop record being matched, passed to the sink (or added to the columnar records) once it's a match.
+    private Map sinkRecord;
+
+    // When set, main loop collections are stored as ColumnarRecordList.
+    private boolean columnar;
+
+    // The collection of the main loop being matched, when it's stored by column.
+    private ColumnarRecordList columnarRecords;
+
+    // When set, only the values of these paths are stored.
+    private JsonPathProjection projection;
+
+    // Resolved paths of the items of the loops being matched, by loop item name.
+    private Map<String, String> loopItemPaths = new HashMap<>();
+
+    // Counted while extracting the sheet, and reported once it's extracted. Rolled back with the data.
+    private long rowCount, cellCount, loopIterationCount, backtrackCount;
+
+    private final JebtMetrics metrics = JebtMetrics.get();
+
+    private final boolean timingLoopRecords = metrics.isTimingLoopRecords();
+
+    SheetExtractor() {
+    }
+
+    /**
+     * @param recordSink if not null, receives main loop records, which are then not stored in their collection.
+     * @param reuseRecords true to pass the same Map for every record to the sink, cleared in-between.
+     * @param projection if not null, expressions outside of it are matched but never stored.
+     */
+    SheetExtractor(JebtRecordSink recordSink, boolean reuseRecords, JsonPathProjection projection) {
+        this(recordSink, reuseRecords, projection, false);
+    }
+
+    /**
+     * @param columnar true to store main loop collections as {@link ColumnarRecordList}, when there's no record sink.
+     */
+    SheetExtractor(JebtRecordSink recordSink, boolean reuseRecords, JsonPathProjection projection, boolean columnar) {
+        this.recordSink = recordSink;
+        this.columnar = columnar && recordSink == null;
+        // Columnar records are copied into their columns, so the record matched can always be reused.
+        this.reusedRecord = (recordSink != null && reuseRecords) || this.columnar ? new LinkedHashMap() : null;
+        this.projection = projection;
+    }
+
+    /**
+     * @param templateTokens the tokens of the template sheet, see {@link lib.jebt.parser.JebtXlsxTokenizer}.
+     */
+    void extractData(List<Token> templateTokens, SheetReader docSheetReader, Map data) {
+        for (Token templateToken : templateTokens) {
+            boolean shouldBreak = processSingleToken(templateToken, docSheetReader, data);
+            if (shouldBreak) {
+                break;
+            }
+        }
+
+        metrics.count(JebtMetrics.Counter.ROWS_MATCHED, rowCount);
+        metrics.count(JebtMetrics.Counter.CELLS_MATCHED, cellCount);
+        metrics.count(JebtMetrics.Counter.LOOP_ITERATIONS, loopIterationCount);
+        metrics.count(JebtMetrics.Counter.BACKTRACKS, backtrackCount);
+    }
+
+    /**
+     * @return the number of document rows matched so far.
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    private boolean processSingleToken(Token templateToken, SheetReader docSheetReader, Map data) {
+
+        Token.TokenType docType;
+
+        switch (templateToken.getType()) {
+            case END_OF_DOCUMENT:
+                // We reached the end of the template, so we stop even if there's extra data in the document Sheet. It'll be ignored.
+                return true;
+            case NEW_ROW:
+            case NEW_BLANK_ROW:
+                ++rowIndex;
+                columnIndex = -1;
+                // Should have same thing in document.
+                docType = docSheetReader.next();
+                if (docType != templateToken.getType()) {
+                    throwMismatch("Expected a New [BLANK] Row in the document but found a ", docType);
+                }
+                ++rowCount;
+                return false;
+            case NEW_NON_TEXT_CELL:
+                ++columnIndex;
+                // Should have same cell in document as non-text cell cannot contain expressions
+                docType = docSheetReader.next();
+                if (docType != Token.TokenType.NEW_NON_TEXT_CELL) {
+                    throwMismatch("Expected a non-text cell in the document but found a ", docType);
+                }
+                ++cellCount;
+                // We should also check that the contents are identical, but to be honest, we don't really care...
+                return false;
+            case NEW_BLANK_CELL:
+                ++columnIndex;
+                // Should also have a blank cell in document
+                docType = docSheetReader.next();
+                if (docType != Token.TokenType.NEW_BLANK_CELL) {
+                    throwMismatch("Expected a BLANK cell in the document but found a ", docType);
+                }
+                ++cellCount;
+                // We should also check that the contents are identical, but to be honest, we don't really care...
+                return false;
+            case NEW_TEXT_CELL:
+                ++columnIndex;
+                // Contents of the cells are considered as text and evaluated accordingly.
+                docType = docSheetReader.next();
+
+                if (docType != Token.TokenType.NEW_TEXT_CELL && docType != Token.TokenType.NEW_NON_TEXT_CELL && docType != Token.TokenType.NEW_BLANK_CELL) {
+                    throwMismatch("Expected a CELL in the document but found a ", docType);
+                }
+
+                getCellAutomaton(templateToken).extractData(docSheetReader.getValueAsString(), data, getJournal());
+                ++cellCount;
+                return false;
+            case LOOP:
+                // We try to map the loop inner tokens with the document tokens; every time we have a match, we record a loop.
+                JebtTextTokenizer.LoopToken loopToken = (JebtTextTokenizer.LoopToken)templateToken;
+
+                String collectionPath = JsonPathProjection.resolve(loopToken.getCollectionJsonPath(), loopItemPaths);
+                // When nothing in the collection is projected, records are matched without creating any item.
+                boolean stored = projection == null || projection.isTraversed(collectionPath);
+
+                if (stored) {
+                    if (columnar && loopDepth == 0 && new JsonPathResolver(data).evaluatePathToObject(loopToken.getCollectionJsonPath()) == null) {
+                        ParsingUtils.updateData(loopToken.getCollectionJsonPath(), new ColumnarRecordList(), data);
+                    }
+                    // We initialize the list here in order to have an empty JSONArray in our object even if the loop doesn't match anything in the document.
+                    // It's better than not having the JSONArray key appear in the generated JSON.
+                    List collection = ParsingUtils.initCollection(data, loopToken.getCollectionJsonPath(), -1, loopToken.getLoopItemName(), getJournal());
+                    if (loopDepth == 0 && collection instanceof ColumnarRecordList && ((ColumnarRecordList)collection).isColumnar() && collection.isEmpty()) {
+                        // Records can only be appended to the columns, so collections that already have records are filled as usual.
+                        columnarRecords = (ColumnarRecordList)collection;
+                    }
+                }
+
+                String outerItemPath = loopItemPaths.put(loopToken.getLoopItemName(), collectionPath + JsonPathProjection.WILDCARD);
+                try {
+                    matchLoopRecords(loopToken, stored, docSheetReader, data);
+                } finally {
+                    if (loopDepth == 0) {
+                        columnarRecords = null;
+                    }
+                    if (outerItemPath == null) {
+                        loopItemPaths.remove(loopToken.getLoopItemName());
+                    } else {
+                        loopItemPaths.put(loopToken.getLoopItemName(), outerItemPath);
+                    }
+                }
+                // As soon as we don't have a match, we consider the loop is over and we move on to the rest of the template.
+                return false;
+            default:
+                throwError("Do not expect token "+templateToken.getType()+" while parsing Excel template");
+                return true;
+        }
+    }
+
+    /**
+     * Matches records of the loop against the document, until one doesn't match.
+     */
+    private void matchLoopRecords(JebtTextTokenizer.LoopToken loopToken, boolean stored, SheetReader docSheetReader, Map data) {
+        int loopedBeanIndex = 0;
+
+        boolean isFirst = true;
+
+        ++loopDepth;
+
+        // Potentially matching records have the same sequence of NEW_ROW and NEW_BLANK_ROW as the loop inner tokens.
+        // Inner loops cannot contain new rows, so their records are looked for until the end of the current row.
+        List<Token.TokenType> rowTypes = loopDepth == 1 ? getRowTypes(loopToken.getLoopTokens()) : Collections.<Token.TokenType>emptyList();
+
+        // Main loop records that don't have the shape of the loop body are rejected before trying to match them.
+        LoopRecordShape recordShape = loopDepth == 1 ? getRecordShape(loopToken) : null;
+
+        boolean matched;
+        do {
+            long recordStart = timingLoopRecords ? System.nanoTime() : 0;
+            int recordMark = docSheetReader.mark();
+
+            boolean isNewRow = false;
+            if (isFirst) {
+                isFirst = false;
+            } else if (loopDepth == 1) {
+                // There's a new Row between each main loop match, so we'll read it first.
+                docSheetReader.next();
+                isNewRow = true;
+            }
+
+            int candidatesEnd = getLoopCandidatesEnd(rowTypes, docSheetReader);
+
+            matched = candidatesEnd >= 0 && (recordShape == null || recordShape.matches(docSheetReader, candidatesEnd))
+                    && tryLoopMatch(loopToken, stored, docSheetReader, candidatesEnd, data, loopedBeanIndex);
+
+            if (timingLoopRecords) {
+                metrics.loopRecordCompleted(loopToken.getCollectionJsonPath(), loopedBeanIndex, matched, System.nanoTime() - recordStart);
+            }
+
+            if (matched) {
+                if (loopDepth == 1 && columnarRecords != null) {
+                    columnarRecords.addRecord(sinkRecord);
+                    sinkRecord = null;
+                } else if (loopDepth == 1 && recordSink != null && stored) {
+                    // Called once the match is complete, so that failures of the sink aren't taken for mismatches.
+                    recordSink.accept(loopToken.getCollectionJsonPath(), loopedBeanIndex, sinkRecord);
+                    sinkRecord = null;
+                }
+                if (loopDepth == 1) {
+                    // Whatever is left in the main loop record isn't part of the match and is ignored.
+                    docSheetReader.seek(candidatesEnd);
+                }
+                // For inner loops, whatever wasn't part of the match is read again.
+                docSheetReader.release(recordMark);
+                ++loopedBeanIndex;
+                ++loopIterationCount;
+                if (isNewRow) {
+                    ++rowCount;
+                }
+            } else {
+                // Not a match, let's pretend nothing happened and move on.
+                docSheetReader.rewind(recordMark);
+            }
+        } while (matched);
+
+        --loopDepth;
+    }
+
+    /**
+     * Matches inner tokens of the Loop token against the document, up to the candidates end, in a single speculative pass:
+     * data is updated as we go and all changes are recorded in the journal, to be rolled back if it's not a match.
+     *
+     * @return true if it's a match, false otherwise (and then data and reader state are left as they were).
+     */
+    private boolean tryLoopMatch(JebtTextTokenizer.LoopToken loopToken, boolean stored, SheetReader docSheetReader, int candidatesEnd, Map data,
+                                 int loopedBeanIndex)
+    {
+        int journalMark = journal.mark();
+        int readerMark = docSheetReader.mark();
+        int previousLimit = docSheetReader.setLimit(candidatesEnd);
+        int savedRowIndex = rowIndex;
+        int savedColumnIndex = columnIndex;
+        int savedLoopDepth = loopDepth;
+        long savedRowCount = rowCount;
+        long savedCellCount = cellCount;
+        long savedLoopIterationCount = loopIterationCount;
+
+        ++speculationDepth;
+        try {
+            if (!stored) {
+                for (Token loopInnerToken : loopToken.getLoopTokens()) {
+                    processSingleToken(loopInnerToken, docSheetReader, data);
+                }
+            } else if (loopDepth == 1 && (recordSink != null || columnarRecords != null)) {
+                // The record is only made available to context, it won't be stored in the collection.
+                if (reusedRecord != null) {
+                    reusedRecord.clear();
+                    sinkRecord = reusedRecord;
+                } else {
+                    sinkRecord = new CompactRecordMap(getRecordSchema(loopToken));
+                }
+                journal.put(data, loopToken.getLoopItemName(), sinkRecord);
+
+                for (Token loopInnerToken : loopToken.getLoopTokens()) {
+                    processSingleToken(loopInnerToken, docSheetReader, data);
+                }
+            } else {
+                List loopedCollectionList = ParsingUtils.initCollection(data, loopToken.getCollectionJsonPath(),
+                        loopedBeanIndex, loopToken.getLoopItemName(), journal, getRecordSchema(loopToken));
+
+                for (Token loopInnerToken : loopToken.getLoopTokens()) {
+                    processSingleToken(loopInnerToken, docSheetReader, data);
+                }
+
+                // Now that parsing of one item has been completed we need to retrieve it, store it in data and clean the context
+                journal.set(loopedCollectionList, loopedBeanIndex, data.get(loopToken.getLoopItemName()));
+            }
+            if (stored) {
+                journal.remove(data, loopToken.getLoopItemName());
+            }
+
+            journal.commit(journalMark);
+            docSheetReader.release(readerMark);
+            return true;
+        } catch (RuntimeException e) {
+            // Either a LOOP_MISMATCH, or a failure to match the text of a cell: anyway, it's not a match.
+            journal.rollback(journalMark);
+            docSheetReader.rewind(readerMark);
+            rowIndex = savedRowIndex;
+            columnIndex = savedColumnIndex;
+            loopDepth = savedLoopDepth;
+            rowCount = savedRowCount;
+            cellCount = savedCellCount;
+            loopIterationCount = savedLoopIterationCount;
+            ++backtrackCount;
+            return false;
+        } finally {
+            docSheetReader.setLimit(previousLimit);
+            --speculationDepth;
+        }
+    }
+
+    private LoopRecordShape getRecordShape(JebtTextTokenizer.LoopToken loopToken) {
+        LoopRecordShape recordShape = recordShapes.get(loopToken);
+        if (recordShape == null) {
+            recordShape = LoopRecordShape.compile(loopToken.getLoopTokens());
+            recordShapes.put(loopToken, recordShape);
+        }
+        return recordShape;
+    }
+
+    private CompactRecordMap.Schema getRecordSchema(JebtTextTokenizer.LoopToken loopToken) {
+        CompactRecordMap.Schema recordSchema = recordSchemas.get(loopToken);
+        if (recordSchema == null) {
+            recordSchema = CompactRecordMap.Schema.root();
+            recordSchemas.put(loopToken, recordSchema);
+        }
+        return recordSchema;
+    }
+
+    private TextTemplateAutomaton getCellAutomaton(Token templateToken) {
+        TextTemplateAutomaton automaton = cellAutomatons.get(templateToken);
+        if (automaton == null) {
+            // A cell token is always matched within the same loops, so it's compiled with the current loop item paths.
+            automaton = TextTemplateAutomaton.compile(new JebtTextTokenizer(new StringReader(templateToken.getCellText())),
+                    projection, loopItemPaths);
+            cellAutomatons.put(templateToken, automaton);
+        }
+        return automaton;
+    }
+
+    /**
+     * @return the journal if we're matching loop records speculatively, null otherwise.
+     */
+    private DataJournal getJournal() {
+        return speculationDepth > 0 ? journal : null;
+    }
+
+    /**
+     * @return the types of the NEW_ROW and NEW_BLANK_ROW tokens of the passed tokens.
+     */
+    private List<Token.TokenType> getRowTypes(List<Token> tokens) {
+        List<Token.TokenType> rowTypes = new ArrayList<>();
+        for (Token token : tokens) {
+            if (token.getType() == Token.TokenType.NEW_ROW || token.getType() == Token.TokenType.NEW_BLANK_ROW) {
+                rowTypes.add(token.getType());
+            }
+        }
+        return rowTypes;
+    }
+
+    /**
+     * Looks ahead for a potentially matching record: it has the passed sequence of NEW_ROW or NEW_BLANK_ROW, with any number of cells in-between.
+     * The reader is left at the position it was passed.
+     *
+     * @return the position right after the potentially matching record (the last ROW token isn't part of it), or -1 if there's none.
+     */
+    private int getLoopCandidatesEnd(List<Token.TokenType> rowTypes, SheetReader docSheetReader) {
+        int start = docSheetReader.mark();
+
+        Token.TokenType t = skipNonRowsTokens(docSheetReader);
+
+        for (Token.TokenType rowType : rowTypes) {
+            if (t != rowType && t != Token.TokenType.END_OF_DOCUMENT) {
+                // Not a match!
+                docSheetReader.rewind(start);
+                return -1;
+            }
+
+            t = skipNonRowsTokens(docSheetReader);
+        }
+
+        // last matching ROW token should not be included in the matching Tokens (END_OF_DOCUMENT doesn't move the reader)
+        int end = t == Token.TokenType.END_OF_DOCUMENT ? docSheetReader.getPosition() : docSheetReader.getPosition() - 1;
+
+        docSheetReader.rewind(start);
+
+        return end;
+    }
+
+    /**
+     * Moves the reader until hitting a ROW or END_OF_DOCUMENT, and returns its type.
+     */
+    private Token.TokenType skipNonRowsTokens(SheetReader sheetReader) {
+        Token.TokenType t;
+        while ((t = sheetReader.next()) != Token.TokenType.END_OF_DOCUMENT && t != Token.TokenType.NEW_ROW && t != Token.TokenType.NEW_BLANK_ROW) {
+        }
+        return t;
+    }
+
+    /**
+     * While matching loop records speculatively, a mismatch is signalled without building any error message.
+     */
+    private void throwMismatch(String errorMessage, Token.TokenType docType) {
+        if (speculationDepth > 0) {
+            throw LOOP_MISMATCH;
+        }
+        throwError(errorMessage + docType);
+    }
+
+    private void throwError(String errorMessage) {
+        errorMessage = errorMessage + " / RowIndex:"+rowIndex+":ColumnIndex:"+columnIndex;
+        throw new RuntimeException(errorMessage);
+    }
+
+    private static class LoopMismatchException extends RuntimeException {
+        LoopMismatchException() {
+            super("Loop record mismatch", null, false, false);
+        }
+    }
+}
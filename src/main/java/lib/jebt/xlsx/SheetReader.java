@@ -2,191 +2,306 @@ package lib.jebt.xlsx;
 
 import lib.jebt.parser.Token;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
- * This class will read an Excel Sheet row by row and cell by cell, always forward, just like a tokenizer except it doesn't care about loops and comments as it's using excel-streaming-reader.
- * It is needed to capture empty rows and empty cells, we cannot use excel-stream-reader directly.
- * It will only return NEW_NON_TEXT_CELL, NEW_TEXT_CELL, EOD and NEW_ROW tokens. No EXPRESSION, no LOOP, no TEXT.
+ * This class will read an Excel Sheet row by row and cell by cell, just like a tokenizer except it doesn't care about loops and comments.
+ * Rows and cells come from a {@link SheetSource} (a POI Sheet from excel-streaming-reader, or the sheet XML itself).
+ * It is needed to capture empty rows and empty cells, we cannot use the sources directly.
+ * It will only return NEW_NON_TEXT_CELL, NEW_TEXT_CELL, NEW_BLANK_CELL, END_OF_DOCUMENT, NEW_ROW and NEW_BLANK_ROW types. No EXPRESSION, no LOOP, no TEXT.
+ * <p>
+ * It works as a cursor: {@link #next()} moves to the next cell or row and returns its type, the cell is then available through {@link #getCell()}.
+ * Everything read is kept in a growable ring of primitive descriptors (type, row, column and cell reference), so that
+ * lookahead and backtracking with {@link #mark()} / {@link #rewind(int)} cost no allocation beyond the first read.
+ * </p>
  */
 public class SheetReader {
 
-    private Deque<Token> injectedTokens = new LinkedList<>();
+    private static final Token.TokenType[] TOKEN_TYPES = Token.TokenType.values();
 
-    private Iterator<Row> rowIterator;
+    // Ring of descriptors. An absolute position p is stored at index (p & mask).
+    private byte[] types = new byte[64];
 
-    private Row currentRow;
+    private int[] rows = new int[64];
 
-    private Cell currentCell;
+    private int[] columns = new int[64];
 
-    private int expectedRowIndex = -1;
+    private Object[] values = new Object[64];
 
-    private int expectedColumnIndex = -1;
+    private int mask = 63;
 
-    private boolean isFirstCell = true;
+    // Absolute position of the next descriptor to return.
+    private int position = 0;
 
-    private Iterator<Cell> cellIterator;
+    // Absolute position after the last descriptor read from the sheet.
+    private int end = 0;
+
+    // Absolute position of the last returned descriptor.
+    private int current = -1;
+
+    // Reading at or after this position returns END_OF_DOCUMENT.
+    private int limit = Integer.MAX_VALUE;
+
+    // Marked positions, oldest first. Descriptors after the oldest mark are retained.
+    private int[] marks = new int[8];
+
+    private int markCount = 0;
+
+    private final SheetSource source;
+
+    private boolean sourceExhausted = false;
+
+    private final SheetRowHandler rowHandler = new SheetRowHandler();
 
     public SheetReader(Sheet docSheet) {
-        rowIterator = docSheet.iterator();
-        expectedRowIndex = 0;
+        this(new PoiSheetSource(docSheet, new CellValueConverter(CellValueConverter.DEFAULT_DATE_PATTERN)));
+    }
+
+    public SheetReader(SheetSource source) {
+        this.source = source;
     }
 
     /**
-     * This constructor is used to read an existing list of tokens.
+     * Moves to the next cell or row.
+     * @return its type, or END_OF_DOCUMENT if the sheet (or the current limit) is reached. END_OF_DOCUMENT doesn't move the cursor.
      */
-    public SheetReader(List<Token> tokens) {
-        rowIterator = null;
-        expectedRowIndex = 0;
-        reinjectTokens(tokens);
+    public Token.TokenType next() {
+        if (position >= limit || (position == end && !fill())) {
+            current = -1;
+            return Token.TokenType.END_OF_DOCUMENT;
+        }
+        current = position++;
+        return TOKEN_TYPES[types[current & mask]];
     }
 
     /**
-     * Reinjected tokens will be returned again by this reader as if they were read for the first time.
-     * The first item of the lastly injected collection will be returned next.
+     * @return the POI cell returned by the last call to {@link #next()}, or null if it wasn't a cell, if it's a blank cell missing from the sheet,
+     * or if the source doesn't read POI cells.
      */
-    public void reinjectTokens(Collection<Token> tokens) {
-        Stack<Token> stack = new Stack<>();
-        for (Token t : tokens) {
-            stack.add(t);
-        }
+    public Cell getCell() {
+        Object value = getValue();
+        return value instanceof Cell ? (Cell)value : null;
+    }
 
-        while (!stack.empty()) {
-            injectedTokens.addFirst(stack.pop());
-        }
+    /**
+     * @return the value of the cell returned by the last call to {@link #next()}, as provided by the source, or null.
+     */
+    public Object getValue() {
+        return current < 0 ? null : values[current & mask];
     }
 
     /**
-     * Reinjected tokens will be returned again by this reader as if they were read for the first time.
-     * If this method is called multiple times, the lastly injected token will be returned first upon following read.
+     * @return the text of the cell returned by the last call to {@link #next()}, or an empty String if it's not a cell or a blank cell missing from the sheet.
      */
-    public void reinjectToken(Token token) {
-            injectedTokens.addFirst(token);
+    public String getValueAsString() {
+        Object value = getValue();
+        return value == null ? "" : source.getValueAsString(value);
     }
 
-    public Token readNext() {
+    /**
+     * @return the 0-based row index of the last cell or row returned by {@link #next()}.
+     */
+    public int getRowIndex() {
+        return current < 0 ? -1 : rows[current & mask];
+    }
 
-        // We don't want to return NEW_BLANK_CELL if the whole line is blank, instead we'll return NEW_BLANK_ROW
-
-        Token t = doReadToken();
-
-        if (t.getType() == Token.TokenType.NEW_ROW) {
-            // Let's read following cells, if they are all NEW_BLANK_CELL until next NEW row, this is a NEW_BLANK_ROW.
-            List<Token> rowCells = new ArrayList<>();
-            boolean hasOnlyBlankCells = true;
-            do {
-                Token rowToken = doReadToken();
-                rowCells.add(rowToken);
-                if (rowToken.getType() == Token.TokenType.NEW_ROW || rowToken == Token.EOD) {
-                    // We only had blank cells until now, so this is a blank row instead of a new row.
-                    // We ignore any blank cell already read and only reinject the NEW_ROW token.
-                    reinjectToken(rowToken);
-                    return new Token(Token.TokenType.NEW_BLANK_ROW, null);
-                } else if (rowToken.getType() == Token.TokenType.NEW_BLANK_CELL) {
-                    // this is a blank cell, so let's continue.
-                    continue;
-                } else {
-                    // Not an empty cell, so this is a normal NEW_ROW.
-                    reinjectTokens(rowCells);
-                    return t;
-                }
+    /**
+     * @return the 0-based column index of the last cell returned by {@link #next()}, -1 for rows.
+     */
+    public int getColumnIndex() {
+        return current < 0 ? -1 : columns[current & mask];
+    }
 
-            } while (true);
+    /**
+     * Reads the next token. This allocates a Token, {@link #next()} should be preferred.
+     */
+    public Token readNext() {
+        Token.TokenType type = next();
+        switch (type) {
+            case END_OF_DOCUMENT:
+                return Token.EOD;
+            case NEW_ROW:
+            case NEW_BLANK_ROW:
+                return new Token(type, null);
+            default:
+                if (getCell() != null || getValue() == null) {
+                    return new Token(getCell());
+                }
+                return new Token(type, getValueAsString());
         }
+    }
 
-        return t;
+    /**
+     * @return the absolute position of the next descriptor to read.
+     */
+    public int getPosition() {
+        return position;
     }
 
-    private Token doReadToken() {
-        if (!injectedTokens.isEmpty()) {
-            return injectedTokens.remove();
+    /**
+     * Marks the current position: everything read after it is kept so that we can go back to it.
+     * Marks must be released (by {@link #rewind(int)} or {@link #release(int)}) in reverse order.
+     * @return the marked position.
+     */
+    public int mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, markCount * 2);
         }
+        marks[markCount++] = position;
+        return position;
+    }
 
-        // We read the next cell if there's a next cell to return.
+    /**
+     * Goes back to the marked position, and releases the mark.
+     */
+    public void rewind(int mark) {
+        release(mark);
+        position = mark;
+        current = -1;
+    }
 
-        Token t = readNextCell();
+    /**
+     * Releases the mark without moving.
+     */
+    public void release(int mark) {
+        if (markCount == 0 || marks[markCount - 1] != mark) {
+            throw new IllegalStateException("Marks must be released in reverse order");
+        }
+        --markCount;
+    }
 
-        if (t != null) {
-            return t;
+    /**
+     * Moves to an absolute position already read, and still retained by a mark.
+     */
+    public void seek(int newPosition) {
+        if (newPosition > end || newPosition < getRetainedStart()) {
+            throw new IllegalStateException("Cannot seek to position " + newPosition + " which isn't retained");
         }
+        position = newPosition;
+        current = -1;
+    }
 
-        return readNextRow();
+    /**
+     * Reading at or after the passed absolute position will return END_OF_DOCUMENT, until the limit is changed again.
+     * @return the previous limit, so that it can be restored.
+     */
+    public int setLimit(int newLimit) {
+        int previousLimit = limit;
+        limit = newLimit;
+        return previousLimit;
     }
 
-    private Token readNextRow() {
+    private int getRetainedStart() {
+        return markCount > 0 ? Math.min(marks[0], position) : position;
+    }
 
-        if (rowIterator == null) {
-            return Token.EOD;
+    /**
+     * Reads the next row of the source, and appends its descriptors to the ring.
+     * @return false if the end of the sheet was reached.
+     */
+    private boolean fill() {
+        if (sourceExhausted) {
+            return false;
         }
 
-        if (currentRow != null) {
-            if (expectedRowIndex < currentRow.getRowNum()) {
-                // Empty rows are skipped by rowIterator but they are rows nonetheless that should be returned by the reader.
-                ++expectedRowIndex;
-                return new Token(Token.TokenType.NEW_ROW, null);
-            } else {
-                // Current row is the right active one, let's read cells.
-                ++expectedRowIndex;
-                cellIterator = currentRow.cellIterator();
-                expectedColumnIndex = 0;
-                currentRow = null;
-                return new Token(Token.TokenType.NEW_ROW, null);
-            }
-        } else {
-            if (!rowIterator.hasNext()) {
-                // This sheet has no more rows.
-                rowIterator = null;
-                return Token.EOD;
-            } else {
-                // Fetch next row and try again
-                currentRow = rowIterator.next();
-                currentCell = null;
-                cellIterator = null;
-                expectedColumnIndex = 0;
-                return readNext();
-            }
+        if (!source.readRow(rowHandler)) {
+            // This sheet has no more rows.
+            sourceExhausted = true;
+            return false;
         }
+
+        rowHandler.endRow();
+        return true;
     }
 
-    private Token readNextCell() {
+    private void append(Token.TokenType type, int row, int column, Object value) {
+        int retainedStart = getRetainedStart();
+        if (end - retainedStart == types.length) {
+            grow(retainedStart);
+        }
+
+        int index = end & mask;
+        types[index] = (byte)type.ordinal();
+        rows[index] = row;
+        columns[index] = column;
+        values[index] = value;
+        ++end;
+    }
 
-        if (cellIterator == null) {
-            return null;
+    private void grow(int retainedStart) {
+        int newLength = types.length * 2;
+        int newMask = newLength - 1;
+        byte[] newTypes = new byte[newLength];
+        int[] newRows = new int[newLength];
+        int[] newColumns = new int[newLength];
+        Object[] newValues = new Object[newLength];
+
+        for (int p = retainedStart; p < end; p++) {
+            newTypes[p & newMask] = types[p & mask];
+            newRows[p & newMask] = rows[p & mask];
+            newColumns[p & newMask] = columns[p & mask];
+            newValues[p & newMask] = values[p & mask];
         }
 
+        types = newTypes;
+        rows = newRows;
+        columns = newColumns;
+        values = newValues;
+        mask = newMask;
+    }
 
-        if (currentCell != null) {
-            if (expectedColumnIndex < currentCell.getColumnIndex()) {
-                // Empty cells are skipped by cellIterator but they are cells nonetheless that should be returned by the reader.
-                ++expectedColumnIndex;
-                return new Token(null);
-            } else {
-                // Current cell is the one we want to return.
-                Cell goodCell = currentCell;
+    /**
+     * Appends the rows and cells read by the source, adding the missing blank ones.
+     */
+    private class SheetRowHandler implements SheetSource.RowHandler {
+
+        private int expectedRowIndex = 0;
+
+        private int expectedColumnIndex;
+
+        private int rowPosition;
+
+        private boolean hasOnlyBlankCells;
+
+        public void startRow(int rowIndex) {
+            // Empty rows are skipped by sources but they are rows nonetheless that should be returned by the reader.
+            while (expectedRowIndex < rowIndex) {
+                append(Token.TokenType.NEW_BLANK_ROW, expectedRowIndex, -1, null);
+                ++expectedRowIndex;
+            }
+
+            rowPosition = end;
+            append(Token.TokenType.NEW_ROW, expectedRowIndex, -1, null);
+
+            hasOnlyBlankCells = true;
+            expectedColumnIndex = 0;
+        }
+
+        public void cell(int columnIndex, Token.TokenType type, Object value) {
+            // Empty cells are skipped by sources but they are cells nonetheless that should be returned by the reader.
+            while (expectedColumnIndex < columnIndex) {
+                append(Token.TokenType.NEW_BLANK_CELL, expectedRowIndex, expectedColumnIndex, null);
                 ++expectedColumnIndex;
-                if (cellIterator.hasNext()) {
-                    // Read next cell and return this one.
-                    currentCell = cellIterator.next();
-                    return new Token(goodCell);
-                } else {
-                    // There's no more cells to read
-                    cellIterator = null;
-                    currentCell = null;
-                    return new Token(goodCell);
-                }
             }
-        } else {
-            if (!cellIterator.hasNext()) {
-                // This row has no cells.
-                return null;
-            } else {
-                // Fetch next cell and try again
-                currentCell = cellIterator.next();
-                return readNext();
+
+            hasOnlyBlankCells &= type == Token.TokenType.NEW_BLANK_CELL;
+            append(type, expectedRowIndex, expectedColumnIndex, value);
+            ++expectedColumnIndex;
+        }
+
+        void endRow() {
+            if (hasOnlyBlankCells) {
+                // We don't return NEW_BLANK_CELL if the whole line is blank, instead we return a NEW_BLANK_ROW
+                for (int p = rowPosition + 1; p < end; p++) {
+                    values[p & mask] = null;
+                }
+                end = rowPosition + 1;
+                types[rowPosition & mask] = (byte)Token.TokenType.NEW_BLANK_ROW.ordinal();
             }
+
+            ++expectedRowIndex;
         }
     }
 }
@@ -0,0 +1,41 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.Token;
+
+/**
+ * Where a {@link SheetReader} reads its rows and cells from: a POI Sheet, or directly the XML of a document sheet.
+ * <p>
+ * A source only has to report the rows and cells actually stored in the sheet, the {@link SheetReader} takes care of the missing (blank) ones.
+ * </p>
+ */
+public interface SheetSource {
+
+    /**
+     * Reads the next row of the sheet, passing it and its cells, in order, to the handler.
+     * @return false if the end of the sheet was reached.
+     */
+    boolean readRow(RowHandler handler);
+
+    /**
+     * @return the text of a cell value passed to {@link RowHandler#cell(int, Token.TokenType, Object)}, as it should be matched against the template.
+     */
+    String getValueAsString(Object value);
+
+    /**
+     * Receives the rows and cells read by a {@link SheetSource}.
+     */
+    interface RowHandler {
+
+        /**
+         * Starts a new row. Rows must come in increasing 0-based index order.
+         */
+        void startRow(int rowIndex);
+
+        /**
+         * Adds a cell to the current row. Cells must come in increasing 0-based column index order.
+         * @param type NEW_BLANK_CELL, NEW_TEXT_CELL or NEW_NON_TEXT_CELL.
+         * @param value anything the source can turn into text with {@link SheetSource#getValueAsString(Object)}.
+         */
+        void cell(int columnIndex, Token.TokenType type, Object value);
+    }
+}
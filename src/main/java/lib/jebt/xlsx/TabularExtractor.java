@@ -0,0 +1,34 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.JebtRecordSink;
+import lib.jebt.parser.JsonPathProjection;
+import lib.jebt.parser.Token;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts data from tabular documents other than XLSX (e.g. {@link lib.jebt.csv.JebtCsvReader}), matching their rows and cells
+ * against a template sheet just like XLSX sheets are.
+ */
+public final class TabularExtractor {
+
+    private TabularExtractor() {
+    }
+
+    /**
+     * @param templateTokens the tokens of the template sheet, see {@link lib.jebt.parser.JebtXlsxTokenizer}, without the final Token.EOD.
+     * @param documentSource the rows and cells of the document.
+     * @param recordSink if not null, receives main loop records, which are then not stored in their collection.
+     * @param reuseRecords true to pass the same Map for every record to the sink, cleared in-between.
+     * @param projection if not null, expressions outside of it are matched but never stored.
+     * @param data where extracted data is stored.
+     * @return the number of document rows read.
+     */
+    public static long extract(List<Token> templateTokens, SheetSource documentSource, JebtRecordSink recordSink, boolean reuseRecords,
+                               JsonPathProjection projection, Map data) {
+        SheetExtractor extractor = new SheetExtractor(recordSink, reuseRecords, projection);
+        extractor.extractData(templateTokens, new SheetReader(documentSource), data);
+        return extractor.getRowCount();
+    }
+}
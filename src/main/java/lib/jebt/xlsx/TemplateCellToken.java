@@ -0,0 +1,87 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JebtXlsxTokenizer;
+import lib.jebt.parser.Token;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A cell token of a template sheet, holding everything {@link JebtXlsxWriter} copies from the template cell: its type, value and style index.
+ * Writers never go back to the template cell, so tokens read once can be used by writers running concurrently,
+ * each one mapping the style index to the styles of its own document workbook.
+ */
+class TemplateCellToken extends Token {
+
+    private final CellType cellType;
+
+    private final short styleIndex;
+
+    private final boolean booleanValue;
+
+    private final double numericValue;
+
+    private final String formula;
+
+    private TemplateCellToken(Cell cell) {
+        super(getCellTokenType(cell), cell.getCellTypeEnum() == CellType.STRING || cell.getCellTypeEnum() == CellType.FORMULA ? cell.getStringCellValue() : null);
+        this.cellType = cell.getCellTypeEnum();
+        this.styleIndex = cell.getCellStyle().getIndex();
+        this.booleanValue = cellType == CellType.BOOLEAN && cell.getBooleanCellValue();
+        this.numericValue = cellType == CellType.NUMERIC ? cell.getNumericCellValue() : 0;
+        this.formula = cellType == CellType.FORMULA ? cell.getCellFormula() : null;
+    }
+
+    /**
+     * @return all the tokens of the template sheet, without EOD. Loops hold their inner tokens, and cells are read into TemplateCellTokens.
+     */
+    static List<Token> readSheetTokens(XSSFSheet templateSheet) {
+        List<Token> tokens = new ArrayList<>();
+        JebtXlsxTokenizer tokenizer = new JebtXlsxTokenizer(templateSheet);
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            tokens.add(detach(token));
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    private static Token detach(Token token) {
+        if (token.getType() == TokenType.LOOP) {
+            JebtTextTokenizer.LoopToken loop = (JebtTextTokenizer.LoopToken)token;
+            JebtTextTokenizer.LoopToken detachedLoop = new JebtTextTokenizer.LoopToken(loop.getText());
+            for (Token innerToken : loop.getLoopTokens()) {
+                detachedLoop.addLoopInnerToken(detach(innerToken));
+            }
+            return detachedLoop;
+        } else if (token.getCell() != null) {
+            return new TemplateCellToken(token.getCell());
+        }
+        // Rows, and blank cells missing from the template, don't refer to it.
+        return token;
+    }
+
+    public CellType getCellType() {
+        return cellType;
+    }
+
+    public short getStyleIndex() {
+        return styleIndex;
+    }
+
+    public boolean getBooleanValue() {
+        return booleanValue;
+    }
+
+    public double getNumericValue() {
+        return numericValue;
+    }
+
+    public String getFormula() {
+        return formula;
+    }
+}
@@ -0,0 +1,282 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.Token;
+import lib.jebt.parser.XlsxTemplateSheet;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackageRelationshipTypes;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An XLSX template loaded for reading documents, without building any POI workbook.
+ * <p>
+ * Only the workbook sheets list, the shared strings, the sheets XML and their comments parts are read, with StAX.
+ * Each cell is kept as its token type and, for text cells, its text: that's all {@link lib.jebt.parser.JebtXlsxTokenizer} needs.
+ * Templates are never modified by tokenizing them, so they can be shared by several readers and threads.
+ * Templates used to write documents still have to be loaded as XSSFWorkbook.
+ * </p>
+ */
+public class XlsxTemplate {
+
+    private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private List<String> sheetNames = new ArrayList<>();
+
+    private List<TemplateSheet> sheets = new ArrayList<>();
+
+    private XlsxTemplate() {
+    }
+
+    public static XlsxTemplate load(File templateFile) throws IOException {
+        try {
+            OPCPackage templatePackage = OPCPackage.open(templateFile, PackageAccess.READ);
+            try {
+                return load(templatePackage);
+            } finally {
+                // Opened read-only, so there's nothing to save.
+                templatePackage.revert();
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("Cannot open template " + templateFile, e);
+        }
+    }
+
+    /**
+     * The stream isn't closed by this method.
+     */
+    public static XlsxTemplate load(InputStream templateIS) throws IOException {
+        try {
+            OPCPackage templatePackage = OPCPackage.open(templateIS);
+            try {
+                return load(templatePackage);
+            } finally {
+                templatePackage.revert();
+            }
+        } catch (InvalidFormatException e) {
+            throw new IOException("Cannot open template", e);
+        }
+    }
+
+    private static XlsxTemplate load(OPCPackage templatePackage) throws IOException, InvalidFormatException {
+        XlsxTemplate template = new XlsxTemplate();
+
+        InMemorySharedStringsStore sharedStrings = new InMemorySharedStringsStore();
+        List<PackagePart> sharedStringsParts = templatePackage.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+        if (!sharedStringsParts.isEmpty()) {
+            InputStream sharedStringsIS = sharedStringsParts.get(0).getInputStream();
+            try {
+                sharedStrings.load(sharedStringsIS);
+            } finally {
+                sharedStringsIS.close();
+            }
+        }
+
+        PackagePart workbookPart = templatePackage.getPart(templatePackage.getRelationshipsByType(PackageRelationshipTypes.CORE_DOCUMENT).getRelationship(0));
+
+        try {
+            // Sheets in the workbook order, each with the id of its relationship.
+            List<String> names = new ArrayList<>();
+            List<String> relationshipIds = new ArrayList<>();
+            InputStream workbookIS = workbookPart.getInputStream();
+            try {
+                XMLStreamReader reader = OoxmlText.createXMLStreamReader(workbookIS);
+                try {
+                    while (reader.hasNext()) {
+                        if (reader.next() == XMLStreamConstants.START_ELEMENT && "sheet".equals(reader.getLocalName())) {
+                            names.add(reader.getAttributeValue(null, "name"));
+                            relationshipIds.add(reader.getAttributeValue(RELATIONSHIPS_NAMESPACE, "id"));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                workbookIS.close();
+            }
+
+            for (int i = 0; i < names.size(); i++) {
+                PackagePart sheetPart = workbookPart.getRelatedPart(workbookPart.getRelationship(relationshipIds.get(i)));
+                template.sheetNames.add(names.get(i));
+                template.sheets.add(readSheet(sheetPart, sharedStrings));
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read template", e);
+        }
+
+        return template;
+    }
+
+    public int getNumberOfSheets() {
+        return sheets.size();
+    }
+
+    public String getSheetName(int sheetIndex) {
+        return sheetNames.get(sheetIndex);
+    }
+
+    /**
+     * @return the sheet at the passed index, to be tokenized. Each call returns a new sheet, as tokenizing removes loop tags from the comments.
+     */
+    public XlsxTemplateSheet getSheet(int sheetIndex) {
+        return new TemplateSheet(sheets.get(sheetIndex));
+    }
+
+    private static TemplateSheet readSheet(PackagePart sheetPart, SharedStringsStore sharedStrings) throws IOException, InvalidFormatException, XMLStreamException {
+        final TemplateSheet sheet = new TemplateSheet();
+
+        InputStream sheetIS = sheetPart.getInputStream();
+        try {
+            // Numbers are never matched against the document, so they're formatted without styles.
+            SheetSource source = new XmlSheetSource(sheetIS, sharedStrings, new CellValueConverter(CellValueConverter.DEFAULT_DATE_PATTERN));
+            SheetSource.RowHandler handler = new SheetSource.RowHandler() {
+                private TemplateRow row;
+
+                @Override public void startRow(int rowIndex) {
+                    row = new TemplateRow();
+                    sheet.rows.put(rowIndex, row);
+                    sheet.lastRowNum = Math.max(sheet.lastRowNum, rowIndex);
+                }
+
+                @Override public void cell(int columnIndex, Token.TokenType type, Object value) {
+                    row.setCell(columnIndex, type, type == Token.TokenType.NEW_TEXT_CELL ? (String)value : null);
+                }
+            };
+            while (source.readRow(handler)) {
+            }
+        } finally {
+            sheetIS.close();
+        }
+
+        for (PackageRelationship relationship : sheetPart.getRelationshipsByType(XSSFRelation.SHEET_COMMENTS.getRelation())) {
+            InputStream commentsIS = sheetPart.getRelatedPart(relationship).getInputStream();
+            try {
+                readComments(commentsIS, sheet);
+            } finally {
+                commentsIS.close();
+            }
+        }
+
+        return sheet;
+    }
+
+    private static void readComments(InputStream commentsXml, TemplateSheet sheet) throws XMLStreamException {
+        XMLStreamReader reader = OoxmlText.createXMLStreamReader(commentsXml);
+        try {
+            StringBuilder buffer = new StringBuilder();
+            String ref = null;
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if ("comment".equals(name)) {
+                        ref = reader.getAttributeValue(null, "ref");
+                    } else if ("text".equals(name) && ref != null) {
+                        sheet.comments.put(getCellKey(getRowIndex(ref), XmlSheetSource.getColumnIndex(ref)),
+                                OoxmlText.decodeEscapes(OoxmlText.readRichText(reader, buffer)));
+                        ref = null;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the 0-based row index of a cell reference like "AB12".
+     */
+    private static int getRowIndex(String cellReference) {
+        int i = 0;
+        while (i < cellReference.length() && !Character.isDigit(cellReference.charAt(i))) {
+            ++i;
+        }
+        return Integer.parseInt(cellReference.substring(i)) - 1;
+    }
+
+    private static long getCellKey(int rowIndex, int columnIndex) {
+        return ((long)rowIndex << 16) | columnIndex;
+    }
+
+    private static class TemplateRow {
+
+        // Null types are missing cells.
+        private Token.TokenType[] types = new Token.TokenType[0];
+
+        private String[] texts = new String[0];
+
+        void setCell(int columnIndex, Token.TokenType type, String text) {
+            if (columnIndex >= types.length) {
+                types = Arrays.copyOf(types, columnIndex + 1);
+                texts = Arrays.copyOf(texts, columnIndex + 1);
+            }
+            types[columnIndex] = type;
+            texts[columnIndex] = text;
+        }
+    }
+
+    /**
+     * Rows are shared by all the copies of a sheet, but each copy has its own comments.
+     */
+    private static class TemplateSheet implements XlsxTemplateSheet {
+
+        private int lastRowNum = 0;
+
+        private Map<Integer, TemplateRow> rows = new HashMap<>();
+
+        // Comments texts, by cell key.
+        private Map<Long, String> comments = new HashMap<>();
+
+        TemplateSheet() {
+        }
+
+        TemplateSheet(TemplateSheet sheet) {
+            this.lastRowNum = sheet.lastRowNum;
+            this.rows = sheet.rows;
+            this.comments = new HashMap<>(sheet.comments);
+        }
+
+        @Override public int getLastRowNum() {
+            return lastRowNum;
+        }
+
+        @Override public int getLastCellNum(int rowIndex) {
+            TemplateRow row = rows.get(rowIndex);
+            return row == null || row.types.length == 0 ? -1 : row.types.length;
+        }
+
+        @Override public Token createCellToken(int rowIndex, int columnIndex) {
+            TemplateRow row = rows.get(rowIndex);
+            if (row == null || columnIndex >= row.types.length || row.types[columnIndex] == null) {
+                return new Token(Token.TokenType.NEW_BLANK_CELL, null);
+            }
+            return new Token(row.types[columnIndex], row.texts[columnIndex]);
+        }
+
+        @Override public String getComment(int rowIndex, int columnIndex) {
+            TemplateRow row = rows.get(rowIndex);
+            if (row == null || columnIndex >= row.types.length || row.types[columnIndex] == null) {
+                // Just like with POI, only comments of existing cells are read.
+                return null;
+            }
+            return comments.get(getCellKey(rowIndex, columnIndex));
+        }
+
+        @Override public void setComment(int rowIndex, int columnIndex, String comment) {
+            comments.put(getCellKey(rowIndex, columnIndex), comment);
+        }
+    }
+}
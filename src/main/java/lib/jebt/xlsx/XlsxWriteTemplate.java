@@ -0,0 +1,68 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.metrics.JebtMetrics;
+import lib.jebt.metrics.PhaseTimer;
+import lib.jebt.parser.Token;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An XLSX template prepared once for writing any number of documents, see {@link JebtXlsxWriter#JebtXlsxWriter(XlsxWriteTemplate, java.io.OutputStream)}.
+ * <p>
+ * Its sheets are tokenized when it's loaded, each cell token holding the text, value and style index of its template cell.
+ * Only its bytes are kept besides the tokens, to give each document its own copy of the template workbook.
+ * Templates are never modified once loaded, so they can be shared by several writers and threads.
+ * </p>
+ */
+public class XlsxWriteTemplate {
+
+    private final byte[] templateBytes;
+
+    private final List<List<Token>> sheetTokens;
+
+    private XlsxWriteTemplate(byte[] templateBytes, List<List<Token>> sheetTokens) {
+        this.templateBytes = templateBytes;
+        this.sheetTokens = sheetTokens;
+    }
+
+    /**
+     * The stream isn't closed by this method.
+     */
+    public static XlsxWriteTemplate load(InputStream templateIS) throws IOException {
+        byte[] templateBytes = IOUtils.toByteArray(templateIS);
+        XSSFWorkbook templateWorkbook = new XSSFWorkbook(new ByteArrayInputStream(templateBytes));
+
+        JebtMetrics metrics = JebtMetrics.get();
+        List<List<Token>> sheetTokens = new ArrayList<>();
+        for (int i = 0; i < templateWorkbook.getNumberOfSheets(); i++) {
+            XSSFSheet templateSheet = templateWorkbook.getSheetAt(i);
+            PhaseTimer timer = PhaseTimer.start(metrics, JebtMetrics.Phase.TOKENIZE, templateSheet.getSheetName(), i);
+            sheetTokens.add(TemplateCellToken.readSheetTokens(templateSheet));
+            timer.stop(-1);
+        }
+        return new XlsxWriteTemplate(templateBytes, Collections.unmodifiableList(sheetTokens));
+    }
+
+    /**
+     * @return a new copy of the template workbook, to be filled as a document.
+     */
+    XSSFWorkbook createDocumentBaseWorkbook() {
+        try {
+            return new XSSFWorkbook(new ByteArrayInputStream(templateBytes));
+        } catch (IOException e) {
+            throw new RuntimeException("Error copying template Workbook", e);
+        }
+    }
+
+    List<List<Token>> getSheetTokens() {
+        return sheetTokens;
+    }
+}
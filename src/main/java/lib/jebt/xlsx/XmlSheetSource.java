@@ -0,0 +1,134 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.Token;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+
+/**
+ * {@link SheetSource} pulling rows and cells directly from the XML of a document sheet (sheetN.xml), without creating any POI row or cell.
+ * Values are the cells text, converted the same way as for POI cells.
+ * <p>
+ * Text cells are looked up in the {@link SharedStringsStore}, numbers are formatted by the {@link CellValueConverter}.
+ * The stream isn't closed by this class.
+ * </p>
+ */
+class XmlSheetSource implements SheetSource {
+
+    private XMLStreamReader reader;
+
+    private SharedStringsStore sharedStrings;
+
+    private CellValueConverter converter;
+
+    private StringBuilder buffer = new StringBuilder();
+
+    private int lastRowIndex = -1;
+
+    XmlSheetSource(InputStream sheetXml, SharedStringsStore sharedStrings, CellValueConverter converter) {
+        try {
+            this.reader = OoxmlText.createXMLStreamReader(sheetXml);
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Cannot read document sheet", e);
+        }
+        this.sharedStrings = sharedStrings;
+        this.converter = converter;
+    }
+
+    public boolean readRow(RowHandler handler) {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    readRowElement(handler);
+                    return true;
+                }
+            }
+            return false;
+        } catch (XMLStreamException e) {
+            throw new RuntimeException("Cannot read document sheet", e);
+        }
+    }
+
+    public String getValueAsString(Object value) {
+        return (String)value;
+    }
+
+    private void readRowElement(RowHandler handler) throws XMLStreamException {
+        String r = reader.getAttributeValue(null, "r");
+        lastRowIndex = r != null ? Integer.parseInt(r) - 1 : lastRowIndex + 1;
+
+        handler.startRow(lastRowIndex);
+
+        int lastColumnIndex = -1;
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT || !"row".equals(reader.getLocalName())) {
+            if (event == XMLStreamConstants.START_ELEMENT && "c".equals(reader.getLocalName())) {
+                String ref = reader.getAttributeValue(null, "r");
+                lastColumnIndex = ref != null ? getColumnIndex(ref) : lastColumnIndex + 1;
+                readCellElement(handler, lastColumnIndex);
+            }
+        }
+    }
+
+    private void readCellElement(RowHandler handler, int columnIndex) throws XMLStreamException {
+        String type = reader.getAttributeValue(null, "t");
+        String style = reader.getAttributeValue(null, "s");
+
+        String contents = null;
+        String formula = null;
+
+        int event;
+        while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT || !"c".equals(reader.getLocalName())) {
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("v".equals(name)) {
+                    contents = OoxmlText.readElementText(reader, buffer);
+                } else if ("f".equals(name)) {
+                    formula = OoxmlText.readElementText(reader, buffer);
+                } else if ("is".equals(name)) {
+                    contents = OoxmlText.readRichText(reader, buffer);
+                }
+            }
+        }
+
+        if (formula != null) {
+            handler.cell(columnIndex, Token.TokenType.NEW_NON_TEXT_CELL, formula);
+        } else if (contents == null) {
+            handler.cell(columnIndex, Token.TokenType.NEW_BLANK_CELL, null);
+        } else if ("s".equals(type)) {
+            String text = contents.isEmpty() ? "" : sharedStrings.getString(Integer.parseInt(contents));
+            handler.cell(columnIndex, getTextCellType(text), text);
+        } else if ("inlineStr".equals(type) || "str".equals(type)) {
+            String text = OoxmlText.decodeEscapes(contents);
+            handler.cell(columnIndex, getTextCellType(text), text);
+        } else if ("b".equals(type)) {
+            handler.cell(columnIndex, Token.TokenType.NEW_NON_TEXT_CELL, Boolean.toString("1".equals(contents)));
+        } else if ("e".equals(type)) {
+            // Errors have no text
+            handler.cell(columnIndex, Token.TokenType.NEW_NON_TEXT_CELL, "");
+        } else {
+            handler.cell(columnIndex, Token.TokenType.NEW_NON_TEXT_CELL, converter.formatNumber(contents, style == null ? -1 : Integer.parseInt(style)));
+        }
+    }
+
+    private Token.TokenType getTextCellType(String text) {
+        return text.isEmpty() ? Token.TokenType.NEW_BLANK_CELL : Token.TokenType.NEW_TEXT_CELL;
+    }
+
+    /**
+     * @return the 0-based column index of a cell reference like "AB12".
+     */
+    static int getColumnIndex(String cellReference) {
+        int columnIndex = 0;
+        for (int i = 0; i < cellReference.length(); i++) {
+            char c = cellReference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            columnIndex = columnIndex * 26 + (c - 'A' + 1);
+        }
+        return columnIndex - 1;
+    }
+}
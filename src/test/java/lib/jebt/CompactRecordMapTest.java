@@ -0,0 +1,84 @@
+package lib.jebt;
+
+import lib.jebt.parser.CompactRecordMap;
+import lib.jebt.parser.JebtReaderTextProcessor;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactRecordMapTest {
+
+    @Test
+    /**
+     * Random puts, removes and clears give the same Map as a LinkedHashMap, with the same iteration order
+     */
+    public void testMapContract() {
+        CompactRecordMap.Schema schema = CompactRecordMap.Schema.root();
+        Random random = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            CompactRecordMap map = new CompactRecordMap(schema);
+            Map expected = new LinkedHashMap();
+            for (int i = 0; i < 200; i++) {
+                // Up to 12 keys, past the ones compared one by one.
+                String key = "k" + random.nextInt(12);
+                int operation = random.nextInt(10);
+                if (operation < 6) {
+                    Object value = random.nextBoolean() ? null : (Object)i;
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                } else if (operation < 8) {
+                    assertEquals(expected.remove(key), map.remove(key));
+                } else if (operation < 9) {
+                    Iterator<Map.Entry<Object, Object>> it = map.entrySet().iterator();
+                    Iterator expectedIt = expected.entrySet().iterator();
+                    while (it.hasNext()) {
+                        Map.Entry<Object, Object> entry = it.next();
+                        expectedIt.next();
+                        if (entry.getKey().equals(key)) {
+                            it.remove();
+                            expectedIt.remove();
+                        } else {
+                            entry.setValue(-i);
+                            expected.put(entry.getKey(), -i);
+                        }
+                    }
+                } else if (random.nextInt(5) == 0) {
+                    map.clear();
+                    expected.clear();
+                }
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+                assertEquals(expected.get(key), map.get(key));
+                assertEquals(expected, map);
+                assertEquals(expected.hashCode(), map.hashCode());
+                assertEquals(new ArrayList(expected.keySet()), new ArrayList(map.keySet()));
+            }
+        }
+    }
+
+    @Test
+    /**
+     * Records read from text documents are compact Maps
+     */
+    public void testReadRecords() {
+        Map data = new LinkedHashMap();
+        new JebtReaderTextProcessor().extractData(new StringReader("{[people|p]}{{p.name}} is {{p.age}};{[]}"),
+                new StringReader("Ann is 30;Bob is 41;"), data);
+
+        List people = (List)data.get("people");
+        assertEquals(2, people.size());
+        assertTrue(people.get(0) instanceof CompactRecordMap);
+        Map bob = new LinkedHashMap();
+        bob.put("name", "Bob");
+        bob.put("age", 41L);
+        assertEquals(bob, people.get(1));
+        assertEquals("{name=Bob, age=41}", people.get(1).toString());
+    }
+}
@@ -0,0 +1,70 @@
+package lib.jebt;
+
+import lib.jebt.parser.AtomicExpression;
+import lib.jebt.parser.DataJournal;
+import lib.jebt.parser.ParsingUtils;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class DataJournalTest {
+
+    @Test public void testRollback() {
+        Map data = new JSONObject();
+        data.put("name", "Jim");
+        List colors = new ArrayList();
+        colors.add("red");
+        data.put("colors", colors);
+
+        String before = data.toString();
+
+        DataJournal journal = new DataJournal();
+        int mark = journal.mark();
+
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("name"), "Jack", data, journal);
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("customer.address.city"), "Paris", data, journal);
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("colors[3]"), "blue", data, journal);
+        ParsingUtils.initCollection(data, "items", 2, "item", journal);
+
+        assertEquals("Jack", data.get("name"));
+        assertEquals(4, colors.size());
+
+        journal.rollback(mark);
+
+        assertEquals(before, data.toString());
+        assertEquals(1, colors.size());
+        assertFalse(data.containsKey("customer"));
+        assertFalse(data.containsKey("items"));
+        assertFalse(data.containsKey("item"));
+    }
+
+    @Test public void testNestedCommit() {
+        Map data = new JSONObject();
+
+        DataJournal journal = new DataJournal();
+        int outerMark = journal.mark();
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("a"), "1", data, journal);
+
+        int innerMark = journal.mark();
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("b"), "2", data, journal);
+        journal.commit(innerMark);
+
+        int rolledBackMark = journal.mark();
+        ParsingUtils.updateData(AtomicExpression.extractAtomicExpressions("c"), "3", data, journal);
+        journal.rollback(rolledBackMark);
+
+        assertEquals(new Long(2), data.get("b"));
+        assertNull(data.get("c"));
+
+        // Committed inner changes can still be rolled back with the enclosing transaction.
+        journal.rollback(outerMark);
+        assertEquals(0, data.size());
+    }
+}
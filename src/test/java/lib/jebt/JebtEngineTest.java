@@ -0,0 +1,113 @@
+package lib.jebt;
+
+import lib.jebt.xlsx.CorpusGenerator;
+import lib.jebt.xlsx.XlsxTemplate;
+import lib.jebt.xlsx.XlsxWriteTemplate;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JebtEngineTest {
+
+    private static final String TEMPLATE = "Hello {{name}}! Items:{[items|item]} {{item}};{[]} Bye";
+
+    @Test
+    /**
+     * One engine and XLSX templates loaded once are shared by concurrent reads and writes, each getting its own data back
+     */
+    public void testConcurrentRuns() throws Exception {
+        final JebtEngine engine = new JebtEngine();
+
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        new CorpusGenerator(0, 1, 2, 10, 2).createTemplate().write(templateOS);
+        final byte[] xlsxTemplateBytes = templateOS.toByteArray();
+        final XlsxTemplate xlsxTemplate = XlsxTemplate.load(new ByteArrayInputStream(xlsxTemplateBytes));
+        final XlsxWriteTemplate xlsxWriteTemplate = XlsxWriteTemplate.load(new ByteArrayInputStream(xlsxTemplateBytes));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                final int run = i;
+                runs.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() throws Exception {
+                        Map data = new LinkedHashMap();
+                        data.put("name", "n" + run);
+                        data.put("items", Arrays.asList("a" + run, "b" + run, "c" + run));
+                        StringWriter document = new StringWriter();
+                        engine.writeText(new StringReader(TEMPLATE), document, data);
+                        assertEquals(data, engine.readText(new StringReader(TEMPLATE), new StringReader(document.toString()), new JebtContext()));
+
+                        CorpusGenerator generator = new CorpusGenerator(run, 1 + run % 5, 2, 10, 2);
+                        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+                        engine.writeXlsx(xlsxWriteTemplate, documentOS, generator.createData());
+                        Map xlsxData = engine.readXlsx(xlsxTemplate, new ByteArrayInputStream(documentOS.toByteArray()), new JebtContext());
+                        assertEquals(generator.createData().get("items"), xlsxData.get("items"));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    /**
+     * Reads only keep the values of the context projection, into the context data
+     */
+    public void testContext() throws Exception {
+        Map data = new LinkedHashMap();
+        data.put("other", "kept");
+        JebtContext context = new JebtContext(data, Collections.singleton("items"));
+
+        Map readData = new JebtEngine().readText(new StringReader(TEMPLATE), new StringReader("Hello Bob! Items: x; y; Bye"), context);
+
+        assertEquals(data, readData);
+        assertEquals("kept", data.get("other"));
+        assertNull(data.get("name"));
+        assertEquals(Arrays.asList("x", "y"), data.get("items"));
+    }
+
+    @Test
+    /**
+     * Text reads pass the records of the main loops to the context record sink, leaving their collection empty
+     */
+    public void testTextRecordSink() throws Exception {
+        final List<Map> records = new ArrayList<>();
+        JebtContext context = new JebtContext(new LinkedHashMap(), null, new JebtRecordSink() {
+            @Override public void accept(String collectionJsonPath, int index, Map record) {
+                assertEquals("orders", collectionJsonPath);
+                assertEquals(records.size(), index);
+                records.add(record);
+            }
+        }, false);
+
+        Map readData = new JebtEngine().readText(new StringReader("Hello {{name}}! Orders:{[orders|o]} {{o.id}};{[]} Bye"),
+                new StringReader("Hello Bob! Orders: a; b; c; Bye"), context);
+
+        assertEquals(3, records.size());
+        assertEquals("b", records.get(1).get("id"));
+        assertEquals("Bob", readData.get("name"));
+        assertEquals(new ArrayList(), readData.get("orders"));
+    }
+}
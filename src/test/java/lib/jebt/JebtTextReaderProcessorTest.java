@@ -1,11 +1,17 @@
 package lib.jebt;
 
+import lib.jebt.parser.JebtReaderTextProcessor;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JsonPathProjection;
+import lib.jebt.parser.TextTemplateAutomaton;
 import org.json.simple.JSONObject;
 import org.junit.Test;
 
+import java.io.StringReader;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 
@@ -85,4 +91,63 @@ public class JebtTextReaderProcessorTest {
         assertEquals("blue", ((List)data.get("colors")).get(2));
 
     }
+
+    @Test public void testCompiledTemplate() {
+
+        TextTemplateAutomaton automaton = new JebtReaderTextProcessor()
+                .compile(new JebtTextTokenizer(new StringReader("Items:{[items|item]} [{{item.name}}:{{item.code}}]{[]}. End: {{end}}.ab.")));
+
+        // The same compiled template can be used on several documents.
+        Map data = new JSONObject();
+        automaton.extractData(new StringReader("Items: [a:1] [b:2]. End: x.a.ab."), data);
+        assertEquals(2, ((List)data.get("items")).size());
+        assertEquals("b", ((Map)((List)data.get("items")).get(1)).get("name"));
+        assertEquals(new Long(2), ((Map)((List)data.get("items")).get(1)).get("code"));
+        // Terminator '.ab.' is found even though the value contains a partial match of it.
+        assertEquals("x.a", data.get("end"));
+
+        data = new JSONObject();
+        automaton.extractData(new StringReader("Items: [c:3]. End: y.ab."), data);
+        assertEquals(1, ((List)data.get("items")).size());
+        assertEquals("c", ((Map)((List)data.get("items")).get(0)).get("name"));
+        assertEquals("y", data.get("end"));
+    }
+
+    @Test public void testCompiledCellTemplate() {
+        // In-memory documents, like cell values.
+        TextTemplateAutomaton automaton = TextTemplateAutomaton.compile(new JebtTextTokenizer(new StringReader("Total: {{total}} EUR")));
+        Map data = new JSONObject();
+        automaton.extractData("Total: 12.5 EUR", data, null);
+        assertEquals(12.5, data.get("total"));
+
+        // A single expression takes the whole document as is.
+        automaton = TextTemplateAutomaton.compile(new JebtTextTokenizer(new StringReader("{{customer.name}}")));
+        automaton.extractData("Jane {{Doe}}", data, null);
+        assertEquals("Jane {{Doe}}", ((Map)data.get("customer")).get("name"));
+    }
+
+    @Test public void testProjection() {
+        Map<String, String> loopItemPaths = new HashMap<>();
+        loopItemPaths.put("customer", "customers[*]");
+        assertEquals("customers[*].aliases[*]", JsonPathProjection.resolve("customer.aliases[2]", loopItemPaths));
+        assertEquals("theMap.customer.name", JsonPathProjection.resolve("theMap[\"customer\"].name", loopItemPaths));
+
+        JsonPathProjection projection = new JsonPathProjection(Arrays.asList("items[*].name", "title"));
+        assertTrue(projection.isProjected("items[*].name.first"));
+        assertFalse(projection.isProjected("items[*].names"));
+        assertFalse(projection.isProjected("items[*]"));
+        assertTrue(projection.isTraversed("items[*]"));
+        assertFalse(projection.isTraversed("others"));
+
+        // Expressions outside the projection are still matched, but never stored.
+        Map data = new JSONObject();
+        new JebtReaderTextProcessor().extractData(new StringReader("{{title}}:{[items|item]} [{{item.name}}:{{item.code}}]{[]}.{[others|other]}<{{other}}>{[]}!{{end}}"),
+                new StringReader("Hello: [a:1] [b:2].<x><y>!z"), data, projection);
+        assertEquals("Hello", data.get("title"));
+        assertEquals(2, ((List)data.get("items")).size());
+        assertEquals("b", ((Map)((List)data.get("items")).get(1)).get("name"));
+        assertFalse(((Map)((List)data.get("items")).get(1)).containsKey("code"));
+        assertFalse(data.containsKey("others"));
+        assertFalse(data.containsKey("end"));
+    }
 }
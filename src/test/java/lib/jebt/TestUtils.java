@@ -15,6 +15,10 @@ public class TestUtils implements TestConstants {
         }
     }
 
+    public static File getFile(String resourcePath) {
+        return new File(TEST_RESOURCES_PATH + resourcePath);
+    }
+
     public static InputStream getInputStream(String resourcePath) {
         try {
             return new FileInputStream(new File(TEST_RESOURCES_PATH + resourcePath));
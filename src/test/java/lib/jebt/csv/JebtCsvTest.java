@@ -0,0 +1,124 @@
+package lib.jebt.csv;
+
+import lib.jebt.JebtRecordSink;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class JebtCsvTest {
+
+    private static final String TEMPLATE = "Report,{{title}}\n"
+            + "Name,Age,Phones\n"
+            + "{[people|p]}{{p.name}},{{p.age}},{[p.phones|ph]}{{ph}}{[]}{[]}\n"
+            + "\n"
+            + "Total,{{total}}\n";
+
+    @Test
+    /**
+     * Documents written from a CSV template are read back into the same data
+     */
+    public void testWriteAndRead() throws Exception {
+        Map data = createData(3);
+
+        String document = write(TEMPLATE, data, StandardCharsets.UTF_8, ',');
+        assertEquals("Report,\"Staff, \"\"all\"\"\"\r\n"
+                + "Name,Age,Phones\r\n"
+                + "Ann,30,555-0,555-1\r\n"
+                + "Bob,31,555-0,555-1\r\n"
+                + "\"Cé\r\nline\",32,555-0,555-1\r\n"
+                + "\r\n"
+                + "Total,3\r\n", document);
+
+        assertEquals(data, new JebtCsvReader(bytes(TEMPLATE, StandardCharsets.UTF_8), bytes(document, StandardCharsets.UTF_8)).readData());
+    }
+
+    @Test
+    /**
+     * Large documents are read through buffer refills, with other charsets and separators
+     */
+    public void testLargeDocument() throws Exception {
+        Charset charset = StandardCharsets.ISO_8859_1;
+        String template = TEMPLATE.replace(',', ';');
+        Map data = createData(20000);
+
+        String document = write(template, data, charset, ';');
+        Map readData = JebtCsvReader.builder(bytes(template, charset), bytes(document, charset)).charset(charset).separator(';').build().readData();
+
+        assertEquals(data, readData);
+    }
+
+    @Test
+    /**
+     * Main loop records are passed to the record sink instead of being stored
+     */
+    public void testRecordSink() throws Exception {
+        Map data = createData(100);
+        String document = write(TEMPLATE, data, StandardCharsets.UTF_8, ',');
+
+        final List<Object> names = new ArrayList<>();
+        Map readData = JebtCsvReader.builder(bytes(TEMPLATE, StandardCharsets.UTF_8), bytes(document, StandardCharsets.UTF_8))
+                .recordSink(new JebtRecordSink() {
+                    @Override public void accept(String collectionJsonPath, int index, Map record) {
+                        assertEquals("people", collectionJsonPath);
+                        assertEquals(names.size(), index);
+                        names.add(record.get("name"));
+                    }
+                }).reuseRecords(true).build().readData();
+
+        assertEquals(100, names.size());
+        assertEquals("Bob", names.get(1));
+        assertEquals(new ArrayList(), readData.get("people"));
+        assertEquals(100L, readData.get("total"));
+    }
+
+    @Test
+    /**
+     * Generated values that could be taken for formulas are escaped, like in XLSX documents, but template text never is
+     */
+    public void testExcelInjection() throws Exception {
+        Map data = new LinkedHashMap();
+        data.put("formula", "=SUM(1+1)*cmd|' /C calc'!A0");
+        data.put("at", "@SUM(A1)");
+        data.put("number", "-1");
+
+        String document = write("{{formula}},{{at}},{{number}},Total {{number}},=1+2\n", data, StandardCharsets.UTF_8, ',');
+
+        assertEquals("'=SUM(1+1)*cmd|' /C calc'!A0,'@SUM(A1),'-1,Total -1,=1+2\r\n", document);
+    }
+
+    private static Map createData(int count) {
+        List people = new ArrayList();
+        for (int i = 0; i < count; i++) {
+            Map person = new LinkedHashMap();
+            person.put("name", i == 0 ? "Ann" : i == 1 ? "Bob" : i == 2 ? "Cé\r\nline" : "Person " + i);
+            person.put("age", 30L + i);
+            person.put("phones", Arrays.asList("555-0", "555-1"));
+            people.add(person);
+        }
+        Map data = new LinkedHashMap();
+        data.put("title", "Staff, \"all\"");
+        data.put("people", people);
+        data.put("total", (long)count);
+        return data;
+    }
+
+    private static String write(String template, Map data, Charset charset, char separator) {
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        JebtCsvWriter.builder(bytes(template, charset), documentOS).charset(charset).separator(separator).build().writeData(data);
+        return new String(documentOS.toByteArray(), charset);
+    }
+
+    private static ByteArrayInputStream bytes(String text, Charset charset) {
+        return new ByteArrayInputStream(text.getBytes(charset));
+    }
+}
@@ -0,0 +1,138 @@
+package lib.jebt.json;
+
+import lib.jebt.txt.JebtTextReader;
+import lib.jebt.xlsx.CorpusGenerator;
+import lib.jebt.xlsx.InMemorySharedStringsStore;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonRecordWriterTest {
+
+    private static final String TEMPLATE = "{{shop.name}}\n{[orders|o]}{{o.id}}: {[o.lines|l]}{{l.item}} x{{l.count}},{[]}\n{[]}Tags:{[tags|t]} {{t}};{[]}";
+
+    private static final String DOCUMENT = "Corner \"shop\"\n1: apple x2,pear x1,\n2: plum x5,\nTags: fresh; local;";
+
+    @Test
+    /**
+     * JSON written from a text document is the same as the data read, and JSON Lines have one top-level loop record per line
+     */
+    public void testText() throws Exception {
+        Map expected = new JebtTextReader(new StringReader(TEMPLATE), new StringReader(DOCUMENT)).readData();
+
+        StringWriter json = new StringWriter();
+        new JebtTextReader(new StringReader(TEMPLATE), new StringReader(DOCUMENT)).writeJson(json, false);
+        assertEquals(JSONValue.parse(JSONValue.toJSONString(expected)), JSONValue.parse(json.toString()));
+
+        StringWriter jsonLines = new StringWriter();
+        new JebtTextReader(new StringReader(TEMPLATE), new StringReader(DOCUMENT)).writeJson(jsonLines, true);
+        String[] lines = jsonLines.toString().split("\n");
+        List orders = (List)expected.get("orders");
+        assertEquals(orders.size(), lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(JSONValue.parse(JSONValue.toJSONString(orders.get(i))), JSONValue.parse(lines[i]));
+        }
+    }
+
+    @Test
+    /**
+     * JSON written from an XLSX document is the same as the data read
+     */
+    public void testXlsx() throws Exception {
+        CorpusGenerator generator = new CorpusGenerator(5, 200, 3, 20, 3);
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        generator.createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                .writeData(generator.createData());
+        byte[] document = documentOS.toByteArray();
+
+        Map expected = new JebtXlsxReader(new XSSFWorkbook(new ByteArrayInputStream(template)), new ByteArrayInputStream(document)).readData();
+
+        ByteArrayOutputStream jsonOS = new ByteArrayOutputStream();
+        JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(new ByteArrayInputStream(document))
+                .sharedStringsStore(new InMemorySharedStringsStore()).build().writeJson(jsonOS, false);
+
+        assertEquals(JSONValue.parse(JSONValue.toJSONString(expected)), JSONValue.parse(new String(jsonOS.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    /**
+     * JSON written from sheets read with several threads has the records of each sheet collection in its own array
+     */
+    public void testXlsxSheetsWithThreads() throws Exception {
+        XSSFWorkbook templateWorkbook = new XSSFWorkbook();
+        Map data = new LinkedHashMap();
+        for (int i = 0; i < 4; i++) {
+            XSSFSheet sheet = templateWorkbook.createSheet("Sheet " + i);
+            sheet.createRow(0).createCell(0).setCellValue("Total: {{totals.sheet" + i + "}}");
+            XSSFRow row = sheet.createRow(1);
+            Drawing drawing = sheet.createDrawingPatriarch();
+            setLoopCell(templateWorkbook, drawing, row, 0, "#{{r.id}}", "{[rows" + i + "|r]}");
+            setLoopCell(templateWorkbook, drawing, row, 1, "{{r.name}}", "{[]}");
+
+            List rows = new ArrayList();
+            for (int r = 0; r < 500; r++) {
+                Map record = new LinkedHashMap();
+                record.put("id", i + "-" + r);
+                record.put("name", "Name " + r);
+                rows.add(record);
+            }
+            data.put("rows" + i, rows);
+        }
+        Map totals = new LinkedHashMap();
+        for (int i = 0; i < 4; i++) {
+            totals.put("sheet" + i, "T" + i);
+        }
+        data.put("totals", totals);
+
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        templateWorkbook.write(templateOS);
+        byte[] template = templateOS.toByteArray();
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                .writeData(data);
+        byte[] document = documentOS.toByteArray();
+
+        ByteArrayOutputStream jsonOS = new ByteArrayOutputStream();
+        JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(new ByteArrayInputStream(document))
+                .sharedStringsStore(new InMemorySharedStringsStore()).threadCount(4).build().writeJson(jsonOS, false);
+
+        assertEquals(JSONValue.parse(JSONValue.toJSONString(data)), JSONValue.parse(new String(jsonOS.toByteArray(), StandardCharsets.UTF_8)));
+    }
+
+    private static void setLoopCell(XSSFWorkbook workbook, Drawing drawing, XSSFRow row, int column, String text, String comment) {
+        XSSFCell cell = row.createCell(column);
+        cell.setCellValue(text);
+        ClientAnchor anchor = workbook.getCreationHelper().createClientAnchor();
+        anchor.setCol1(column);
+        anchor.setCol2(column + 2);
+        anchor.setRow1(row.getRowNum());
+        anchor.setRow2(row.getRowNum() + 3);
+        Comment cellComment = drawing.createCellComment(anchor);
+        cellComment.setString(new XSSFRichTextString(comment));
+        cell.setCellComment(cellComment);
+    }
+}
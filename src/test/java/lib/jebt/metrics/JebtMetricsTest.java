@@ -0,0 +1,130 @@
+package lib.jebt.metrics;
+
+import lib.jebt.txt.JebtTextReader;
+import lib.jebt.txt.JebtTextWriter;
+import lib.jebt.xlsx.CorpusGenerator;
+import lib.jebt.xlsx.JebtXlsxReader;
+import lib.jebt.xlsx.JebtXlsxWriter;
+import lib.jebt.xlsx.MappedSharedStringsStore;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JebtMetricsTest {
+
+    @Test
+    /**
+     * Writing and reading an XLSX document report all counters and phases
+     */
+    public void testXlsxRoundTrip() throws Exception {
+        CorpusGenerator generator = new CorpusGenerator(7, 50, 3, 20, 2);
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        generator.createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+
+        StripedJebtMetrics metrics = new StripedJebtMetrics();
+        JebtMetrics.install(metrics);
+        try {
+            ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+            new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                    .writeData(generator.createData());
+
+            // Title row, and one row per item.
+            assertEquals(51, metrics.getCount(JebtMetrics.Counter.ROWS_WRITTEN));
+            assertTrue(metrics.getCount(JebtMetrics.Counter.CELLS_WRITTEN) > 50 * 5);
+            assertTrue(metrics.getCount(JebtMetrics.Counter.LOOP_ITERATIONS) > 50);
+            assertTrue(metrics.getCount(JebtMetrics.Counter.PATH_EVALUATIONS) > 50 * 5);
+            assertTrue(metrics.getCount(JebtMetrics.Counter.TOKENS) > 0);
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.FILL));
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.SERIALIZE));
+            assertTrue(metrics.getPhaseWallTimeNanos(JebtMetrics.Phase.FILL) > 0);
+            long loopIterations = metrics.getCount(JebtMetrics.Counter.LOOP_ITERATIONS);
+
+            metrics.reset();
+            JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(new ByteArrayInputStream(documentOS.toByteArray()))
+                    .sharedStringsStore(new MappedSharedStringsStore()).build().readData();
+
+            assertEquals(51, metrics.getCount(JebtMetrics.Counter.ROWS_MATCHED));
+            assertTrue(metrics.getCount(JebtMetrics.Counter.CELLS_MATCHED) > 50 * 5);
+            assertEquals(loopIterations, metrics.getCount(JebtMetrics.Counter.LOOP_ITERATIONS));
+            // Each item ends with a children record that doesn't match.
+            assertTrue(metrics.getCount(JebtMetrics.Counter.BACKTRACKS) >= 50);
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.TOKENIZE));
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.EXTRACT));
+            assertEquals(0, metrics.getPhaseCount(JebtMetrics.Phase.FILL));
+        } finally {
+            JebtMetrics.install(null);
+        }
+        assertSame(JebtMetrics.NONE, JebtMetrics.get());
+    }
+
+    @Test
+    /**
+     * Text documents report their loops, and tokens including the loop ones
+     */
+    public void testText() throws Exception {
+        Map data = new LinkedHashMap();
+        data.put("names", Arrays.asList("a", "b", "c"));
+        String template = "Names:{[names|name]} {{name}};{[]} End";
+
+        StripedJebtMetrics metrics = new StripedJebtMetrics(2);
+        JebtMetrics.install(metrics);
+        try {
+            StringWriter document = new StringWriter();
+            new JebtTextWriter(new StringReader(template), document).writeData(data);
+
+            // "Names:", the loop, and its " ", {{name}}, ";" and the final " End"
+            assertEquals(6, metrics.getCount(JebtMetrics.Counter.TOKENS));
+            assertEquals(3, metrics.getCount(JebtMetrics.Counter.LOOP_ITERATIONS));
+            assertEquals(4, metrics.getCount(JebtMetrics.Counter.PATH_EVALUATIONS));
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.FILL));
+
+            metrics.reset();
+            new JebtTextReader(new StringReader(template), new StringReader(document.toString())).readData();
+            assertEquals(3, metrics.getCount(JebtMetrics.Counter.LOOP_ITERATIONS));
+            assertEquals(1, metrics.getPhaseCount(JebtMetrics.Phase.EXTRACT));
+        } finally {
+            JebtMetrics.install(null);
+        }
+    }
+
+    @Test
+    /**
+     * Counts from many threads are all summed
+     */
+    public void testStripedCounters() throws Exception {
+        final StripedJebtMetrics metrics = new StripedJebtMetrics(4);
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        metrics.count(JebtMetrics.Counter.CELLS_MATCHED, 2);
+                        metrics.phaseCompleted(JebtMetrics.Phase.EXTRACT, "Sheet1", 0, 1, 3, 5);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(160000, metrics.getCount(JebtMetrics.Counter.CELLS_MATCHED));
+        assertEquals(0, metrics.getCount(JebtMetrics.Counter.CELLS_WRITTEN));
+        assertEquals(80000, metrics.getPhaseCount(JebtMetrics.Phase.EXTRACT));
+        assertEquals(240000, metrics.getPhaseWallTimeNanos(JebtMetrics.Phase.EXTRACT));
+        assertEquals(400000, metrics.getPhaseAllocatedBytes(JebtMetrics.Phase.EXTRACT));
+    }
+}
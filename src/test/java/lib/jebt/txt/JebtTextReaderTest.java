@@ -1,5 +1,6 @@
 package lib.jebt.txt;
 
+import lib.jebt.JebtRecordSink;
 import lib.jebt.TestConstants;
 import lib.jebt.TestUtils;
 import org.json.simple.JSONArray;
@@ -8,8 +9,13 @@ import org.json.simple.parser.ContainerFactory;
 import org.json.simple.parser.JSONParser;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +61,42 @@ public class JebtTextReaderTest
     }
 
 
+    @Test
+    /**
+     * Same as testLoops, but the document file is memory-mapped and decoded as UTF-8.
+     */
+    public void testLoopsWithMappedFile() throws Exception
+    {
+        JebtTextReader jr = new JebtTextReader(new File(TestConstants.TEST_RESOURCES_PATH + "/txt/loopsTxtTemplate.txt"),
+                new File(TestConstants.TEST_RESOURCES_PATH + "/txt/loopsTxtTemplateResult.txt"), StandardCharsets.UTF_8);
+
+        compareWithJSonResult(new JSONObject(jr.readData()), "loopsJSonResult.json");
+    }
+
+
+    @Test
+    /**
+     * Main loop records are passed to the record sink, their collection being left empty in the data read
+     */
+    public void testRecordSink() throws Exception
+    {
+        final List<Map> records = new ArrayList<>();
+        JebtTextReader jr = new JebtTextReader(new StringReader("{{shop}}\n{[orders|o]}{{o.id}}: {[o.items|i]}{{i}},{[]}\n{[]}End"),
+                new StringReader("Corner\n1: apple,pear,\n2: plum,\nEnd"), new JebtRecordSink() {
+            @Override public void accept(String collectionJsonPath, int index, Map record) {
+                assertEquals("orders", collectionJsonPath);
+                assertEquals(records.size(), index);
+                records.add(record);
+            }
+        });
+        Map data = jr.readData();
+
+        assertEquals(2, records.size());
+        assertEquals(Arrays.asList("apple", "pear"), records.get(0).get("items"));
+        assertEquals(new ArrayList(), data.get("orders"));
+        assertEquals("Corner", data.get("shop"));
+    }
+
     private void testTxtTemplate(String templateFile, String documentFile, String jsonResultFile) throws Exception {
         System.out.println("## Testing Reader template name "+templateFile);
 
@@ -65,6 +107,10 @@ public class JebtTextReaderTest
         JebtTextReader jr = new JebtTextReader(templateReader, docReader);
         JSONObject data = new JSONObject(jr.readData());
 
+        compareWithJSonResult(data, jsonResultFile);
+    }
+
+    private void compareWithJSonResult(JSONObject data, String jsonResultFile) throws Exception {
         Reader targetJSonReader;
 
         if (jsonResultFile != null) {
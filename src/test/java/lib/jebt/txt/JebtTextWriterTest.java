@@ -1,5 +1,6 @@
 package lib.jebt.txt;
 
+import lib.jebt.JebtBatchWriter;
 import lib.jebt.TestConstants;
 import lib.jebt.TestUtils;
 import org.json.simple.JSONArray;
@@ -13,6 +14,7 @@ import java.io.*;
 import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 /**
  * These Tests will test all txt files in /test/resources/txt.
@@ -37,6 +39,34 @@ public class JebtTextWriterTest
         testTxtTemplate("loopsNoEndTextTxtTemplate.txt", "loopsNoEndTextTxtTemplateResult.txt", "loopsJSonResult.json");
     }
 
+    @Test
+    /**
+     * Documents filled concurrently from one template are filled as by a single writer, and a failing job doesn't stop the others
+     */
+    public void testBatch() throws Exception {
+        String template = "Names:{[names|name]} {{name}};{[]} End";
+        List<JebtBatchWriter.Job<Writer>> jobs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Map data = new LinkedHashMap();
+            // A loop on something else than a List fails.
+            data.put("names", i == 7 ? "x" : Arrays.asList("a" + i, "b" + i));
+            jobs.add(new JebtBatchWriter.Job<Writer>(data, new StringWriter()));
+        }
+
+        List<JebtBatchWriter.Failure<Writer>> failures = new JebtTextBatchWriter(new StringReader(template), 4, true).writeAll(jobs.iterator());
+
+        assertEquals(1, failures.size());
+        assertEquals(7, failures.get(0).getIndex());
+        assertSame(jobs.get(7), failures.get(0).getJob());
+        for (int i = 0; i < jobs.size(); i++) {
+            if (i != 7) {
+                StringWriter expected = new StringWriter();
+                new JebtTextWriter(new StringReader(template), expected).writeData(jobs.get(i).getData());
+                assertEquals(expected.toString(), jobs.get(i).getOutput().toString());
+            }
+        }
+    }
+
     private void testTxtTemplate(String templateFile, String documentFile, String jsonDataFile) throws Exception {
         System.out.println("## Testing XLSX Writer template name " + templateFile);
 
@@ -0,0 +1,50 @@
+package lib.jebt.txt;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedFileReaderTest {
+
+    @Test
+    public void testReadAcrossWindows() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            // Mixing ASCII with 2, 3 and 4 bytes UTF-8 sequences, so that some of them are cut by window boundaries.
+            text.append("Line ").append(i).append(": café € 😀\n");
+        }
+
+        assertEquals(text.toString(), readWithWindow(text.toString(), StandardCharsets.UTF_8, 17));
+        assertEquals(text.toString(), readWithWindow(text.toString(), StandardCharsets.UTF_8, 4096));
+        assertEquals(text.toString(), readWithWindow(text.toString(), StandardCharsets.UTF_16LE, 17));
+        assertEquals("", readWithWindow("", StandardCharsets.UTF_8, 17));
+    }
+
+    private String readWithWindow(String text, Charset charset, int windowSize) throws Exception {
+        File file = File.createTempFile("jebt", ".txt");
+        try {
+            Files.write(file.toPath(), text.getBytes(charset));
+
+            StringBuilder result = new StringBuilder();
+            Reader reader = new MappedFileReader(file, charset, windowSize);
+            try {
+                char[] buf = new char[100];
+                int n;
+                while ((n = reader.read(buf, 0, buf.length)) != -1) {
+                    result.append(buf, 0, n);
+                }
+            } finally {
+                reader.close();
+            }
+            return result.toString();
+        } finally {
+            file.delete();
+        }
+    }
+}
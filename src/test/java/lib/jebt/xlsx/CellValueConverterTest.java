@@ -0,0 +1,41 @@
+package lib.jebt.xlsx;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+
+public class CellValueConverterTest {
+
+    @Test
+    public void testDatePattern() {
+        XSSFWorkbook wb = new XSSFWorkbook();
+        CellStyle dateStyle = wb.createCellStyle();
+        dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("d/m/yy"));
+        CellStyle decimalStyle = wb.createCellStyle();
+        decimalStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("0.00"));
+
+        Row row = wb.createSheet().createRow(0);
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2017, Calendar.DECEMBER, 31);
+        Cell dateCell = row.createCell(0);
+        dateCell.setCellValue(calendar.getTime());
+        dateCell.setCellStyle(dateStyle);
+
+        CellValueConverter converter = new CellValueConverter("yyyy-MM-dd");
+        assertEquals("2017-12-31", converter.toString(dateCell));
+        // Style classification is cached, the result must be the same.
+        assertEquals("2017-12-31", converter.toString(dateCell));
+
+        CellValueConverter xmlConverter = new CellValueConverter("yyyy-MM-dd", wb.getStylesSource(), false);
+        assertEquals("2017-12-31", xmlConverter.formatNumber("43100", dateStyle.getIndex()));
+        assertEquals("3.14", xmlConverter.formatNumber("3.14159", decimalStyle.getIndex()));
+        assertEquals("12", xmlConverter.formatNumber("12.0", -1));
+        assertEquals("2017-12-31", xmlConverter.formatNumber("43100", dateStyle.getIndex()));
+    }
+}
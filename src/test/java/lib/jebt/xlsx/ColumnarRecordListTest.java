@@ -0,0 +1,128 @@
+package lib.jebt.xlsx;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ColumnarRecordListTest {
+
+    @Test
+    /**
+     * Main loop collections read by column hold the same records as when read as Maps
+     */
+    public void testRead() throws Exception {
+        CorpusGenerator generator = new CorpusGenerator(11, 300, 3, 20, 3);
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        generator.createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), documentOS)
+                .writeData(generator.createData());
+        byte[] document = documentOS.toByteArray();
+
+        Map expected = new JebtXlsxReader(new XSSFWorkbook(new ByteArrayInputStream(template)), new ByteArrayInputStream(document)).readData();
+        Map data = JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(new ByteArrayInputStream(document))
+                .sharedStringsStore(new InMemorySharedStringsStore()).columnarLoops(true).build().readData();
+
+        assertTrue(data.get("items") instanceof ColumnarRecordList);
+        ColumnarRecordList items = (ColumnarRecordList)data.get("items");
+        assertTrue(items.isColumnar());
+        assertEquals(Arrays.<Object>asList("id", "c0", "c1", "c2", "text", "children"), new ArrayList<>(items.getKeys()));
+        assertEquals(expected, data);
+        assertEquals(generator.createItem(42), items.get(42));
+
+        // Changing a record materializes the whole list.
+        Map record = items.get(7);
+        record.put("extra", true);
+        assertFalse(items.isColumnar());
+        assertEquals(true, items.get(7).get("extra"));
+        assertEquals(generator.createItem(8), items.get(8));
+    }
+
+    @Test
+    /**
+     * Values are stored by type, mixed types fall back to boxed values, and null values are told apart from missing keys
+     */
+    public void testColumns() throws Exception {
+        ColumnarRecordList records = new ColumnarRecordList();
+        List<Map> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            Map record = new LinkedHashMap();
+            record.put("long", (long)i);
+            record.put("double", i / 4.0);
+            record.put("boolean", i % 3 == 0);
+            record.put("category", "cat" + i % 5);
+            // Distinct strings, past the dictionary size.
+            record.put("name", "name" + i);
+            record.put("mixed", i < 5000 ? (Object)(long)i : "s" + i);
+            if (i % 2 == 0) {
+                record.put("sparse", null);
+            }
+            expected.add(record);
+            records.addRecord(new LinkedHashMap(record));
+        }
+
+        assertEquals(expected, records);
+        assertEquals(1234, records.getLong("long", 1234));
+        assertEquals(2.5, records.getDouble("double", 10), 0);
+        assertTrue(records.getBoolean("boolean", 9));
+        assertFalse(records.getBoolean("boolean", 10));
+        assertEquals("s7000", records.get(7000).get("mixed"));
+        assertEquals(4999L, records.get(4999).get("mixed"));
+        assertTrue(records.get(2).containsKey("sparse"));
+        assertNull(records.get(2).get("sparse"));
+        assertFalse(records.get(3).containsKey("sparse"));
+        assertEquals(6, records.get(3).size());
+
+        records.add(new LinkedHashMap());
+        assertFalse(records.isColumnar());
+        assertEquals(10001, records.size());
+        assertEquals(expected.get(3), records.get(3));
+    }
+
+    @Test
+    /**
+     * Columns mixing integers and decimals give each value back with its own type, whichever came first
+     */
+    public void testMixedNumbers() throws Exception {
+        ColumnarRecordList records = new ColumnarRecordList();
+        List<Map> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Map record = new LinkedHashMap();
+            record.put("amount", i % 3 == 0 ? (Object)(i + 0.5) : (Object)(long)i);
+            record.put("quantity", i % 3 == 0 ? (Object)(long)i : (Object)(i + 0.25));
+            if (i % 7 == 0) {
+                record.put("amount", null);
+            }
+            expected.add(record);
+            records.addRecord(new LinkedHashMap(record));
+        }
+
+        assertEquals(expected, records);
+        assertEquals(4L, records.get(4).get("amount"));
+        assertEquals(3.5, records.get(3).get("amount"));
+        assertEquals(0L, records.get(0).get("quantity"));
+        assertEquals(1.25, records.get(1).get("quantity"));
+        assertNull(records.get(7).get("amount"));
+        assertTrue(records.isColumnar());
+        try {
+            records.getLong("amount", 4);
+            fail("Mixed numbers aren't all Longs");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package lib.jebt.xlsx;
+
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic generator of large XLSX templates and data, for soak tests.
+ * <p>
+ * The template has a title row, then a main loop on "items" with one row per item: an id, columnCount short text columns, one long text column,
+ * and a nested loop on the item children, 1 to maxChildren of them, laid out on the rest of the row.
+ * Items are generated from the seed and their index only, so any of them can be generated again to check what was read,
+ * and the data never holds all the items in memory.
+ * </p>
+ */
+public class CorpusGenerator {
+
+    private final long seed;
+
+    private final int rowCount;
+
+    private final int columnCount;
+
+    private final int textLength;
+
+    private final int maxChildren;
+
+    public CorpusGenerator(long seed, int rowCount, int columnCount, int textLength, int maxChildren) {
+        if (maxChildren < 1) {
+            throw new IllegalArgumentException("Items should have at least 1 child, got " + maxChildren);
+        }
+        this.seed = seed;
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.textLength = textLength;
+        this.maxChildren = maxChildren;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public XSSFWorkbook createTemplate() {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet("Items");
+        sheet.createRow(0).createCell(0).setCellValue("Corpus: {{title}}");
+
+        Drawing drawing = sheet.createDrawingPatriarch();
+        XSSFRow row = sheet.createRow(1);
+        int column = 0;
+        // Literal prefixes tell items and children apart when matching.
+        setCell(workbook, drawing, row, column++, "#{{i0.id}}", "{[items|i0]}");
+        for (int c = 0; c < columnCount; c++) {
+            setCell(workbook, drawing, row, column++, "{{i0.c" + c + "}}", null);
+        }
+        setCell(workbook, drawing, row, column++, "{{i0.text}}", null);
+        setCell(workbook, drawing, row, column++, "@{{i1.name}}", "{[i0.children|i1]}");
+        setCell(workbook, drawing, row, column, "{{i1.quantity}}", "{[]}{[]}");
+
+        return workbook;
+    }
+
+    private void setCell(XSSFWorkbook workbook, Drawing drawing, XSSFRow row, int column, String text, String comment) {
+        XSSFCell cell = row.createCell(column);
+        cell.setCellValue(text);
+        if (comment != null) {
+            ClientAnchor anchor = workbook.getCreationHelper().createClientAnchor();
+            anchor.setCol1(column);
+            anchor.setCol2(column + 2);
+            anchor.setRow1(row.getRowNum());
+            anchor.setRow2(row.getRowNum() + 3);
+            Comment cellComment = drawing.createCellComment(anchor);
+            cellComment.setString(new XSSFRichTextString(comment));
+            cell.setCellComment(cellComment);
+        }
+    }
+
+    /**
+     * @return the data to write, whose items are generated when they're iterated.
+     */
+    public Map createData() {
+        Map data = new LinkedHashMap();
+        data.put("title", "Soak " + seed);
+        data.put("items", new AbstractList<Map>() {
+            @Override public Map get(int index) {
+                return createItem(index);
+            }
+
+            @Override public int size() {
+                return rowCount;
+            }
+        });
+        return data;
+    }
+
+    /**
+     * @return the item at the passed index, always the same for a given seed.
+     */
+    public Map createItem(int index) {
+        Random random = new Random(seed * 1000003 + index);
+
+        Map item = new LinkedHashMap();
+        item.put("id", "r" + index);
+        for (int c = 0; c < columnCount; c++) {
+            item.put("c" + c, randomText(random, 4 + random.nextInt(12)));
+        }
+        item.put("text", randomText(random, textLength));
+
+        List children = new ArrayList();
+        int childCount = 1 + random.nextInt(maxChildren);
+        for (int i = 0; i < childCount; i++) {
+            Map child = new LinkedHashMap();
+            child.put("name", "child" + i);
+            child.put("quantity", "q" + random.nextInt(1000));
+            children.add(child);
+        }
+        item.put("children", children);
+
+        return item;
+    }
+
+    /**
+     * Texts start with an upper case letter and end with a letter, so they're never read as numbers or booleans, nor escaped as formulas.
+     */
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(37);
+            if (i == 0) {
+                text.append((char)('A' + random.nextInt(26)));
+            } else if (i == length - 1 || r < 26) {
+                text.append((char)('a' + random.nextInt(26)));
+            } else if (r < 36) {
+                text.append((char)('0' + r - 26));
+            } else {
+                text.append(' ');
+            }
+        }
+        return text.toString();
+    }
+}
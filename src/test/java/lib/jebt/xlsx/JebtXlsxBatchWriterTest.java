@@ -0,0 +1,67 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.JebtBatchWriter;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JebtXlsxBatchWriterTest {
+
+    @Test
+    /**
+     * Documents filled concurrently from one template hold the same data as when filled by a single writer, and a failing job doesn't stop the others
+     */
+    public void testWriteAll() throws Exception {
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        new CorpusGenerator(0, 1, 3, 10, 2).createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+
+        List<JebtBatchWriter.Job<OutputStream>> jobs = new ArrayList<>();
+        for (int i = 0; i < 24; i++) {
+            Map data;
+            if (i == 5) {
+                // A loop on something else than a List fails.
+                data = new LinkedHashMap();
+                data.put("title", "Broken");
+                data.put("items", "x");
+            } else {
+                data = new CorpusGenerator(i, 1 + i % 4, 3, 10, 2).createData();
+            }
+            jobs.add(new JebtBatchWriter.Job<OutputStream>(data, new ByteArrayOutputStream()));
+        }
+
+        List<JebtBatchWriter.Failure<OutputStream>> failures = new JebtXlsxBatchWriter(new ByteArrayInputStream(template), 4, true)
+                .writeAll(jobs.iterator());
+
+        assertEquals(1, failures.size());
+        assertEquals(5, failures.get(0).getIndex());
+        assertTrue(failures.get(0).getError().getMessage().contains("not a List"));
+
+        for (int i = 0; i < jobs.size(); i++) {
+            if (i == 5) {
+                continue;
+            }
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)), expected)
+                    .writeData(jobs.get(i).getData());
+
+            Map actualData = readData(template, ((ByteArrayOutputStream)jobs.get(i).getOutput()).toByteArray());
+            assertEquals(1 + i % 4, ((List)actualData.get("items")).size());
+            assertEquals(readData(template, expected.toByteArray()), actualData);
+        }
+    }
+
+    private Map readData(byte[] template, byte[] document) throws Exception {
+        return new JebtXlsxReader(new XSSFWorkbook(new ByteArrayInputStream(template)), new ByteArrayInputStream(document)).readData();
+    }
+}
@@ -1,5 +1,6 @@
 package lib.jebt.xlsx;
 
+import lib.jebt.JebtRecordSink;
 import lib.jebt.TestUtils;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.util.IOUtils;
@@ -10,9 +11,14 @@ import org.json.simple.parser.ContainerFactory;
 import org.json.simple.parser.JSONParser;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -73,29 +79,160 @@ public class JebtXlsxReaderTest extends BaseJebtXlsxTest
     }
 
 
+    @Test
+    /**
+     * Same as the other tests, reading the document XML directly
+     */
+    public void testWithXmlDocumentReader() throws Exception
+    {
+        testXlsxReader("basicXlsxTemplate.xlsx", "basicXlsxTemplateResult.xlsx", "basicJSonData.json", new InMemorySharedStringsStore());
+        testXlsxReader("simpleLoopXlsxTemplate.xlsx", "simpleLoopXlsxTemplateResult.xlsx", "simpleLoopJSonData.json", new InMemorySharedStringsStore());
+        testXlsxReader("loopXlsxTemplate.xlsx", "loopXlsxTemplateResult.xlsx", "loopJSonData.json", new InMemorySharedStringsStore());
+        testXlsxReader("loopXlsxTemplate.xlsx", "loopXlsxTemplateResult.xlsx", "loopJSonData.json", new MappedSharedStringsStore());
+    }
+
+
+    @Test
+    /**
+     * Sheets extracted concurrently are merged just like when they're extracted one after the other
+     */
+    public void testConcurrentSheets() throws Exception
+    {
+        XSSFWorkbook template = new XSSFWorkbook();
+        XSSFWorkbook document = new XSSFWorkbook();
+        for (int i = 0; i < 4; i++) {
+            template.createSheet("Sheet {{names.sheet" + i + "}}").createRow(0).createCell(0).setCellValue("Total: {{sheets[" + i + "].total}}");
+            template.getSheetAt(i).getRow(0).createCell(1).setCellValue("{{summary.sheet" + i + "}}");
+            document.createSheet("Sheet " + (char)('A' + i)).createRow(0).createCell(0).setCellValue("Total: " + (i * 100));
+            document.getSheetAt(i).getRow(0).createCell(1).setCellValue("Done " + i);
+        }
+
+        ByteArrayOutputStream documentOS = new ByteArrayOutputStream();
+        document.write(documentOS);
+
+        Map sequentialData = JebtXlsxReader.builder(template).document(new ByteArrayInputStream(documentOS.toByteArray())).build().readData();
+        Map concurrentData = JebtXlsxReader.builder(template).document(new ByteArrayInputStream(documentOS.toByteArray()))
+                .sharedStringsStore(new InMemorySharedStringsStore()).threadCount(3).build().readData();
+
+        assertEquals(4, ((List)sequentialData.get("sheets")).size());
+        assertEquals("C", ((Map)sequentialData.get("names")).get("sheet2"));
+        assertEquals("Done 3", ((Map)sequentialData.get("summary")).get("sheet3"));
+        compareJSON(new JSONObject(sequentialData), new JSONObject(concurrentData));
+    }
+
+
+    @Test
+    /**
+     * Main loop records passed to a record sink, with and without record reuse
+     */
+    public void testRecordSink() throws Exception
+    {
+        testRecordSink(false);
+        testRecordSink(true);
+    }
+
+    private void testRecordSink(boolean reuseRecords) throws Exception {
+        final List<Map> records = new ArrayList<>();
+        final List<Integer> indexes = new ArrayList<>();
+        JebtRecordSink sink = new JebtRecordSink() {
+            @Override public void accept(String collectionJsonPath, int index, Map record) {
+                assertEquals("customers", collectionJsonPath);
+                indexes.add(index);
+                // The template has several main loops on customers, each one completing the same records.
+                if (index == records.size()) {
+                    records.add(new LinkedHashMap());
+                }
+                // Reused records must be copied.
+                records.get(index).putAll(record);
+            }
+        };
+
+        InputStream docIS = TestUtils.getInputStream("/xlsx/loopXlsxTemplateResult.xlsx");
+        Map data = JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(docIS)
+                .recordSink(sink).reuseRecords(reuseRecords).build().readData();
+        IOUtils.closeQuietly(docIS);
+
+        assertEquals(0, ((List)data.get("customers")).size());
+        assertEquals(Arrays.asList(0, 1, 2, 0, 1, 2, 0, 1, 2), indexes);
+
+        // Putting records back in their collection gives the same data as without sink.
+        data.put("customers", records);
+        compareJSON(readJSON("loopJSonData.json"), new JSONObject(data));
+    }
+
+    @Test
+    /**
+     * Only projected paths are extracted, including inner loop items
+     */
+    public void testProjection() throws Exception
+    {
+        InputStream docIS = TestUtils.getInputStream("/xlsx/loopXlsxTemplateResult.xlsx");
+        Map data = JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(docIS)
+                .projection(new HashSet<>(Arrays.asList("customers[*].name", "customers[*].aliases"))).build().readData();
+        IOUtils.closeQuietly(docIS);
+
+        JSONObject expected = readJSON("loopJSonData.json");
+        expected.remove("stringName");
+        for (Object customer : (List)expected.get("customers")) {
+            ((Map)customer).remove("country");
+            ((Map)customer).remove("friends");
+        }
+        compareJSON(expected, new JSONObject(data));
+    }
+
+    @Test
+    /**
+     * Documents read in place from their file, and from streams with a custom buffer size
+     */
+    public void testDocumentFile() throws Exception
+    {
+        File documentFile = TestUtils.getFile("/xlsx/loopXlsxTemplateResult.xlsx");
+        long length = documentFile.length();
+        long lastModified = documentFile.lastModified();
+
+        JSONObject expected = readJSON("loopJSonData.json");
+        compareJSON(expected, new JSONObject(JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(documentFile).build().readData()));
+        compareJSON(expected, new JSONObject(JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(documentFile.toPath()).build().readData()));
+        compareJSON(expected, new JSONObject(JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(documentFile)
+                .sharedStringsStore(new InMemorySharedStringsStore()).threadCount(2).build().readData()));
+
+        InputStream docIS = TestUtils.getInputStream("/xlsx/loopXlsxTemplateResult.xlsx");
+        compareJSON(expected, new JSONObject(JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx")).document(docIS).bufferSize(16).build().readData()));
+        IOUtils.closeQuietly(docIS);
+
+        // The document file is only read.
+        assertEquals(length, documentFile.length());
+        assertEquals(lastModified, documentFile.lastModified());
+    }
+
     private void testXlsxReader(String templateFile, String documentFile, String jsonResultFile) throws Exception {
+        testXlsxReader(templateFile, documentFile, jsonResultFile, null);
+    }
+
+    private void testXlsxReader(String templateFile, String documentFile, String jsonResultFile, SharedStringsStore sharedStringsStore) throws Exception {
         System.out.println("## Testing Reader template name "+templateFile);
 
         InputStream docIS = TestUtils.getInputStream("/xlsx/"+documentFile);
 
         XSSFWorkbook template = getXSSFWorkbook("/xlsx/"+templateFile);
 
-        JebtXlsxReader jr = new JebtXlsxReader(template, docIS);
+        JebtXlsxReader jr = JebtXlsxReader.builder(template).document(docIS).sharedStringsStore(sharedStringsStore).build();
         JSONObject data = new JSONObject(jr.readData());
 
         IOUtils.closeQuietly(docIS);
 
-        Reader targetJSonReader;
-
-        if (jsonResultFile != null) {
-            targetJSonReader = TestUtils.getFileReader("/xlsx/"+jsonResultFile);
-        } else {
+        if (jsonResultFile == null) {
             // No target JSon file, skipping comparison.
             return;
         }
 
         // Comparing JSons.
-        JSONObject targetJSon = new JSONObject((Map)new JSONParser().parse(targetJSonReader, new ContainerFactory() {
+        compareJSON(readJSON(jsonResultFile), data);
+    }
+
+    private JSONObject readJSON(String jsonFile) throws Exception {
+        Reader targetJSonReader = TestUtils.getFileReader("/xlsx/"+jsonFile);
+        return new JSONObject((Map)new JSONParser().parse(targetJSonReader, new ContainerFactory() {
             @Override public Map createObjectContainer() {
                 return new LinkedHashMap();
             }
@@ -104,8 +241,6 @@ public class JebtXlsxReaderTest extends BaseJebtXlsxTest
                 return new ArrayList();
             }
         }));
-
-        compareJSON(targetJSon, data);
     }
 
     // Comparing directly JSONObjects works but doesn't give enough information when something fails like comparing an Integer with a Long.
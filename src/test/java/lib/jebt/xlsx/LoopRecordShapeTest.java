@@ -0,0 +1,72 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.parser.Token;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoopRecordShapeTest {
+
+    @Test
+    public void testMatches() {
+        XSSFWorkbook wb = new XSSFWorkbook();
+
+        // Loop body: [Name: {{item.name}}] [42] / [{{item.code}}]
+        Sheet template = wb.createSheet();
+        Row row = template.createRow(0);
+        row.createCell(0).setCellValue("Name: {{item.name}}");
+        row.createCell(1).setCellValue(42);
+        template.createRow(1).createCell(0).setCellValue("{{item.code}}");
+
+        List<Token> loopTokens = new ArrayList<>();
+        loopTokens.add(new Token(template.getRow(0).getCell(0)));
+        loopTokens.add(new Token(template.getRow(0).getCell(1)));
+        loopTokens.add(new Token(Token.TokenType.NEW_ROW, null));
+        loopTokens.add(new Token(template.getRow(1).getCell(0)));
+        LoopRecordShape shape = LoopRecordShape.compile(loopTokens);
+
+        Sheet document = wb.createSheet();
+        addRecord(document, 0, "Name: a", true, "A");
+        addRecord(document, 2, "Nom: b", true, "B");
+        addRecord(document, 4, "Name: c", false, "C");
+
+        SheetReader reader = new SheetReader(document);
+        assertEquals(Token.TokenType.NEW_ROW, reader.next());
+        assertTrue(shape.matches(reader, 5));
+        // The reader isn't moved.
+        assertEquals(1, reader.getPosition());
+
+        // Wrong anchor.
+        skip(reader, 5);
+        assertFalse(shape.matches(reader, 10));
+
+        // Text instead of a number.
+        skip(reader, 5);
+        assertFalse(shape.matches(reader, 15));
+    }
+
+    private void skip(SheetReader reader, int count) {
+        for (int i = 0; i < count; i++) {
+            reader.next();
+        }
+    }
+
+    private void addRecord(Sheet sheet, int rowIndex, String name, boolean hasNumber, String code) {
+        Row row = sheet.createRow(rowIndex);
+        row.createCell(0).setCellValue(name);
+        if (hasNumber) {
+            row.createCell(1).setCellValue(1);
+        } else {
+            row.createCell(1).setCellValue("1");
+        }
+        sheet.createRow(rowIndex + 1).createCell(0).setCellValue(code);
+    }
+}
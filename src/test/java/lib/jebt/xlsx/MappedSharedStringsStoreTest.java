@@ -0,0 +1,85 @@
+package lib.jebt.xlsx;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedSharedStringsStoreTest {
+
+    @Test
+    public void testStringsAcrossSegments() throws Exception {
+        StringBuilder sst = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+        for (int i = 0; i < 200; i++) {
+            sst.append("<si><t>String ").append(i).append(" café € 😀</t></si>");
+        }
+        // Rich text, phonetic runs, escapes and empty strings.
+        sst.append("<si><r><t>Rich </t></r><r><rPr><b/></rPr><t>text</t></r><rPh sb=\"0\" eb=\"1\"><t>phonetic</t></rPh></si>");
+        sst.append("<si><t>Tab_x0009_bed</t></si>");
+        sst.append("<si><t/></si>");
+        sst.append("</sst>");
+
+        // Tiny segments and cache, so that strings are split across segments and evicted from the cache.
+        MappedSharedStringsStore store = new MappedSharedStringsStore(4, 16);
+        store.load(new ByteArrayInputStream(sst.toString().getBytes(StandardCharsets.UTF_8)));
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < 200; i++) {
+                    assertEquals("String " + i + " café € 😀", store.getString(i));
+                }
+            }
+            assertEquals("Rich text", store.getString(200));
+            assertEquals("Tab\tbed", store.getString(201));
+            assertEquals("", store.getString(202));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    /**
+     * Strings are looked up concurrently, as when sheets are extracted concurrently, while they're evicted from each other's cache slots
+     */
+    public void testConcurrentLookups() throws Exception {
+        StringBuilder sst = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">");
+        for (int i = 0; i < 1000; i++) {
+            sst.append("<si><t>String ").append(i).append(" é</t></si>");
+        }
+        sst.append("</sst>");
+
+        final MappedSharedStringsStore store = new MappedSharedStringsStore(16, 64);
+        store.load(new ByteArrayInputStream(sst.toString().getBytes(StandardCharsets.UTF_8)));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> lookups = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                lookups.add(executor.submit(new Callable<Void>() {
+                    @Override public Void call() {
+                        for (int pass = 0; pass < 20; pass++) {
+                            for (int i = 0; i < 1000; i++) {
+                                int index = (i * 7 + thread * 31) % 1000;
+                                assertEquals("String " + index + " é", store.getString(index));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> lookup : lookups) {
+                lookup.get();
+            }
+        } finally {
+            executor.shutdown();
+            store.close();
+        }
+    }
+}
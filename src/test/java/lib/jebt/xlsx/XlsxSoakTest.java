@@ -0,0 +1,193 @@
+package lib.jebt.xlsx;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import lib.jebt.JebtRecordSink;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Full write then read cycle of a large generated corpus (see {@link CorpusGenerator}), checking every record read and the heap used.
+ * <p>
+ * It runs on a small corpus with the other tests. The soak profile runs it alone on 1M rows in a JVM with a capped heap:
+ * mvn test -P soak (see the pom for the properties to change the corpus size and the heap budget).
+ * </p>
+ */
+public class XlsxSoakTest {
+
+    private static final long SEED = 42;
+
+    @Test
+    /**
+     * Data read back is the data written, and the live heap never goes over budget.
+     */
+    public void testRoundTrip() throws Exception {
+        int rows = Integer.getInteger("jebt.soak.rows", 2000);
+        int columns = Integer.getInteger("jebt.soak.columns", 8);
+        int textLength = Integer.getInteger("jebt.soak.textLength", 200);
+        long maxHeapBytes = Long.getLong("jebt.soak.maxHeapMb", 256) * 1024 * 1024;
+
+        final CorpusGenerator generator = new CorpusGenerator(SEED, rows, columns, textLength, 3);
+        ByteArrayOutputStream templateOS = new ByteArrayOutputStream();
+        generator.createTemplate().write(templateOS);
+        byte[] template = templateOS.toByteArray();
+
+        File documentFile = File.createTempFile("jebtSoak", ".xlsx");
+        HeapMonitor monitor = new HeapMonitor();
+        try {
+            // Write
+            long start = System.nanoTime();
+            new JebtXlsxWriter(new XSSFWorkbook(new ByteArrayInputStream(template)), new XSSFWorkbook(new ByteArrayInputStream(template)),
+                    new FileOutputStream(documentFile)).writeData(generator.createData());
+            report("write", rows, start, monitor);
+
+            // Read, checking each record as soon as it's read: records are reused and never stored.
+            final int[] recordCount = {0};
+            JebtRecordSink sink = new JebtRecordSink() {
+                @Override public void accept(String collectionJsonPath, int index, Map record) {
+                    assertEquals("items", collectionJsonPath);
+                    assertEquals("Record " + index, generator.createItem(index), record);
+                    ++recordCount[0];
+                }
+            };
+
+            monitor.reset();
+            start = System.nanoTime();
+            InputStream documentIS = new FileInputStream(documentFile);
+            Map data;
+            try {
+                data = JebtXlsxReader.builder(new XSSFWorkbook(new ByteArrayInputStream(template))).document(documentIS)
+                        .sharedStringsStore(new MappedSharedStringsStore()).recordSink(sink).reuseRecords(true).build().readData();
+            } finally {
+                IOUtils.closeQuietly(documentIS);
+            }
+            report("read", rows, start, monitor);
+
+            assertEquals(rows, recordCount[0]);
+            assertEquals(generator.createData().get("title"), data.get("title"));
+            assertTrue("Peak live heap " + toMb(monitor.getPeakLiveHeap()) + "MB is over budget " + toMb(maxHeapBytes) + "MB",
+                    monitor.getPeakLiveHeap() <= maxHeapBytes);
+        } finally {
+            monitor.close();
+            documentFile.delete();
+        }
+    }
+
+    private void report(String phase, int rows, long start, HeapMonitor monitor) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("## Soak %s: %d rows in %.1fs (%.0f rows/s), peak heap %dMB, peak live heap %dMB, GC time %dms",
+                phase, rows, seconds, rows / seconds, toMb(monitor.getPeakHeap()), toMb(monitor.getPeakLiveHeap()), monitor.getGcTime()));
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    /**
+     * Tracks the peak heap, the peak heap right after garbage collections (that is the live data, as reported by the collections themselves),
+     * and the time spent in garbage collections since the last reset.
+     */
+    private static class HeapMonitor implements NotificationListener {
+
+        private final Set<String> heapPoolNames = new HashSet<>();
+
+        private volatile long peakLiveHeap;
+
+        private long gcTime;
+
+        HeapMonitor() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    heapPoolNames.add(pool.getName());
+                }
+            }
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter)gc).addNotificationListener(this, null, null);
+                }
+            }
+            reset();
+        }
+
+        @Override public void handleNotification(Notification notification, Object handback) {
+            if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+                return;
+            }
+            // The heap read now would include what was allocated since the collection, so the usage it reported is used instead.
+            GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+            long liveHeap = 0;
+            for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+                if (heapPoolNames.contains(pool.getKey())) {
+                    liveHeap += pool.getValue().getUsed();
+                }
+            }
+            peakLiveHeap = Math.max(peakLiveHeap, liveHeap);
+        }
+
+        void reset() {
+            // The explicit collection is reported like any other.
+            peakLiveHeap = 0;
+            System.gc();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            gcTime = getTotalGcTime();
+        }
+
+        long getPeakHeap() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            return peak;
+        }
+
+        long getPeakLiveHeap() {
+            return peakLiveHeap;
+        }
+
+        long getGcTime() {
+            return getTotalGcTime() - gcTime;
+        }
+
+        void close() throws Exception {
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (gc instanceof NotificationEmitter) {
+                    ((NotificationEmitter)gc).removeNotificationListener(this);
+                }
+            }
+        }
+
+        private static long getTotalGcTime() {
+            long time = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                time += Math.max(0, gc.getCollectionTime());
+            }
+            return time;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.TestUtils;
+import lib.jebt.parser.JebtTextTokenizer;
+import lib.jebt.parser.JebtTokenizer;
+import lib.jebt.parser.JebtXlsxTokenizer;
+import lib.jebt.parser.Token;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class XlsxTemplateTest extends BaseJebtXlsxTest {
+
+    @Test
+    /**
+     * Templates loaded without POI give the same tokens as POI workbooks, every time they're tokenized
+     */
+    public void testSameTokensAsWorkbook() throws Exception {
+        String[] templates = {"basicXlsxTemplate.xlsx", "simpleLoopXlsxTemplate.xlsx", "loopXlsxTemplate.xlsx"};
+        for (String templateFile : templates) {
+            XSSFWorkbook workbook = getXSSFWorkbook("/xlsx/" + templateFile);
+            XlsxTemplate template = XlsxTemplate.load(TestUtils.getFile("/xlsx/" + templateFile));
+
+            assertEquals(workbook.getNumberOfSheets(), template.getNumberOfSheets());
+            for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+                assertEquals(workbook.getSheetName(i), template.getSheetName(i));
+                List<Token> expected = readTokens(new JebtXlsxTokenizer(workbook.getSheetAt(i)));
+                compareTokens(expected, readTokens(new JebtXlsxTokenizer(template.getSheet(i))));
+                compareTokens(expected, readTokens(new JebtXlsxTokenizer(template.getSheet(i))));
+            }
+        }
+    }
+
+    @Test
+    /**
+     * Cell types, comments on missing cells and escapes
+     */
+    public void testCells() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        workbook.createSheet("Data").createRow(1).createCell(2).setCellValue("Tab_x0009_");
+        workbook.getSheetAt(0).getRow(1).createCell(3).setCellValue(12);
+        workbook.getSheetAt(0).getRow(1).createCell(4).setCellFormula("1+1");
+        workbook.getSheetAt(0).getRow(1).createCell(5).setCellValue("");
+        workbook.getSheetAt(0).createRow(3).createCell(0);
+        workbook.getSheetAt(0).createRow(4).createCell(1).setCellValue(true);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        workbook.write(os);
+
+        XlsxTemplate template = XlsxTemplate.load(new ByteArrayInputStream(os.toByteArray()));
+        XSSFWorkbook written = new XSSFWorkbook(new ByteArrayInputStream(os.toByteArray()));
+        compareTokens(readTokens(new JebtXlsxTokenizer(written.getSheetAt(0))), readTokens(new JebtXlsxTokenizer(template.getSheet(0))));
+        assertEquals(4, template.getSheet(0).getLastRowNum());
+    }
+
+    @Test
+    /**
+     * Reading documents with a template loaded without POI
+     */
+    public void testReadData() throws Exception {
+        InputStream templateIS = TestUtils.getInputStream("/xlsx/loopXlsxTemplate.xlsx");
+        XlsxTemplate template = XlsxTemplate.load(templateIS);
+        IOUtils.closeQuietly(templateIS);
+
+        Map expected = JebtXlsxReader.builder(getXSSFWorkbook("/xlsx/loopXlsxTemplate.xlsx"))
+                .document(TestUtils.getFile("/xlsx/loopXlsxTemplateResult.xlsx")).build().readData();
+
+        // The same template can be used several times.
+        assertEquals(expected, JebtXlsxReader.builder(template).document(TestUtils.getFile("/xlsx/loopXlsxTemplateResult.xlsx")).build().readData());
+        assertEquals(expected, JebtXlsxReader.builder(template).document(TestUtils.getFile("/xlsx/loopXlsxTemplateResult.xlsx"))
+                .sharedStringsStore(new InMemorySharedStringsStore()).threadCount(2).build().readData());
+    }
+
+    private List<Token> readTokens(JebtTokenizer tokenizer) {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        while ((token = tokenizer.readNext()) != Token.EOD) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private void compareTokens(List<Token> expected, List<Token> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Token e = expected.get(i);
+            Token a = actual.get(i);
+            assertEquals(e.getType(), a.getType());
+            if (e.getType() == Token.TokenType.NEW_TEXT_CELL) {
+                assertEquals(e.getCellText(), a.getCellText());
+            } else if (e.getType() == Token.TokenType.LOOP) {
+                JebtTextTokenizer.LoopToken el = (JebtTextTokenizer.LoopToken)e;
+                JebtTextTokenizer.LoopToken al = (JebtTextTokenizer.LoopToken)a;
+                assertEquals(el.getCollectionJsonPath(), al.getCollectionJsonPath());
+                assertEquals(el.getLoopItemName(), al.getLoopItemName());
+                compareTokens(el.getLoopTokens(), al.getLoopTokens());
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package lib.jebt.xlsx;
+
+import lib.jebt.TestUtils;
+import lib.jebt.parser.Token;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+
+public class XmlSheetSourceTest extends BaseJebtXlsxTest {
+
+    @Test
+    /**
+     * Reading the sheet XML must give the same cells and values as reading it through excel-streaming-reader.
+     */
+    public void testSameAsStreamingReader() throws Exception {
+        compareSources(IOUtils.toByteArray(TestUtils.getInputStream("/xlsx/basicXlsxTemplateResult.xlsx")));
+        compareSources(IOUtils.toByteArray(TestUtils.getInputStream("/xlsx/loopXlsxTemplateResult.xlsx")));
+
+        XSSFWorkbook wb = new XSSFWorkbook();
+        Sheet sheet = wb.createSheet();
+
+        CellStyle dateStyle = wb.createCellStyle();
+        dateStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("d/m/yy"));
+        CellStyle decimalStyle = wb.createCellStyle();
+        decimalStyle.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("0.00"));
+
+        Row row = sheet.createRow(0);
+        row.createCell(0).setCellValue("Text_x0041_");
+        row.createCell(2).setCellValue(12);
+        row.createCell(3).setCellValue(12.5);
+        row.createCell(4).setCellValue(true);
+        row.createCell(5).setCellFormula("C1+D1");
+        row.createCell(6).setCellValue("");
+
+        row = sheet.createRow(3);
+        row.createCell(1).setCellStyle(dateStyle);
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2017, Calendar.DECEMBER, 31);
+        row.getCell(1).setCellValue(calendar.getTime());
+        row.createCell(27).setCellValue(3.14159);
+        row.getCell(27).setCellStyle(decimalStyle);
+
+        row = sheet.createRow(4);
+        row.createCell(2).setCellStyle(decimalStyle);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        wb.write(bos);
+        compareSources(bos.toByteArray());
+    }
+
+    private void compareSources(byte[] document) throws Exception {
+        Workbook streamingWorkbook = getStreamingWorkbook(new ByteArrayInputStream(document));
+        SheetReader streamingReader = new SheetReader(streamingWorkbook.iterator().next());
+
+        OPCPackage pkg = OPCPackage.open(new ByteArrayInputStream(document));
+        XSSFReader xssfReader = new XSSFReader(pkg);
+        InMemorySharedStringsStore sharedStrings = new InMemorySharedStringsStore();
+        InputStream sharedStringsIS = xssfReader.getSharedStringsData();
+        sharedStrings.load(sharedStringsIS);
+        sharedStringsIS.close();
+        InputStream sheetIS = xssfReader.getSheetsData().next();
+        SheetReader xmlReader = new SheetReader(new XmlSheetSource(sheetIS, sharedStrings,
+                new CellValueConverter(CellValueConverter.DEFAULT_DATE_PATTERN, xssfReader.getStylesTable(), false)));
+
+        Token.TokenType type;
+        do {
+            type = streamingReader.next();
+            assertEquals(type, xmlReader.next());
+            assertEquals(streamingReader.getRowIndex(), xmlReader.getRowIndex());
+            assertEquals(streamingReader.getColumnIndex(), xmlReader.getColumnIndex());
+            assertEquals(streamingReader.getValueAsString(), xmlReader.getValueAsString());
+        } while (type != Token.TokenType.END_OF_DOCUMENT);
+
+        sheetIS.close();
+        pkg.revert();
+    }
+}